@@ -2,5 +2,6 @@ package ru.practicum.ewm.service.constant;
 
 public enum SortMode {
     EVENT_DATE,
-    VIEWS
+    VIEWS,
+    POPULAR
 }
@@ -18,15 +18,13 @@ import ru.practicum.ewm.service.event.repository.EventRepository;
 import ru.practicum.ewm.service.event.repository.LocationRepository;
 import ru.practicum.ewm.service.participation.repository.ParticipationRequestRepository;
 import ru.practicum.ewm.stats.client.StatsClient;
-import ru.practicum.ewm.stats.dto.ViewStatsDto;
 
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
-import static ru.practicum.ewm.service.constant.DateTimeFormat.DATETIME_FORMAT;
 import static ru.practicum.ewm.service.constant.ParticipationRequestStatus.CONFIRMED;
 import static ru.practicum.ewm.service.constant.StateActionAdmin.PUBLISH_EVENT;
 import static ru.practicum.ewm.service.constant.StateActionAdmin.REJECT_EVENT;
@@ -60,18 +58,12 @@ public class AdminEventServiceImpl implements AdminEventService {
                 .map(event -> "/events/" + event.getId())
                 .collect(Collectors.toList());
 
-        List<ViewStatsDto> viewStatsDtos = statsClient.getStats(
-                rangeStart.format(DateTimeFormatter.ofPattern(DATETIME_FORMAT)),
-                rangeEnd.format(DateTimeFormatter.ofPattern(DATETIME_FORMAT)),
-                eventUrls, true);
+        Map<String, Long> views = statsClient.getViews(rangeStart, rangeEnd, eventUrls, true);
         return events.stream()
                 .map(EVENT_MAPPER::toFullDto)
-                .peek(eventFullDto -> {
-                    Optional<ViewStatsDto> viewStatsDto = viewStatsDtos.stream()
-                            .filter(viewStatsDto1 -> viewStatsDto1.getUri().equals("/events/" + eventFullDto.getId()))
-                            .findFirst();
-                    eventFullDto.setViews(viewStatsDto.map(ViewStatsDto::getHits).orElse(0L));
-                }).peek(eventFullDto -> eventFullDto.setConfirmedRequests(
+                .peek(eventFullDto -> eventFullDto.setViews(
+                        views.getOrDefault("/events/" + eventFullDto.getId(), 0L)))
+                .peek(eventFullDto -> eventFullDto.setConfirmedRequests(
                         participationRequestRepository.countByEventIdAndStatus(eventFullDto.getId(), CONFIRMED)))
                 .collect(Collectors.toList());
     }
@@ -12,18 +12,15 @@ import ru.practicum.ewm.service.event.repository.EventRepository;
 import ru.practicum.ewm.service.participation.repository.ParticipationRequestRepository;
 import ru.practicum.ewm.stats.client.StatsClient;
 import ru.practicum.ewm.stats.dto.EndpointHitDto;
-import ru.practicum.ewm.stats.dto.ViewStatsDto;
 
 import javax.servlet.http.HttpServletRequest;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.stream.Collectors;
 
-import static ru.practicum.ewm.service.constant.DateTimeFormat.DATETIME_FORMAT;
 import static ru.practicum.ewm.service.constant.EventState.PUBLISHED;
 import static ru.practicum.ewm.service.constant.ParticipationRequestStatus.CONFIRMED;
 import static ru.practicum.ewm.service.event.mapper.EventMapper.EVENT_MAPPER;
@@ -71,19 +68,13 @@ public class PublicEventServiceImpl implements PublicEventService {
                 .map(event -> "/events/" + event.getId())
                 .collect(Collectors.toList());
 
-        List<ViewStatsDto> viewStatsDtos = statsClient.getStats(
-                rangeStart.format(DateTimeFormatter.ofPattern(DATETIME_FORMAT)),
-                rangeEnd.format(DateTimeFormatter.ofPattern(DATETIME_FORMAT)),
-                eventUrls, true);
+        Map<String, Long> views = statsClient.getViews(rangeStart, rangeEnd, eventUrls, true);
 
         List<EventShortDto> eventShortDtos = events.stream()
                 .map(EVENT_MAPPER::toShortDto)
-                .peek(eventShortDto -> {
-                    Optional<ViewStatsDto> viewStatsDto = viewStatsDtos.stream()
-                            .filter(statsDto -> statsDto.getUri().equals("/events/" + eventShortDto.getId()))
-                            .findFirst();
-                    eventShortDto.setViews(viewStatsDto.map(ViewStatsDto::getHits).orElse(0L));
-                }).peek(dto -> dto.setConfirmedRequests(
+                .peek(eventShortDto -> eventShortDto.setViews(
+                        views.getOrDefault("/events/" + eventShortDto.getId(), 0L)))
+                .peek(dto -> dto.setConfirmedRequests(
                         participationRequestRepository.countByEventIdAndStatus(dto.getId(), CONFIRMED)))
                 .collect(Collectors.toList());
 
@@ -94,6 +85,11 @@ public class PublicEventServiceImpl implements PublicEventService {
             case VIEWS:
                 eventShortDtos.sort(Comparator.comparing(EventShortDto::getViews).reversed());
                 break;
+            case POPULAR:
+                Map<String, Double> popularity = statsClient.getPopularity(eventUrls);
+                eventShortDtos.sort(Comparator.comparing((EventShortDto dto) ->
+                        popularity.getOrDefault("/events/" + dto.getId(), 0.0)).reversed());
+                break;
         }
 
         if (from >= eventShortDtos.size()) {
@@ -123,14 +119,12 @@ public class PublicEventServiceImpl implements PublicEventService {
 
         List<String> eventUrls = Collections.singletonList("/events/" + event.getId());
 
-        List<ViewStatsDto> viewStatsDtos = statsClient.getStats(
-                LocalDateTime.now().minusYears(100).format(DateTimeFormatter.ofPattern(DATETIME_FORMAT)),
-                LocalDateTime.now().plusYears(100).format(DateTimeFormatter.ofPattern(DATETIME_FORMAT)),
-                eventUrls, true);
+        Map<String, Long> views = statsClient.getViews(
+                LocalDateTime.now().minusYears(100), LocalDateTime.now().plusYears(100), eventUrls, true);
 
         EventFullDto dto = EVENT_MAPPER.toFullDto(event);
         dto.setConfirmedRequests(participationRequestRepository.countByEventIdAndStatus(event.getId(), CONFIRMED));
-        dto.setViews(viewStatsDtos.isEmpty() ? 0L : viewStatsDtos.get(0).getHits());
+        dto.setViews(views.getOrDefault(eventUrls.get(0), 0L));
 
         return dto;
     }
@@ -0,0 +1,55 @@
+package ru.practicum.ewm.stats.client;
+
+import ru.practicum.ewm.stats.dto.EndpointHitDto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free queue of hits waiting to be sent, bounded by {@code capacity}: a slot is reserved with a CAS on the size
+ * before the hit is queued, so producers never block and a full buffer rejects the hit instead.
+ */
+class HitBuffer {
+    private final Queue<EndpointHitDto> hits = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+
+    HitBuffer(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Queues the hit unless the buffer is full.
+     */
+    boolean offer(EndpointHitDto hit) {
+        int current;
+        do {
+            current = size.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+        hits.add(hit);
+        return true;
+    }
+
+    /**
+     * Takes up to {@code max} of the oldest hits.
+     */
+    List<EndpointHitDto> drain(int max) {
+        List<EndpointHitDto> batch = new ArrayList<>(Math.min(max, size.get()));
+        EndpointHitDto hit;
+        while (batch.size() < max && (hit = hits.poll()) != null) {
+            batch.add(hit);
+        }
+        size.addAndGet(-batch.size());
+        return batch;
+    }
+
+    int size() {
+        return size.get();
+    }
+}
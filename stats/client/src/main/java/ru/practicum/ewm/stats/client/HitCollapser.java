@@ -0,0 +1,63 @@
+package ru.practicum.ewm.stats.client;
+
+import ru.practicum.ewm.stats.dto.EndpointHitDto;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges the hits of a batch by app, uri, IP and window of {@code aggregationSeconds}, so that a burst of views
+ * of one visitor is sent as one record with a count; zero or less leaves batches as they are.
+ */
+class HitCollapser {
+    private final long aggregationSeconds;
+
+    HitCollapser(long aggregationSeconds) {
+        this.aggregationSeconds = aggregationSeconds;
+    }
+
+    /**
+     * Merges identical hits of the batch into one record each, stamped with the earliest of their timestamps.
+     * Repeated submissions of a view, with the same hit id, are counted once.
+     */
+    List<EndpointHitDto> collapse(List<EndpointHitDto> batch) {
+        if (aggregationSeconds <= 0) {
+            return batch;
+        }
+        Map<List<Object>, EndpointHitDto> records = new LinkedHashMap<>();
+        List<EndpointHitDto> collapsed = new ArrayList<>();
+        Set<String> hitIds = new HashSet<>();
+        for (EndpointHitDto hit : batch) {
+            if (hit.getHitId() != null && !hitIds.add(hit.getHitId())) {
+                continue;
+            }
+            if (hit.getHitTimestamp() == null) {
+                // left for the server to reject
+                collapsed.add(hit);
+                continue;
+            }
+            long second = hit.getHitTimestamp().toEpochSecond(ZoneOffset.UTC);
+            List<Object> key = Arrays.asList(hit.getApp(), hit.getUri(), hit.getIp(),
+                    second - Math.floorMod(second, aggregationSeconds));
+            EndpointHitDto record = records.putIfAbsent(key, hit);
+            if (record != null) {
+                record.setCount(count(record) + count(hit));
+                if (hit.getHitTimestamp().isBefore(record.getHitTimestamp())) {
+                    record.setHitTimestamp(hit.getHitTimestamp());
+                }
+            }
+        }
+        collapsed.addAll(records.values());
+        return collapsed;
+    }
+
+    private static int count(EndpointHitDto hit) {
+        return hit.getCount() == null ? 1 : hit.getCount();
+    }
+}
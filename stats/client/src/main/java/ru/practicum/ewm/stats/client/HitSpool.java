@@ -0,0 +1,272 @@
+package ru.practicum.ewm.stats.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.stats.dto.EndpointHitDto;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * On-disk spool of hits the stats server did not accept, replayed once it is reachable again. Hits are appended
+ * as JSON lines to segment files of about {@code stats.client.spool.segment-size} bytes and read back oldest first;
+ * a segment is deleted when fully replayed. Past {@code stats.client.spool.max-size} bytes new hits are dropped.
+ * <p>
+ * Only the hit sender thread uses the spool. The replay position is not persisted: after a restart the oldest
+ * segment is replayed from its start, the server dropping the hits it already has by their ids.
+ */
+@Slf4j
+@Component
+public class HitSpool {
+    private static final String SEGMENT_PREFIX = "hits-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Path directory;
+    private final long segmentSize;
+    private final long maxSize;
+    private final Counter spooledCounter;
+    private final Counter replayedCounter;
+    private final Counter droppedCounter;
+    /**
+     * segments in append order with their sizes, the last one may be open for writing
+     */
+    private final TreeMap<Long, Long> segments = new TreeMap<>();
+    private long size;
+    private long readOffset;
+    private OutputStream writer;
+    private long writerSequence;
+
+    public HitSpool(ObjectMapper objectMapper,
+                    MeterRegistry meterRegistry,
+                    @Value("${stats.client.spool.enabled:true}") boolean enabled,
+                    @Value("${stats.client.spool.dir:stats-spool}") String directory,
+                    @Value("${stats.client.spool.segment-size:16777216}") long segmentSize,
+                    @Value("${stats.client.spool.max-size:268435456}") long maxSize) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        spooledCounter = meterRegistry.counter("stats.client.spool.hits", "result", "spooled");
+        replayedCounter = meterRegistry.counter("stats.client.spool.hits", "result", "replayed");
+        droppedCounter = meterRegistry.counter("stats.client.spool.hits", "result", "dropped");
+        Gauge.builder("stats.client.spool.size", this, spool -> {
+            synchronized (spool) {
+                return spool.size;
+            }
+        }).baseUnit("bytes").register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public synchronized void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long sequence;
+                try {
+                    sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    log.warn("Пропущен посторонний файл в буфере обращений на диске: {}", file);
+                    continue;
+                }
+                long fileSize = Files.size(file);
+                segments.put(sequence, fileSize);
+                size += fileSize;
+            }
+        }
+        if (!segments.isEmpty()) {
+            log.info("Найдено неотправленных обращений в буфере на диске: segments={}, bytes={}",
+                    segments.size(), size);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        closeWriter();
+    }
+
+    public synchronized boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    /**
+     * Appends the hits to the newest segment, starting a new one when it is full.
+     */
+    public synchronized void append(List<EndpointHitDto> hits) {
+        int spooled = 0;
+        try {
+            for (EndpointHitDto hit : hits) {
+                byte[] line = objectMapper.writeValueAsBytes(hit);
+                if (size + line.length + 1 > maxSize) {
+                    break;
+                }
+                if (writer == null || segments.get(writerSequence) >= segmentSize) {
+                    roll();
+                }
+                writer.write(line);
+                writer.write('\n');
+                segments.merge(writerSequence, line.length + 1L, Long::sum);
+                size += line.length + 1;
+                spooled++;
+            }
+            if (writer != null) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            log.error("Не удалось записать обращения в буфер на диске", e);
+            closeWriter();
+        }
+        spooledCounter.increment(spooled);
+        if (spooled < hits.size()) {
+            droppedCounter.increment(hits.size() - spooled);
+            log.warn("Буфер обращений на диске переполнен, отброшено: {}", hits.size() - spooled);
+        }
+    }
+
+    /**
+     * Passes up to {@code limit} of the oldest hits to the sender in batches, stopping at the first batch it
+     * does not accept or cannot be read; that batch is offered again next time. A segment is deleted only once
+     * it has been read to its end. Returns the number of hits accepted.
+     */
+    public synchronized int replay(int limit, int batchSize, Sender sender) {
+        int replayed = 0;
+        while (replayed < limit && !segments.isEmpty()) {
+            long sequence = segments.firstKey();
+            List<EndpointHitDto> hits = new ArrayList<>();
+            long end;
+            try {
+                end = read(sequence, Math.min(batchSize, limit - replayed), hits);
+            } catch (NoSuchFileException e) {
+                log.error("Сегмент буфера обращений {} удален извне, пропущен", sequence);
+                delete(sequence);
+                continue;
+            } catch (IOException e) {
+                log.error("Не удалось прочитать сегмент буфера обращений {}, повтор позже", sequence, e);
+                break;
+            }
+            if (hits.isEmpty() && end == readOffset && end < segments.get(sequence)) {
+                break;
+            }
+            if (!hits.isEmpty() && !sender.send(hits)) {
+                break;
+            }
+            replayed += hits.size();
+            replayedCounter.increment(hits.size());
+            readOffset = end;
+            if (readOffset >= segments.get(sequence)) {
+                delete(sequence);
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Reads complete lines from the replay position, returns the position after the last one read.
+     */
+    private long read(long sequence, int max, List<EndpointHitDto> hits) throws IOException {
+        long position = readOffset;
+        long limit = segments.get(sequence);
+        try (FileChannel channel = FileChannel.open(segmentFile(sequence), StandardOpenOption.READ)) {
+            channel.position(position);
+            InputStream input = new BufferedInputStream(Channels.newInputStream(channel));
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while (hits.size() < max && position + line.size() < limit && (b = input.read()) != -1) {
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                position += line.size() + 1;
+                try {
+                    hits.add(objectMapper.readValue(line.toByteArray(), EndpointHitDto.class));
+                } catch (IOException e) {
+                    log.warn("Пропущена поврежденная запись буфера обращений: {}", e.getMessage());
+                }
+                line.reset();
+            }
+        }
+        if (hits.size() < max && (writer == null || sequence != writerSequence)) {
+            // a torn last line of a segment that is no longer written to is skipped
+            return limit;
+        }
+        return position;
+    }
+
+    private void roll() throws IOException {
+        closeWriter();
+        writerSequence = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        writer = new BufferedOutputStream(Files.newOutputStream(segmentFile(writerSequence),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+        segments.put(writerSequence, 0L);
+    }
+
+    private void delete(long sequence) {
+        if (writer != null && sequence == writerSequence) {
+            closeWriter();
+        }
+        size -= segments.remove(sequence);
+        readOffset = 0;
+        try {
+            Files.deleteIfExists(segmentFile(sequence));
+        } catch (IOException e) {
+            log.error("Не удалось удалить сегмент буфера обращений {}", sequence, e);
+        }
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.error("Не удалось закрыть сегмент буфера обращений {}", writerSequence, e);
+        }
+        writer = null;
+    }
+
+    private Path segmentFile(long sequence) {
+        return directory.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    @FunctionalInterface
+    public interface Sender {
+        /**
+         * Returns whether the hits were stored.
+         */
+        boolean send(List<EndpointHitDto> hits);
+    }
+}
@@ -0,0 +1,103 @@
+package ru.practicum.ewm.stats.client;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Assigns uris to stats servers by consistent hashing: every server owns {@value #VIRTUAL_NODES} points
+ * of a hash ring and a uri belongs to the first point at or after its hash, so adding or removing a server
+ * moves only the uris of its own arcs.
+ * <p>
+ * Rebalancing: while the hits of moved uris are still on their previous owners, the previous list of servers
+ * is kept as a second ring. Hits go to the current owner only, reads ask both owners and add the results up;
+ * unique counts of a moved uri are united from the visitor sets of both instead, see {@link StatsClient}.
+ */
+public class ShardMap {
+    private static final int VIRTUAL_NODES = 160;
+
+    private final NavigableMap<Long, String> ring;
+    private final NavigableMap<Long, String> previousRing;
+
+    public ShardMap(List<String> shards, List<String> previousShards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one stats server is required");
+        }
+        ring = buildRing(shards);
+        previousRing = previousShards.isEmpty() ? null : buildRing(previousShards);
+    }
+
+    /**
+     * The server that stores the hits of the uri.
+     */
+    public String owner(String uri) {
+        return lookup(ring, uri);
+    }
+
+    /**
+     * Servers to ask for the given uris, each with the uris it may hold.
+     */
+    public Map<String, List<String>> readers(Collection<String> uris) {
+        Map<String, List<String>> readers = new LinkedHashMap<>();
+        for (String uri : new LinkedHashSet<>(uris)) {
+            String owner = lookup(ring, uri);
+            readers.computeIfAbsent(owner, shard -> new ArrayList<>()).add(uri);
+            String previousOwner = previousRing == null ? owner : lookup(previousRing, uri);
+            if (!previousOwner.equals(owner)) {
+                readers.computeIfAbsent(previousOwner, shard -> new ArrayList<>()).add(uri);
+            }
+        }
+        return readers;
+    }
+
+    /**
+     * Every server that may hold hits, for queries over all uris.
+     */
+    public Set<String> allReaders() {
+        Set<String> shards = new LinkedHashSet<>(ring.values());
+        if (previousRing != null) {
+            shards.addAll(previousRing.values());
+        }
+        return shards;
+    }
+
+    private static NavigableMap<Long, String> buildRing(List<String> shards) {
+        NavigableMap<Long, String> ring = new TreeMap<>();
+        for (String shard : shards) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                ring.put(hash(shard + "#" + node), shard);
+            }
+        }
+        return ring;
+    }
+
+    private static String lookup(NavigableMap<Long, String> ring, String uri) {
+        Map.Entry<Long, String> point = ring.ceilingEntry(hash(uri));
+        return point == null ? ring.firstEntry().getValue() : point.getValue();
+    }
+
+    /**
+     * First 8 bytes of the MD5 digest: stable across JVMs and processes, as every client must agree on owners.
+     */
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = hash << 8 | (digest[i] & 0xFF);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,40 +1,409 @@
 package ru.practicum.ewm.stats.client;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import ru.practicum.ewm.stats.dto.EndpointHitDto;
+import ru.practicum.ewm.stats.dto.HitBatchResultDto;
+import ru.practicum.ewm.stats.dto.PopularityDto;
+import ru.practicum.ewm.stats.dto.StatsQueryDto;
 import ru.practicum.ewm.stats.dto.ViewStatsDto;
+import ru.practicum.ewm.stats.dto.VisitorSetDto;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
 
+import static ru.practicum.ewm.stats.dto.util.DateTimeFormat.DATETIME_FORMAT;
+
+/**
+ * Client of the stats servers. With {@code stats.server.shards} set, hits are routed to the server owning
+ * their uri in the {@link ShardMap} and queries are sent to the owners of the requested uris in parallel,
+ * the partial results being added up; otherwise everything goes to {@code stats.server.url}. Unique counts of
+ * a uri reported by several servers while shards are rebalanced are taken from the union of their visitor sets.
+ * <p>
+ * Hits are not sent by the calling thread: they are buffered and posted to {@code /hits} in batches every
+ * {@code stats.client.hits.flush-interval-ms} by a background thread, so the stats server never delays a response.
+ * Identical hits, the same app, uri and ip within {@code stats.client.hits.aggregation-seconds}, are sent as one
+ * record with their count; with the default of one second they would be stored with the same timestamp anyway.
+ * When the buffer is full the hit is dropped and counted in {@code stats.client.hits}. Hits of a failed batch go to
+ * the {@link HitSpool}, as do all new hits for {@code stats.client.hits.retry-interval-ms} after a failure; then
+ * the spool is replayed at up to {@code stats.client.spool.replay-rate} hits per second. A hit of a partly failed
+ * replay batch may be posted twice, the server keeps it once by its id.
+ */
+@Slf4j
 @Service
 public class StatsClient {
-    private final WebClient webClient;
+    private final Map<String, WebClient> webClients = new ConcurrentHashMap<>();
+    private final HitBuffer hitBuffer;
+    private final HitSpool hitSpool;
+    private final ViewCache viewCache;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final Duration timeout;
+    private final long retryIntervalMs;
+    private final int replayLimit;
+    private final HitCollapser hitCollapser;
+    private final Counter sentCounter;
+    private final Counter overflowCounter;
+    private final Counter droppedCounter;
+    private final Counter collapsedCounter;
+    private final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stats-hit-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile ShardMap shardMap;
+    private long unavailableUntil;
+
+    public StatsClient(HitSpool hitSpool,
+                       ViewCache viewCache,
+                       MeterRegistry meterRegistry,
+                       @Value("${stats.server.url}") String serverUrl,
+                       @Value("${stats.server.shards:}") List<String> shards,
+                       @Value("${stats.server.previous-shards:}") List<String> previousShards,
+                       @Value("${stats.client.hits.capacity:10000}") int capacity,
+                       @Value("${stats.client.hits.batch-size:500}") int batchSize,
+                       @Value("${stats.client.hits.flush-interval-ms:1000}") long flushIntervalMs,
+                       @Value("${stats.client.hits.timeout-ms:5000}") long timeoutMs,
+                       @Value("${stats.client.hits.retry-interval-ms:10000}") long retryIntervalMs,
+                       @Value("${stats.client.spool.replay-rate:1000}") int replayRate,
+                       @Value("${stats.client.hits.aggregation-seconds:1}") long aggregationSeconds) {
+        shardMap = new ShardMap(shards.isEmpty() ? List.of(serverUrl) : shards, previousShards);
+        this.hitBuffer = new HitBuffer(capacity);
+        this.hitSpool = hitSpool;
+        this.viewCache = viewCache;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.retryIntervalMs = retryIntervalMs;
+        this.replayLimit = (int) Math.max(1, replayRate * flushIntervalMs / 1000);
+        this.hitCollapser = new HitCollapser(aggregationSeconds);
+        sentCounter = meterRegistry.counter("stats.client.hits", "result", "sent");
+        overflowCounter = meterRegistry.counter("stats.client.hits", "result", "overflow");
+        droppedCounter = meterRegistry.counter("stats.client.hits", "result", "dropped");
+        collapsedCounter = meterRegistry.counter("stats.client.hits", "result", "collapsed");
+        meterRegistry.gauge("stats.client.hits.queued", hitBuffer, HitBuffer::size);
+    }
+
+    @PostConstruct
+    public void start() {
+        sender.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
 
-    public StatsClient(@Value("${stats.server.url}") String serverUrl) {
-        webClient = WebClient.builder().baseUrl(serverUrl).build();
+    /**
+     * Sends the hits still buffered before the application stops.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        sender.shutdown();
+        sender.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        flush();
     }
 
+    /**
+     * Replaces the shard map at runtime, e.g. to add a server; see {@link ShardMap} for the rebalancing rules.
+     */
+    public void updateShards(List<String> shards, List<String> previousShards) {
+        shardMap = new ShardMap(shards, previousShards);
+    }
+
+    /**
+     * Queues the hit for sending and returns at once. Gives the hit an id unless it has one, so that a repeated
+     * call with the same dto is counted once.
+     */
     public void hit(EndpointHitDto endpointHitDto) {
-        webClient.post()
-                .uri("/hit")
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(BodyInserters.fromValue(endpointHitDto))
-                .exchange()
+        if (endpointHitDto.getHitId() == null) {
+            endpointHitDto.setHitId(UUID.randomUUID().toString());
+        }
+        if (!hitBuffer.offer(endpointHitDto)) {
+            overflowCounter.increment();
+        }
+    }
+
+    /**
+     * Posts the buffered hits in batches, each batch split between the shards owning its uris, then replays
+     * the spool while the servers are reachable.
+     */
+    void flush() {
+        try {
+            List<EndpointHitDto> batch;
+            while (!(batch = hitBuffer.drain(batchSize)).isEmpty()) {
+                int drained = batch.size();
+                batch = hitCollapser.collapse(batch);
+                collapsedCounter.increment(drained - batch.size());
+                if (System.currentTimeMillis() < unavailableUntil) {
+                    spool(batch);
+                    continue;
+                }
+                List<EndpointHitDto> failed = send(batch);
+                if (!failed.isEmpty()) {
+                    unavailableUntil = System.currentTimeMillis() + retryIntervalMs;
+                    spool(failed);
+                }
+            }
+            if (hitSpool.isEnabled() && System.currentTimeMillis() >= unavailableUntil && !hitSpool.isEmpty()) {
+                int replayed = hitSpool.replay(replayLimit, batchSize, hits -> {
+                    if (send(hits).isEmpty()) {
+                        return true;
+                    }
+                    unavailableUntil = System.currentTimeMillis() + retryIntervalMs;
+                    return false;
+                });
+                log.debug("Повторно отправлено обращений из буфера на диске: {}", replayed);
+            }
+        } catch (RuntimeException e) {
+            log.error("Ошибка отправки обращений в сервис статистики", e);
+        }
+    }
+
+    private void spool(List<EndpointHitDto> hits) {
+        if (hitSpool.isEnabled()) {
+            hitSpool.append(hits);
+        } else {
+            droppedCounter.increment(hits.size());
+        }
+    }
+
+    /**
+     * Returns the hits the servers did not accept.
+     */
+    private List<EndpointHitDto> send(List<EndpointHitDto> batch) {
+        ShardMap shards = shardMap;
+        Map<String, List<EndpointHitDto>> byOwner = batch.stream()
+                .collect(Collectors.groupingBy(hit -> shards.owner(hit.getUri())));
+        List<List<EndpointHitDto>> failures = Flux.fromIterable(byOwner.entrySet())
+                .flatMap(owner -> webClient(owner.getKey()).post()
+                        .uri("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(BodyInserters.fromValue(owner.getValue()))
+                        .retrieve()
+                        .bodyToMono(HitBatchResultDto.class)
+                        .timeout(timeout)
+                        .then(Mono.<List<EndpointHitDto>>empty())
+                        .onErrorResume(e -> {
+                            log.warn("Не удалось отправить обращения: size={}, server={}, error={}",
+                                    owner.getValue().size(), owner.getKey(), e.toString());
+                            return Mono.just(owner.getValue());
+                        }))
+                .collectList()
                 .block();
+        List<EndpointHitDto> failed = new ArrayList<>();
+        failures.forEach(failed::addAll);
+        sentCounter.increment(batch.size() - failed.size());
+        return failed;
     }
 
+    /**
+     * Stats of the apps and uris, largest first. Unique counts of a uri reported by several servers are counted
+     * over the union of their visitors.
+     */
     public List<ViewStatsDto> getStats(String start, String end, List<String> uris, Boolean unique) {
-        String urisAsSting = String.join(",", uris);
+        Map<String, List<ViewStatsDto>> partials = scatterByShard(uris, (shard, shardUris) -> webClient(shard).get()
+                .uri(builder -> {
+                    Map<String, Object> params = new HashMap<>();
+                    params.put("start", start);
+                    params.put("end", end);
+                    builder.path("/stats")
+                            .queryParam("start", "{start}")
+                            .queryParam("end", "{end}");
+                    if (unique != null) {
+                        builder.queryParam("unique", "{unique}");
+                        params.put("unique", unique);
+                    }
+                    if (!shardUris.isEmpty()) {
+                        builder.queryParam("uris", "{uris}");
+                        params.put("uris", String.join(",", shardUris));
+                    }
+                    return builder.build(params);
+                })
+                .retrieve()
+                .bodyToFlux(ViewStatsDto.class));
+
+        Map<List<String>, ViewStatsDto> merged = new HashMap<>();
+        Map<String, Set<String>> reporters = new HashMap<>();
+        partials.forEach((shard, rows) -> rows.forEach(stats -> {
+            reporters.computeIfAbsent(stats.getUri(), uri -> new HashSet<>()).add(shard);
+            ViewStatsDto previous = merged.putIfAbsent(List.of(stats.getApp(), stats.getUri()), stats);
+            if (previous != null) {
+                previous.setHits(previous.getHits() + stats.getHits());
+            }
+        }));
+        Map<String, List<String>> splitReaders = splitReaders(reporters);
+        if (Boolean.TRUE.equals(unique) && !splitReaders.isEmpty()) {
+            DateTimeFormatter formatter = DateTimeFormatter.ofPattern(DATETIME_FORMAT);
+            countVisitors(LocalDateTime.parse(start, formatter), LocalDateTime.parse(end, formatter), splitReaders)
+                    .forEach((key, visitors) -> merged.get(key).setHits(visitors));
+        }
+        return merged.values().stream()
+                .sorted(Comparator.comparing(ViewStatsDto::getHits).reversed())
+                .collect(Collectors.toList());
+    }
 
-        return webClient.get()
-                .uri("/stats?start={start}&end={end}&uris={uris}&unique={unique}", start, end, urisAsSting, unique)
+    /**
+     * Hits per uri with the uris sent in the request body, so the call is not limited by the URL length.
+     * Uris without hits are absent from the result. Served from the {@link ViewCache} when it is enabled.
+     */
+    public Map<String, Long> getViews(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique) {
+        if (uris.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        if (viewCache.isEnabled()) {
+            return viewCache.get(start, end, uris, Boolean.TRUE.equals(unique),
+                    (from, to, missing) -> loadViews(from, to, missing, unique));
+        }
+        return loadViews(start, end, uris, unique);
+    }
+
+    private Map<String, Long> loadViews(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique) {
+        Map<String, List<Map<String, Long>>> partials = scatterByShard(uris, (shard, shardUris) -> webClient(shard).post()
+                .uri("/stats/query")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(BodyInserters.fromValue(StatsQueryDto.builder()
+                        .start(start)
+                        .end(end)
+                        .uris(shardUris)
+                        .unique(unique)
+                        .build()))
                 .retrieve()
-                .bodyToFlux(ViewStatsDto.class)
+                .bodyToFlux(new ParameterizedTypeReference<Map<String, Long>>() {
+                }));
+
+        Map<String, Long> views = new HashMap<>();
+        Map<String, Set<String>> reporters = new HashMap<>();
+        partials.forEach((shard, results) -> results.forEach(partial -> partial.forEach((uri, hits) -> {
+            reporters.computeIfAbsent(uri, u -> new HashSet<>()).add(shard);
+            views.merge(uri, hits, Long::sum);
+        })));
+        Map<String, List<String>> splitReaders = splitReaders(reporters);
+        if (Boolean.TRUE.equals(unique) && !splitReaders.isEmpty()) {
+            Map<String, Long> united = new HashMap<>();
+            countVisitors(start, end, splitReaders)
+                    .forEach((key, visitors) -> united.merge(key.get(1), visitors, Long::sum));
+            views.putAll(united);
+        }
+        return views;
+    }
+
+    /**
+     * Servers to ask for the visitors of the uris more than one of them reported, each with its uris.
+     */
+    private static Map<String, List<String>> splitReaders(Map<String, Set<String>> reporters) {
+        Map<String, List<String>> readers = new HashMap<>();
+        reporters.forEach((uri, shards) -> {
+            if (shards.size() > 1) {
+                shards.forEach(shard -> readers.computeIfAbsent(shard, s -> new ArrayList<>()).add(uri));
+            }
+        });
+        return readers;
+    }
+
+    /**
+     * Unique visitors per app and uri over the union of the visitor sets the servers hold for the uris.
+     */
+    private Map<List<String>, Long> countVisitors(LocalDateTime start, LocalDateTime end,
+                                                  Map<String, List<String>> readers) {
+        List<VisitorSetDto> sets = Flux.fromIterable(readers.entrySet())
+                .flatMap(reader -> webClient(reader.getKey()).post()
+                        .uri("/stats/visitors")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(BodyInserters.fromValue(StatsQueryDto.builder()
+                                .start(start)
+                                .end(end)
+                                .uris(reader.getValue())
+                                .build()))
+                        .retrieve()
+                        .bodyToFlux(VisitorSetDto.class))
                 .collectList()
                 .block();
+        Map<List<String>, Set<Long>> visitors = new HashMap<>();
+        for (VisitorSetDto set : sets) {
+            Set<Long> united = visitors.computeIfAbsent(List.of(set.getApp(), set.getUri()), key -> new HashSet<>());
+            for (long visitor : set.getVisitors()) {
+                united.add(visitor);
+            }
+        }
+        Map<List<String>, Long> counts = new HashMap<>();
+        visitors.forEach((key, united) -> counts.put(key, (long) united.size()));
+        return counts;
+    }
+
+    /**
+     * Time-decayed popularity of the uris, favouring recent views; uris never viewed are absent.
+     */
+    public Map<String, Double> getPopularity(List<String> uris) {
+        if (uris.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<PopularityDto> scores = scatter(uris, (shard, shardUris) -> webClient(shard).post()
+                .uri("/stats/trending")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(BodyInserters.fromValue(shardUris))
+                .retrieve()
+                .bodyToFlux(PopularityDto.class));
+        return scores.stream()
+                .collect(Collectors.toMap(PopularityDto::getUri, PopularityDto::getScore, Double::sum));
+    }
+
+    /**
+     * Sends the call to every server holding some of the uris, all of them when {@code uris} is empty,
+     * concurrently, and collects the results.
+     */
+    private <T> List<T> scatter(List<String> uris, BiFunction<String, List<String>, Flux<T>> call) {
+        List<T> results = new ArrayList<>();
+        scatterByShard(uris, call).values().forEach(results::addAll);
+        return results;
+    }
+
+    /**
+     * Same as {@link #scatter} with the results kept per server.
+     */
+    private <T> Map<String, List<T>> scatterByShard(List<String> uris,
+                                                    BiFunction<String, List<String>, Flux<T>> call) {
+        ShardMap shards = shardMap;
+        Map<String, List<String>> readers;
+        if (uris == null || uris.isEmpty()) {
+            readers = new HashMap<>();
+            for (String shard : shards.allReaders()) {
+                readers.put(shard, List.of());
+            }
+        } else {
+            readers = shards.readers(uris);
+        }
+        return Flux.fromIterable(readers.entrySet())
+                .flatMap(reader -> call.apply(reader.getKey(), reader.getValue())
+                        .collectList()
+                        .map(results -> Map.entry(reader.getKey(), results)))
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .block();
+    }
+
+    private WebClient webClient(String shard) {
+        return webClients.computeIfAbsent(shard, url -> WebClient.builder().baseUrl(url).build());
     }
 }
@@ -0,0 +1,165 @@
+package ru.practicum.ewm.stats.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Views per uri kept for {@code stats.client.cache.ttl-ms}, at most {@code stats.client.cache.max-size} of them,
+ * the least recently used evicted first. Entries are keyed on the exact start and the end rounded down to
+ * {@code stats.client.cache.bucket-seconds}, so {@code now}-based ranges with a fixed start share entries while
+ * ranges starting elsewhere never do; the counts may miss views after the last whole bucket of the range.
+ * Ranges ending before their first whole bucket are not cached.
+ * Callers missing the same entry at once wait for the one request that loads it, and the misses of one call
+ * are loaded together.
+ */
+@Component
+public class ViewCache {
+    private final boolean enabled;
+    private final long ttlMs;
+    private final long bucketSeconds;
+    private final Map<Key, Entry> entries;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter coalescedCounter;
+
+    public ViewCache(MeterRegistry meterRegistry,
+                     @Value("${stats.client.cache.enabled:true}") boolean enabled,
+                     @Value("${stats.client.cache.ttl-ms:5000}") long ttlMs,
+                     @Value("${stats.client.cache.max-size:10000}") int maxSize,
+                     @Value("${stats.client.cache.bucket-seconds:60}") long bucketSeconds) {
+        this.enabled = enabled;
+        this.ttlMs = ttlMs;
+        this.bucketSeconds = bucketSeconds;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+        hitCounter = meterRegistry.counter("stats.client.cache.gets", "result", "hit");
+        missCounter = meterRegistry.counter("stats.client.cache.gets", "result", "miss");
+        coalescedCounter = meterRegistry.counter("stats.client.cache.gets", "result", "coalesced");
+        Gauge.builder("stats.client.cache.size", this, cache -> {
+            synchronized (cache.entries) {
+                return cache.entries.size();
+            }
+        }).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Views of the uris, the missing ones loaded through {@code loader} with the rounded end;
+     * uris without views are absent from the result.
+     */
+    public Map<String, Long> get(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                 Loader loader) {
+        LocalDateTime to = floor(end);
+        if (start.isAfter(to)) {
+            return loader.load(start, end, new ArrayList<>(new LinkedHashSet<>(uris)));
+        }
+        long now = System.currentTimeMillis();
+        Map<String, CompletableFuture<Long>> pending = new HashMap<>();
+        Map<String, Entry> owned = new HashMap<>();
+        synchronized (entries) {
+            for (String uri : new LinkedHashSet<>(uris)) {
+                Key key = new Key(uri, start, to, unique);
+                Entry entry = entries.get(key);
+                if (entry != null && !entry.value.isDone()) {
+                    coalescedCounter.increment();
+                } else if (entry != null && entry.expiresAt > now && !entry.value.isCompletedExceptionally()) {
+                    hitCounter.increment();
+                } else {
+                    missCounter.increment();
+                    entry = new Entry();
+                    entries.put(key, entry);
+                    owned.put(uri, entry);
+                }
+                pending.put(uri, entry.value);
+            }
+        }
+        if (!owned.isEmpty()) {
+            load(start, to, unique, owned, loader);
+        }
+        Map<String, Long> views = new HashMap<>();
+        pending.forEach((uri, value) -> {
+            long hits = join(value);
+            if (hits > 0) {
+                views.put(uri, hits);
+            }
+        });
+        return views;
+    }
+
+    private void load(LocalDateTime from, LocalDateTime to, boolean unique, Map<String, Entry> owned,
+                      Loader loader) {
+        Map<String, Long> loaded;
+        try {
+            loaded = loader.load(from, to, new ArrayList<>(owned.keySet()));
+        } catch (RuntimeException e) {
+            synchronized (entries) {
+                owned.forEach((uri, entry) -> entries.remove(new Key(uri, from, to, unique), entry));
+            }
+            owned.values().forEach(entry -> entry.value.completeExceptionally(e));
+            throw e;
+        }
+        long expiresAt = System.currentTimeMillis() + ttlMs;
+        owned.forEach((uri, entry) -> {
+            entry.expiresAt = expiresAt;
+            entry.value.complete(loaded.getOrDefault(uri, 0L));
+        });
+    }
+
+    private LocalDateTime floor(LocalDateTime timestamp) {
+        long second = timestamp.toEpochSecond(ZoneOffset.UTC);
+        return LocalDateTime.ofEpochSecond(second - Math.floorMod(second, bucketSeconds), 0, ZoneOffset.UTC);
+    }
+
+    private static long join(CompletableFuture<Long> value) {
+        try {
+            return value.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Loader {
+        Map<String, Long> load(LocalDateTime start, LocalDateTime end, List<String> uris);
+    }
+
+    private static final class Entry {
+        private final CompletableFuture<Long> value = new CompletableFuture<>();
+        private volatile long expiresAt;
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static final class Key {
+        private final String uri;
+        private final LocalDateTime start;
+        private final LocalDateTime end;
+        private final boolean unique;
+    }
+}
@@ -0,0 +1,83 @@
+package ru.practicum.ewm.stats.client;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.stats.dto.EndpointHitDto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class HitCollapserTest {
+    private static final LocalDateTime SECOND = LocalDateTime.of(2024, 3, 1, 12, 0, 0);
+
+    @Test
+    void mergesHitsOfOneVisitorAndSecondIntoTheEarliest() {
+        List<EndpointHitDto> collapsed = new HitCollapser(1).collapse(List.of(
+                hit("/events/1", "10.0.0.1", SECOND.plusNanos(700_000_000), null, null),
+                hit("/events/1", "10.0.0.1", SECOND.plusNanos(200_000_000), null, 2),
+                hit("/events/1", "10.0.0.1", SECOND.plusNanos(900_000_000), null, null)));
+
+        assertEquals(1, collapsed.size());
+        assertEquals(4, collapsed.get(0).getCount());
+        assertEquals(SECOND.plusNanos(200_000_000), collapsed.get(0).getHitTimestamp());
+    }
+
+    @Test
+    void keepsOtherUrisVisitorsAndWindowsApart() {
+        List<EndpointHitDto> collapsed = new HitCollapser(10).collapse(List.of(
+                hit("/events/1", "10.0.0.1", SECOND.plusSeconds(1), null, null),
+                hit("/events/1", "10.0.0.1", SECOND.plusSeconds(9), null, null),
+                hit("/events/1", "10.0.0.1", SECOND.plusSeconds(10), null, null),
+                hit("/events/1", "10.0.0.2", SECOND.plusSeconds(2), null, null),
+                hit("/events/2", "10.0.0.1", SECOND.plusSeconds(3), null, null)));
+
+        assertEquals(4, collapsed.size());
+        assertEquals(2, collapsed.get(0).getCount());
+        assertEquals(SECOND.plusSeconds(1), collapsed.get(0).getHitTimestamp());
+        assertEquals(SECOND.plusSeconds(10), collapsed.get(1).getHitTimestamp());
+        assertNull(collapsed.get(1).getCount());
+    }
+
+    @Test
+    void countsRepeatedHitIdsOnce() {
+        List<EndpointHitDto> collapsed = new HitCollapser(1).collapse(List.of(
+                hit("/events/1", "10.0.0.1", SECOND, "view-1", null),
+                hit("/events/1", "10.0.0.1", SECOND, "view-1", null),
+                hit("/events/1", "10.0.0.1", SECOND, "view-2", null)));
+
+        assertEquals(1, collapsed.size());
+        assertEquals(2, collapsed.get(0).getCount());
+    }
+
+    @Test
+    void passesHitsWithoutTimestampThrough() {
+        EndpointHitDto invalid = hit("/events/1", "10.0.0.1", null, null, null);
+        List<EndpointHitDto> collapsed = new HitCollapser(1).collapse(List.of(invalid,
+                hit("/events/1", "10.0.0.1", SECOND, null, null)));
+
+        assertEquals(2, collapsed.size());
+        assertSame(invalid, collapsed.get(0));
+    }
+
+    @Test
+    void leavesBatchesAsTheyAreWhenDisabled() {
+        List<EndpointHitDto> batch = List.of(hit("/events/1", "10.0.0.1", SECOND, null, null),
+                hit("/events/1", "10.0.0.1", SECOND, null, null));
+
+        assertSame(batch, new HitCollapser(0).collapse(batch));
+    }
+
+    private static EndpointHitDto hit(String uri, String ip, LocalDateTime timestamp, String hitId, Integer count) {
+        return EndpointHitDto.builder()
+                .app("ewm-main-service")
+                .uri(uri)
+                .ip(ip)
+                .hitTimestamp(timestamp)
+                .hitId(hitId)
+                .count(count)
+                .build();
+    }
+}
@@ -0,0 +1,201 @@
+package ru.practicum.ewm.stats.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.practicum.ewm.stats.dto.EndpointHitDto;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HitSpoolTest {
+    private static final long SEGMENT_SIZE = 1 << 20;
+    private static final long MAX_SIZE = 1 << 24;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final List<HitSpool> spools = new ArrayList<>();
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void stopSpools() {
+        spools.forEach(HitSpool::stop);
+    }
+
+    @Test
+    void replaysHitsInOrderAndDeletesSegments() throws IOException {
+        HitSpool spool = spool(SEGMENT_SIZE, MAX_SIZE);
+        spool.append(hits(0, 3));
+        spool.append(hits(3, 5));
+        List<List<EndpointHitDto>> batches = new ArrayList<>();
+
+        int replayed = spool.replay(100, 2, batch -> batches.add(new ArrayList<>(batch)));
+
+        assertEquals(5, replayed);
+        assertEquals(List.of(hits(0, 2), hits(2, 4), hits(4, 5)), batches);
+        assertTrue(spool.isEmpty());
+        assertEquals(0, files().size());
+    }
+
+    @Test
+    void replaysUpToTheLimit() throws IOException {
+        HitSpool spool = spool(SEGMENT_SIZE, MAX_SIZE);
+        spool.append(hits(0, 5));
+        List<EndpointHitDto> sent = new ArrayList<>();
+
+        assertEquals(3, spool.replay(3, 2, sent::addAll));
+        assertFalse(spool.isEmpty());
+        assertEquals(2, spool.replay(100, 2, sent::addAll));
+
+        assertEquals(hits(0, 5), sent);
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    void keepsRejectedBatchForTheNextReplay() throws IOException {
+        HitSpool spool = spool(SEGMENT_SIZE, MAX_SIZE);
+        spool.append(hits(0, 3));
+        List<EndpointHitDto> sent = new ArrayList<>();
+
+        assertEquals(0, spool.replay(100, 2, batch -> false));
+        assertFalse(spool.isEmpty());
+        assertEquals(3, spool.replay(100, 2, sent::addAll));
+
+        assertEquals(hits(0, 3), sent);
+    }
+
+    @Test
+    void replaysSpooledHitsAfterRestart() throws IOException {
+        HitSpool spool = spool(SEGMENT_SIZE, MAX_SIZE);
+        spool.append(hits(0, 4));
+        spool.stop();
+        List<EndpointHitDto> sent = new ArrayList<>();
+
+        HitSpool restarted = spool(SEGMENT_SIZE, MAX_SIZE);
+
+        assertFalse(restarted.isEmpty());
+        assertEquals(4, restarted.replay(100, 10, sent::addAll));
+        assertEquals(hits(0, 4), sent);
+        assertTrue(restarted.isEmpty());
+    }
+
+    @Test
+    void startsNewSegmentsWhenFull() throws IOException {
+        HitSpool spool = spool(1, MAX_SIZE);
+        spool.append(hits(0, 3));
+
+        assertEquals(3, files().size());
+
+        List<EndpointHitDto> sent = new ArrayList<>();
+        assertEquals(3, spool.replay(100, 10, sent::addAll));
+        assertEquals(hits(0, 3), sent);
+        assertEquals(0, files().size());
+    }
+
+    @Test
+    void dropsHitsPastTheMaximumSize() throws IOException {
+        long line = objectMapper.writeValueAsBytes(hits(0, 1).get(0)).length + 1;
+        HitSpool spool = spool(SEGMENT_SIZE, 2 * line + 1);
+        spool.append(hits(0, 3));
+        spool.append(hits(3, 4));
+        List<EndpointHitDto> sent = new ArrayList<>();
+
+        assertEquals(2, spool.replay(100, 10, sent::addAll));
+        assertEquals(hits(0, 2), sent);
+    }
+
+    @Test
+    void skipsTornLastLine() throws IOException {
+        HitSpool spool = spool(SEGMENT_SIZE, MAX_SIZE);
+        spool.append(hits(0, 2));
+        spool.stop();
+        Files.write(files().get(0), "{\"app\":\"ewm-main".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        List<EndpointHitDto> sent = new ArrayList<>();
+
+        HitSpool restarted = spool(SEGMENT_SIZE, MAX_SIZE);
+
+        assertEquals(2, restarted.replay(100, 10, sent::addAll));
+        assertEquals(hits(0, 2), sent);
+        assertTrue(restarted.isEmpty());
+        assertEquals(0, files().size());
+    }
+
+    @Test
+    void keepsSegmentThatCannotBeReadForTheNextReplay() throws IOException {
+        HitSpool spool = spool(SEGMENT_SIZE, MAX_SIZE);
+        spool.append(hits(0, 2));
+        spool.stop();
+        Path segment = files().get(0);
+        byte[] content = Files.readAllBytes(segment);
+        Files.delete(segment);
+        Files.createDirectory(segment);
+        List<EndpointHitDto> sent = new ArrayList<>();
+
+        assertEquals(0, spool.replay(100, 10, sent::addAll));
+        assertFalse(spool.isEmpty());
+        assertTrue(Files.isDirectory(segment));
+
+        Files.delete(segment);
+        Files.write(segment, content);
+        assertEquals(2, spool.replay(100, 10, sent::addAll));
+        assertEquals(hits(0, 2), sent);
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    void ignoresStrayFilesOnStart() throws IOException {
+        Path stray = Files.write(directory.resolve("hits-backup.spool"), new byte[]{1, 2, 3});
+        HitSpool spool = spool(SEGMENT_SIZE, MAX_SIZE);
+
+        assertTrue(spool.isEmpty());
+        spool.append(hits(0, 1));
+        List<EndpointHitDto> sent = new ArrayList<>();
+        assertEquals(1, spool.replay(100, 10, sent::addAll));
+        assertEquals(hits(0, 1), sent);
+        assertTrue(Files.exists(stray));
+    }
+
+    private HitSpool spool(long segmentSize, long maxSize) throws IOException {
+        HitSpool spool = new HitSpool(objectMapper, new SimpleMeterRegistry(), true, directory.toString(),
+                segmentSize, maxSize);
+        spool.start();
+        spools.add(spool);
+        return spool;
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static List<EndpointHitDto> hits(int from, int to) {
+        return IntStream.range(from, to)
+                .mapToObj(i -> EndpointHitDto.builder()
+                        .app("ewm-main-service")
+                        .uri("/events/" + i)
+                        .ip("192.168.0.1")
+                        .hitTimestamp(LocalDateTime.of(2024, 3, 1, 12, 0, i))
+                        .hitId("hit-" + i)
+                        .count(1)
+                        .build())
+                .collect(Collectors.toList());
+    }
+}
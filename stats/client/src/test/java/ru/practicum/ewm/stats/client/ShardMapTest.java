@@ -0,0 +1,107 @@
+package ru.practicum.ewm.stats.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardMapTest {
+    private static final List<String> SHARDS = List.of("http://stats-1:9090", "http://stats-2:9090",
+            "http://stats-3:9090", "http://stats-4:9090");
+    private static final int URIS = 20_000;
+
+    @Test
+    void assignsTheSameOwnerEveryTime() {
+        ShardMap first = new ShardMap(SHARDS, List.of());
+        ShardMap second = new ShardMap(SHARDS, List.of());
+
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(first.owner(uri(i)), second.owner(uri(i)));
+        }
+    }
+
+    @Test
+    void spreadsUrisAcrossShards() {
+        ShardMap shardMap = new ShardMap(SHARDS, List.of());
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < URIS; i++) {
+            owned.merge(shardMap.owner(uri(i)), 1, Integer::sum);
+        }
+
+        assertEquals(Set.copyOf(SHARDS), owned.keySet());
+        int fair = URIS / SHARDS.size();
+        owned.forEach((shard, count) ->
+                assertTrue(Math.abs(count - fair) < fair * 0.25, shard + " owns " + count + " uris"));
+    }
+
+    @Test
+    void addingAShardMovesUrisOnlyToIt() {
+        String added = "http://stats-5:9090";
+        List<String> grown = List.of(SHARDS.get(0), SHARDS.get(1), SHARDS.get(2), SHARDS.get(3), added);
+        ShardMap before = new ShardMap(SHARDS, List.of());
+        ShardMap after = new ShardMap(grown, SHARDS);
+
+        int moved = 0;
+        for (int i = 0; i < URIS; i++) {
+            String previousOwner = before.owner(uri(i));
+            String owner = after.owner(uri(i));
+            if (!owner.equals(previousOwner)) {
+                assertEquals(added, owner);
+                moved++;
+            }
+        }
+        double expected = URIS / 5.0;
+        assertTrue(Math.abs(moved - expected) < expected * 0.25, "moved " + moved + " uris");
+    }
+
+    @Test
+    void readsMovedUrisFromBothOwners() {
+        List<String> grown = List.of(SHARDS.get(0), SHARDS.get(1), SHARDS.get(2), SHARDS.get(3),
+                "http://stats-5:9090");
+        ShardMap before = new ShardMap(SHARDS, List.of());
+        ShardMap after = new ShardMap(grown, SHARDS);
+
+        for (int i = 0; i < 1_000; i++) {
+            String uri = uri(i);
+            Map<String, List<String>> readers = after.readers(List.of(uri, uri));
+            assertTrue(readers.get(after.owner(uri)).contains(uri));
+            assertTrue(readers.get(before.owner(uri)).contains(uri));
+            int expected = after.owner(uri).equals(before.owner(uri)) ? 1 : 2;
+            assertEquals(expected, readers.size());
+            readers.values().forEach(uris -> assertEquals(List.of(uri), uris));
+        }
+    }
+
+    @Test
+    void readsOnlyOwnersWithoutPreviousShards() {
+        ShardMap shardMap = new ShardMap(SHARDS, List.of());
+
+        Map<String, List<String>> readers = shardMap.readers(List.of(uri(1), uri(2), uri(3)));
+
+        assertEquals(3, readers.values().stream().mapToInt(List::size).sum());
+        readers.forEach((shard, uris) -> uris.forEach(uri -> assertEquals(shard, shardMap.owner(uri))));
+    }
+
+    @Test
+    void allReadersIncludePreviousShards() {
+        ShardMap shardMap = new ShardMap(List.of("http://stats-2:9090"), List.of("http://stats-1:9090"));
+
+        assertEquals(Set.of("http://stats-1:9090", "http://stats-2:9090"), shardMap.allReaders());
+        assertEquals(Set.copyOf(SHARDS), new ShardMap(SHARDS, List.of()).allReaders());
+    }
+
+    @Test
+    void rejectsEmptyShardList() {
+        assertThrows(IllegalArgumentException.class, () -> new ShardMap(List.of(), List.of()));
+    }
+
+    private static String uri(int i) {
+        return "/events/" + i;
+    }
+}
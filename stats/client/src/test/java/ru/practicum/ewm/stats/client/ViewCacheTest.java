@@ -0,0 +1,94 @@
+package ru.practicum.ewm.stats.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ViewCacheTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 11, 0, 10);
+
+    private final ViewCache cache = new ViewCache(new SimpleMeterRegistry(), true, 60_000, 100, 60);
+    private final List<LocalDateTime[]> loads = new ArrayList<>();
+
+    @Test
+    void keysOnTheExactStartAndTheRoundedEnd() {
+        cache.get(START, LocalDateTime.of(2024, 3, 1, 12, 0, 10), List.of("/events/1"), false, this::load);
+        cache.get(START, LocalDateTime.of(2024, 3, 1, 12, 0, 50), List.of("/events/1"), false, this::load);
+
+        assertEquals(1, loads.size());
+        assertEquals(START, loads.get(0)[0]);
+        assertEquals(LocalDateTime.of(2024, 3, 1, 12, 0), loads.get(0)[1]);
+    }
+
+    @Test
+    void doesNotShareEntriesOfDifferentStarts() {
+        LocalDateTime end = LocalDateTime.of(2024, 3, 1, 12, 0, 30);
+        Map<String, Long> first = cache.get(START, end, List.of("/events/1"), false, this::load);
+        Map<String, Long> second = cache.get(START.plusSeconds(10), end, List.of("/events/1"), false, this::load);
+
+        assertEquals(2, loads.size());
+        assertEquals(START.plusSeconds(10), loads.get(1)[0]);
+        assertEquals(Map.of("/events/1", 1L), first);
+        assertEquals(Map.of("/events/1", 2L), second);
+    }
+
+    @Test
+    void loadsRangesEndingInTheirFirstBucketDirectly() {
+        LocalDateTime end = START.plusSeconds(30);
+        cache.get(START, end, List.of("/events/1"), false, this::load);
+        cache.get(START, end, List.of("/events/1"), false, this::load);
+
+        assertEquals(2, loads.size());
+        assertEquals(end, loads.get(1)[1]);
+    }
+
+    @Test
+    void coalescesConcurrentMisses() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        ViewCache.Loader slowLoader = (start, end, uris) -> {
+            calls.incrementAndGet();
+            loading.countDown();
+            try {
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Map.of("/events/1", 7L);
+        };
+        LocalDateTime end = LocalDateTime.of(2024, 3, 1, 12, 0, 10);
+        CompletableFuture<Map<String, Long>> first = CompletableFuture.supplyAsync(() ->
+                cache.get(START, end, List.of("/events/1"), false, slowLoader));
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<Map<String, Long>> second = new CompletableFuture<>();
+        Thread thread = new Thread(() -> second.complete(
+                cache.get(START, end.plusSeconds(20), List.of("/events/1"), false, slowLoader)));
+        thread.start();
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertEquals(Map.of("/events/1", 7L), first.get(10, TimeUnit.SECONDS));
+        assertEquals(Map.of("/events/1", 7L), second.get(10, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+    }
+
+    private Map<String, Long> load(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        loads.add(new LocalDateTime[]{start, end});
+        return Map.of(uris.get(0), (long) loads.size());
+    }
+}
@@ -0,0 +1,20 @@
+package ru.practicum.ewm.stats.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkLoadResultDto {
+    private Long rows;
+
+    private Long rejected;
+
+    private Long millis;
+
+    private Long rowsPerSecond;
+}
@@ -9,6 +9,8 @@ import lombok.NoArgsConstructor;
 
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import javax.validation.constraints.Size;
 import java.time.LocalDateTime;
 
 import static ru.practicum.ewm.stats.dto.util.DateTimeFormat.DATETIME_FORMAT;
@@ -31,4 +33,17 @@ public class EndpointHitDto {
     @JsonProperty("timestamp")
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = DATETIME_FORMAT)
     private LocalDateTime hitTimestamp;
+
+    /**
+     * Optional id of the view, the same on every retry: the server stores a hit with an id it has seen
+     * recently only once.
+     */
+    @Size(max = 64)
+    private String hitId;
+
+    /**
+     * Number of identical views the record stands for, collapsed by the client; 1 when absent.
+     */
+    @Positive
+    private Integer count;
 }
@@ -0,0 +1,19 @@
+package ru.practicum.ewm.stats.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Time-decayed popularity of a uri: every view counts as 1 when made and half as much after each half-life.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PopularityDto {
+    private String uri;
+
+    private Double score;
+}
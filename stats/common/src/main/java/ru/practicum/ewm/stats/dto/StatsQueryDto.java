@@ -0,0 +1,38 @@
+package ru.practicum.ewm.stats.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotNull;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static ru.practicum.ewm.stats.dto.util.DateTimeFormat.DATETIME_FORMAT;
+
+/**
+ * Body of {@code POST /stats/query}; the answer maps every uri with hits to its count.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatsQueryDto {
+    @NotNull
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = DATETIME_FORMAT)
+    private LocalDateTime start;
+
+    @NotNull
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = DATETIME_FORMAT)
+    private LocalDateTime end;
+
+    private List<String> uris;
+
+    @Builder.Default
+    private Boolean unique = false;
+
+    @Builder.Default
+    private Boolean exact = false;
+}
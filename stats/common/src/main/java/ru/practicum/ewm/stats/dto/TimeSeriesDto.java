@@ -0,0 +1,23 @@
+package ru.practicum.ewm.stats.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Hits of one uri in consecutive buckets of the requested grain, including empty buckets.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TimeSeriesDto {
+    private String uri;
+
+    private String grain;
+
+    private List<TimeSeriesPointDto> points;
+}
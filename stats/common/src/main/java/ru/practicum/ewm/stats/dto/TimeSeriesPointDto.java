@@ -0,0 +1,24 @@
+package ru.practicum.ewm.stats.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+import static ru.practicum.ewm.stats.dto.util.DateTimeFormat.DATETIME_FORMAT;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TimeSeriesPointDto {
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = DATETIME_FORMAT)
+    private LocalDateTime bucketStart;
+
+    private Long hits;
+
+    private Long uniqueHits;
+}
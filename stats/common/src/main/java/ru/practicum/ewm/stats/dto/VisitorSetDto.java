@@ -0,0 +1,22 @@
+package ru.practicum.ewm.stats.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Distinct visitors of an app and uri as 64-bit hashes of their IPs, so that clients can unite the visitors
+ * of a uri whose hits are split between servers.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class VisitorSetDto {
+    private String app;
+
+    private String uri;
+
+    private long[] visitors;
+}
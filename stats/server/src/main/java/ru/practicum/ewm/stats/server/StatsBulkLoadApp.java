@@ -0,0 +1,92 @@
+package ru.practicum.ewm.stats.server;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.flyway.FlywayAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+import ru.practicum.ewm.stats.dto.BulkLoadResultDto;
+import ru.practicum.ewm.stats.server.dictionary.HitDictionary;
+import ru.practicum.ewm.stats.server.dictionary.VisitorDictionary;
+import ru.practicum.ewm.stats.server.ingest.BulkLoadLock;
+import ru.practicum.ewm.stats.server.ingest.HitCopyLoader;
+import ru.practicum.ewm.stats.server.ingest.HitDeduplicator;
+import ru.practicum.ewm.stats.server.ingest.HitWriter;
+import ru.practicum.ewm.stats.server.repository.CompactionRepository;
+import ru.practicum.ewm.stats.server.repository.DictionaryRepository;
+import ru.practicum.ewm.stats.server.repository.EndpointHitJdbcRepository;
+import ru.practicum.ewm.stats.server.repository.HitIdRepository;
+import ru.practicum.ewm.stats.server.repository.RollupRepository;
+import ru.practicum.ewm.stats.server.repository.SketchRepository;
+import ru.practicum.ewm.stats.server.repository.VisitorRepository;
+import ru.practicum.ewm.stats.server.rollup.RollupService;
+import ru.practicum.ewm.stats.server.sketch.HyperLogLogService;
+import ru.practicum.ewm.stats.server.sketch.VisitorBitmapService;
+
+import javax.sql.DataSource;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Command line entry point for backfills, loads CSV files ({@code app,uri,ip,timestamp[,count]}, optionally
+ * gzipped) with {@link HitCopyLoader}. Runs from the server jar:
+ * <pre>
+ * java -cp app.jar -Dloader.main=ru.practicum.ewm.stats.server.StatsBulkLoadApp
+ *      org.springframework.boot.loader.PropertiesLauncher [--header] hits.csv[.gz] ...
+ * </pre>
+ * The context holds only the datasource, the loader and the listeners that persist what they derive from hits
+ * (rollups, and the sketch and bitmap deltas the server folds later): no web server, no scheduled jobs,
+ * no journal and no in-memory structures. The schema is never migrated here, the server owns the migrations.
+ * Refuses to run while a stats server uses the database, see {@link BulkLoadLock}.
+ * <p>
+ * Not a {@code @Configuration}, so the component scan of {@link StatsServerApp} does not pick it up.
+ */
+@EnableAutoConfiguration(exclude = {HibernateJpaAutoConfiguration.class, FlywayAutoConfiguration.class})
+@Import({HitCopyLoader.class, HitWriter.class, HitDeduplicator.class, HitDictionary.class, VisitorDictionary.class,
+        RollupService.class, HyperLogLogService.class, VisitorBitmapService.class,
+        EndpointHitJdbcRepository.class, HitIdRepository.class, DictionaryRepository.class, RollupRepository.class,
+        SketchRepository.class, VisitorRepository.class, CompactionRepository.class})
+public class StatsBulkLoadApp {
+    public static void main(String[] args) throws IOException, SQLException {
+        boolean header = false;
+        long rows = 0;
+        long millis = 0;
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(StatsBulkLoadApp.class)
+                .web(WebApplicationType.NONE)
+                .run();
+             Connection lock = context.getBean(DataSource.class).getConnection()) {
+            BulkLoadLock.acquireExclusive(lock);
+            HitCopyLoader loader = context.getBean(HitCopyLoader.class);
+            for (String arg : args) {
+                if ("--header".equals(arg)) {
+                    header = true;
+                    continue;
+                }
+                try (InputStream in = open(Path.of(arg))) {
+                    BulkLoadResultDto result = loader.load(in, header);
+                    System.out.printf("%s: %d rows in %d ms (%d rows/s), %d rejected%n", arg,
+                            result.getRows(), result.getMillis(), result.getRowsPerSecond(), result.getRejected());
+                    rows += result.getRows();
+                    millis += result.getMillis();
+                }
+            }
+        }
+        if (millis > 0) {
+            System.out.printf("total: %d rows in %d ms (%d rows/s)%n", rows, millis, rows * 1000 / millis);
+        }
+    }
+
+    private static InputStream open(Path path) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(path), 1 << 16);
+        return path.toString().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+}
@@ -0,0 +1,239 @@
+package ru.practicum.ewm.stats.server.archive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.stats.server.compaction.CompactionService;
+import ru.practicum.ewm.stats.server.model.StatsKey;
+import ru.practicum.ewm.stats.server.partition.HitPartitionManager;
+import ru.practicum.ewm.stats.server.partition.RetentionListener;
+import ru.practicum.ewm.stats.server.repository.ArchiveRepository;
+import ru.practicum.ewm.stats.server.repository.CompactionRepository;
+import ru.practicum.ewm.stats.server.repository.EndpointHitJdbcRepository;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Cold tier of the hits table: days older than {@code stats.archive.age-days} are written to immutable
+ * {@link ColumnarSegment} files, one per day, and purged from the database. Archiving goes from the oldest day,
+ * so every hit before {@link #boundary()} lives in a segment. Hits that arrive later for an archived day stay
+ * in the database until the next run, which rewrites the segment of that day with them.
+ */
+@Slf4j
+@Service
+public class ArchiveService implements RetentionListener {
+    private static final long MICROS_PER_SECOND = 1_000_000;
+
+    private final ArchiveRepository archiveRepository;
+    private final CompactionRepository compactionRepository;
+    private final EndpointHitJdbcRepository endpointHitJdbcRepository;
+    private final HitPartitionManager hitPartitionManager;
+    private final TransactionTemplate transactionTemplate;
+    private final NavigableMap<LocalDate, ColumnarSegment> segments = new ConcurrentSkipListMap<>();
+    private final boolean enabled;
+    private final int ageDays;
+    private final Path directory;
+
+    public ArchiveService(ArchiveRepository archiveRepository,
+                          CompactionRepository compactionRepository,
+                          EndpointHitJdbcRepository endpointHitJdbcRepository,
+                          HitPartitionManager hitPartitionManager,
+                          PlatformTransactionManager transactionManager,
+                          CompactionService compactionService,
+                          @Value("${stats.archive.enabled:false}") boolean enabled,
+                          @Value("${stats.archive.age-days:30}") int ageDays,
+                          @Value("${stats.archive.directory:archive}") String directory) {
+        this.archiveRepository = archiveRepository;
+        this.compactionRepository = compactionRepository;
+        this.endpointHitJdbcRepository = endpointHitJdbcRepository;
+        this.hitPartitionManager = hitPartitionManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.ageDays = ageDays;
+        this.directory = Paths.get(directory);
+        if (enabled && compactionService.isEnabled()) {
+            log.error("Архив отключен: старые обращения уже удаляет компактизация");
+            enabled = false;
+        }
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void load() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(directory);
+        for (Map.Entry<LocalDate, String> segment : archiveRepository.findAll().entrySet()) {
+            segments.put(segment.getKey(), ColumnarSegment.open(directory.resolve(segment.getValue())));
+        }
+        log.info("Архив загружен: сегментов={}, граница={}", segments.size(), boundary());
+    }
+
+    /**
+     * Start of the first day that is not archived, {@code null} when the archive is empty.
+     */
+    public LocalDateTime boundary() {
+        return segments.isEmpty() ? null : segments.lastKey().plusDays(1).atStartOfDay();
+    }
+
+    /**
+     * Hit counts per app and uri in {@code [from, to)}; {@code null} uris mean all of them.
+     */
+    public Map<StatsKey, Long> countHits(LocalDateTime from, LocalDateTime to, Collection<Integer> uriIds) {
+        Collection<Integer> uris = uriIds == null ? null : new HashSet<>(uriIds);
+        Map<StatsKey, Long> hits = new HashMap<>();
+        for (ColumnarSegment segment : segmentsOf(from, to).values()) {
+            segment.count(toMicros(from), toMicros(to), uris, (appId, uriId, count) ->
+                    hits.merge(new StatsKey(appId, uriId), count, Long::sum));
+        }
+        return hits;
+    }
+
+    /**
+     * Every archived hit in {@code [from, to)} with its IP; {@code null} uris mean all of them.
+     */
+    public void forEachVisitor(LocalDateTime from, LocalDateTime to, Collection<Integer> uriIds,
+                               EndpointHitJdbcRepository.VisitorCallback callback) {
+        Collection<Integer> uris = uriIds == null ? null : new HashSet<>(uriIds);
+        for (ColumnarSegment segment : segmentsOf(from, to).values()) {
+            segment.forEachHit(toMicros(from), toMicros(to), uris, (timestamp, appId, uriId, ip, count) ->
+                    callback.accept(appId, uriId, ip));
+        }
+    }
+
+    /**
+     * Every archived hit in {@code [from, to)} with its timestamp; {@code null} uris mean all of them.
+     */
+    public void forEachHit(LocalDateTime from, LocalDateTime to, Collection<Integer> uriIds,
+                           EndpointHitJdbcRepository.HitCallback callback) {
+        Collection<Integer> uris = uriIds == null ? null : new HashSet<>(uriIds);
+        for (ColumnarSegment segment : segmentsOf(from, to).values()) {
+            segment.forEachHit(toMicros(from), toMicros(to), uris, (timestamp, appId, uriId, ip, count) ->
+                    callback.accept(fromMicros(timestamp), appId, uriId, ip, count));
+        }
+    }
+
+    @Scheduled(initialDelayString = "${stats.archive.initial-delay-ms:60000}",
+            fixedDelayString = "${stats.archive.interval-ms:3600000}")
+    public void archive() {
+        if (!enabled) {
+            return;
+        }
+        LocalDate cutoff = LocalDate.now().minusDays(ageDays);
+        try {
+            Optional<LocalDateTime> oldest;
+            while ((oldest = compactionRepository.findOldestHitBefore(cutoff.atStartOfDay())).isPresent()) {
+                archiveDay(oldest.get().toLocalDate());
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Ошибка архивации обращений старше {}", cutoff, e);
+        }
+    }
+
+    /**
+     * Drops the segments of the days before {@code cutoff}: first from the catalog, then from the queries,
+     * then from disk. Queries still reading a dropped file keep its mapping.
+     */
+    @Override
+    public void onRetention(LocalDateTime cutoff) {
+        if (!enabled) {
+            return;
+        }
+        LocalDate firstKept = cutoff.toLocalDate();
+        List<LocalDate> days = new ArrayList<>(segments.headMap(firstKept, false).keySet());
+        if (days.isEmpty()) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> archiveRepository.deleteBefore(firstKept));
+        for (LocalDate day : days) {
+            ColumnarSegment segment = segments.remove(day);
+            try {
+                Files.deleteIfExists(segment.getFile());
+            } catch (IOException e) {
+                log.warn("Не удалось удалить файл сегмента {}", segment.getFile(), e);
+            }
+        }
+        log.info("Удалено архивных сегментов старше {}: {}", firstKept, days.size());
+    }
+
+    /**
+     * Writes the segment of the day, merged with the previous one if the day was archived before, then purges
+     * the hits and records the segment in one transaction. The purge starts only once the segment is on disk.
+     * Queries still reading a replaced file keep its mapping.
+     */
+    private void archiveDay(LocalDate day) throws IOException {
+        long started = System.nanoTime();
+        LocalDateTime from = day.atStartOfDay();
+        LocalDateTime to = from.plusDays(1);
+        String name = day + "-" + System.currentTimeMillis() + ".seg";
+        Path file = directory.resolve(name);
+        ColumnarSegment previous = segments.get(day);
+        SegmentBuilder builder = new SegmentBuilder(toMicros(from));
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                if (previous != null) {
+                    previous.forEachHit(toMicros(from), toMicros(to), null, builder::add);
+                }
+                endpointHitJdbcRepository.forEachHit(from, to, (timestamp, appId, uriId, ip, count) ->
+                        builder.add(toMicros(timestamp), appId, uriId, ip, count));
+                try {
+                    builder.write(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                hitPartitionManager.purge(day, day.plusDays(1));
+                archiveRepository.save(day, name, builder.getRows());
+            });
+        } catch (RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        ColumnarSegment replaced = segments.put(day, ColumnarSegment.open(file));
+        if (replaced != null) {
+            Files.deleteIfExists(replaced.getFile());
+        }
+        log.info("Архивирован день {}: обращений={}, размер={} байт, за {} мс", day, builder.getRows(),
+                Files.size(file), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private NavigableMap<LocalDate, ColumnarSegment> segmentsOf(LocalDateTime from, LocalDateTime to) {
+        if (segments.isEmpty() || !from.isBefore(to)) {
+            return Collections.emptyNavigableMap();
+        }
+        return segments.subMap(from.toLocalDate(), true, to.toLocalDate(), true);
+    }
+
+    private static long toMicros(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * MICROS_PER_SECOND + timestamp.getNano() / 1_000;
+    }
+
+    private static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, MICROS_PER_SECOND),
+                (int) Math.floorMod(micros, MICROS_PER_SECOND) * 1_000, ZoneOffset.UTC);
+    }
+}
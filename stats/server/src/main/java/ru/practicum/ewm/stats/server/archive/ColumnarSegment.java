@@ -0,0 +1,219 @@
+package ru.practicum.ewm.stats.server.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+/**
+ * Immutable columnar file with the hits of one day, read through a memory mapping. Layout, big-endian:
+ * <pre>
+ * int magic, int version, long base (epoch micros of the day start), long first, long last (epoch micros of the
+ * first and the last hit), int unit (micros per timestamp step),
+ * int rows, int apps, int[apps] app ids, int uris, int[uris] uri ids,
+ * int summary, int timestamps, int app codes, int uri codes, int counts (column lengths in bytes), then the columns:
+ * summary:    varint entries, then varint app code, uri code and hits per entry
+ * timestamps: varint deltas in units from the previous hit, the first one from the base; rows are in time order
+ * app codes:  varint index into the app ids, the most frequent app first
+ * uri codes:  varint index into the uri ids, the most frequent uri first
+ * counts:     varint number of views the row stands for
+ * ips:        length byte and the address in network byte order
+ * </pre>
+ * The summary holds the hit count of every app and uri, so queries covering the whole day skip the columns.
+ * Version 1 segments have no counts column, each of their rows is one view.
+ */
+class ColumnarSegment {
+    static final int MAGIC = 0x45574d43;
+    static final int VERSION = 2;
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final long base;
+    private final long first;
+    private final long last;
+    private final long unit;
+    private final int rows;
+    private final int[] appIds;
+    private final int[] uriIds;
+    private final int summaryOffset;
+    private final int timestampsOffset;
+    private final int appCodesOffset;
+    private final int uriCodesOffset;
+    private final int countsOffset;
+    private final int ipsOffset;
+
+    private ColumnarSegment(Path file, ByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        int version = buffer.getInt(4);
+        if (buffer.getInt() != MAGIC || version < 1 || version > VERSION) {
+            throw new IllegalStateException("Not a hit segment of version 1 to " + VERSION);
+        }
+        buffer.getInt();
+        base = buffer.getLong();
+        first = buffer.getLong();
+        last = buffer.getLong();
+        unit = buffer.getInt();
+        rows = buffer.getInt();
+        appIds = readInts(buffer);
+        uriIds = readInts(buffer);
+        int summaryLength = buffer.getInt();
+        int timestampsLength = buffer.getInt();
+        int appCodesLength = buffer.getInt();
+        int uriCodesLength = buffer.getInt();
+        int countsLength = version == 1 ? 0 : buffer.getInt();
+        summaryOffset = buffer.position();
+        timestampsOffset = summaryOffset + summaryLength;
+        appCodesOffset = timestampsOffset + timestampsLength;
+        uriCodesOffset = appCodesOffset + appCodesLength;
+        countsOffset = version == 1 ? -1 : uriCodesOffset + uriCodesLength;
+        ipsOffset = uriCodesOffset + uriCodesLength + countsLength;
+    }
+
+    static ColumnarSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ColumnarSegment(file, buffer);
+        }
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    /**
+     * Hit counts per app and uri in {@code [from, to)} epoch micros; {@code null} uris mean all of them.
+     */
+    void count(long from, long to, Collection<Integer> uris, CountCallback callback) {
+        boolean[] selected = selectUris(uris);
+        if (selected == null || from > last || to <= first) {
+            return;
+        }
+        if (from <= first && to > last) {
+            ByteBuffer summary = column(summaryOffset);
+            for (int entries = readVarInt(summary); entries > 0; entries--) {
+                int app = readVarInt(summary);
+                int uri = readVarInt(summary);
+                long hits = readVarLong(summary);
+                if (selected[uri]) {
+                    callback.accept(appIds[app], uriIds[uri], hits);
+                }
+            }
+            return;
+        }
+        long[] counts = new long[appIds.length * uriIds.length];
+        scan(from, to, selected, false, (timestamp, app, uri, ip, count) -> counts[app * uriIds.length + uri] += count);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                callback.accept(appIds[i / uriIds.length], uriIds[i % uriIds.length], counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Every row in {@code [from, to)} epoch micros with its app and uri ids and the number of views it stands for;
+     * {@code null} uris mean all of them.
+     */
+    void forEachHit(long from, long to, Collection<Integer> uris, RowCallback callback) {
+        boolean[] selected = selectUris(uris);
+        if (selected != null && from <= last && to > first) {
+            scan(from, to, selected, true, (timestamp, app, uri, ip, count) ->
+                    callback.accept(timestamp, appIds[app], uriIds[uri], ip, count));
+        }
+    }
+
+    /**
+     * Walks the columns in lockstep; rows are in time order, so the walk stops at the first hit past the range.
+     * Callbacks get dictionary codes, not ids.
+     */
+    private void scan(long from, long to, boolean[] selected, boolean withIps, RowCallback callback) {
+        ByteBuffer timestamps = column(timestampsOffset);
+        ByteBuffer appCodes = column(appCodesOffset);
+        ByteBuffer uriCodes = column(uriCodesOffset);
+        ByteBuffer counts = countsOffset < 0 ? null : column(countsOffset);
+        ByteBuffer ips = column(ipsOffset);
+        long timestamp = base;
+        for (int row = 0; row < rows; row++) {
+            timestamp += readVarLong(timestamps) * unit;
+            if (timestamp >= to) {
+                return;
+            }
+            int app = readVarInt(appCodes);
+            int uri = readVarInt(uriCodes);
+            int count = counts == null ? 1 : readVarInt(counts);
+            int length = ips.get() & 0xff;
+            if (timestamp < from || !selected[uri]) {
+                ips.position(ips.position() + length);
+                continue;
+            }
+            byte[] ip = null;
+            if (withIps) {
+                ip = new byte[length];
+                ips.get(ip);
+            } else {
+                ips.position(ips.position() + length);
+            }
+            callback.accept(timestamp, app, uri, ip, count);
+        }
+    }
+
+    /**
+     * Dictionary codes of the requested uris, or {@code null} when none of them occurs in the segment.
+     */
+    private boolean[] selectUris(Collection<Integer> uris) {
+        boolean[] selected = new boolean[uriIds.length];
+        boolean any = false;
+        for (int code = 0; code < uriIds.length; code++) {
+            selected[code] = uris == null || uris.contains(uriIds[code]);
+            any |= selected[code];
+        }
+        return any ? selected : null;
+    }
+
+    private ByteBuffer column(int offset) {
+        ByteBuffer column = buffer.duplicate();
+        column.position(offset);
+        return column;
+    }
+
+    private static int[] readInts(ByteBuffer buffer) {
+        int[] values = new int[buffer.getInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.getInt();
+        }
+        return values;
+    }
+
+    static int readVarInt(ByteBuffer buffer) {
+        return (int) readVarLong(buffer);
+    }
+
+    static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    @FunctionalInterface
+    interface CountCallback {
+        void accept(int appId, int uriId, long hits);
+    }
+
+    @FunctionalInterface
+    interface RowCallback {
+        void accept(long timestamp, int appId, int uriId, byte[] ip, int count);
+    }
+}
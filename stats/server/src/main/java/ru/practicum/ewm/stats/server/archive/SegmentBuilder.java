@@ -0,0 +1,198 @@
+package ru.practicum.ewm.stats.server.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects the hits of one day in primitive arrays and writes them as a {@link ColumnarSegment}.
+ * Hits may be added in any order; they are sorted by time on write.
+ */
+class SegmentBuilder {
+    private static final int ROW_BITS = 26;
+    private static final long MICROS_PER_SECOND = 1_000_000;
+
+    private final long base;
+    private long[] timestamps = new long[1024];
+    private int[] apps = new int[1024];
+    private int[] uris = new int[1024];
+    private int[] counts = new int[1024];
+    private byte[][] ips = new byte[1024][];
+    private int rows;
+
+    SegmentBuilder(long base) {
+        this.base = base;
+    }
+
+    void add(long timestamp, int appId, int uriId, byte[] ip, int count) {
+        if (rows == 1 << ROW_BITS) {
+            throw new IllegalStateException("A segment holds at most " + (1 << ROW_BITS) + " hits");
+        }
+        if (rows == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, rows * 2);
+            apps = Arrays.copyOf(apps, rows * 2);
+            uris = Arrays.copyOf(uris, rows * 2);
+            counts = Arrays.copyOf(counts, rows * 2);
+            ips = Arrays.copyOf(ips, rows * 2);
+        }
+        timestamps[rows] = timestamp;
+        apps[rows] = appId;
+        uris[rows] = uriId;
+        counts[rows] = count;
+        ips[rows] = ip;
+        rows++;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    /**
+     * Writes the segment to a temporary file next to {@code file}, forces it to disk and moves it into place,
+     * then forces the directory, so once this returns the segment survives a crash and the hits it holds may be
+     * purged. A segment file is either complete or absent.
+     */
+    void write(Path file) throws IOException {
+        int[] order = timeOrder();
+        long unit = MICROS_PER_SECOND;
+        for (int row = 0; row < rows && unit > 1; row++) {
+            if ((timestamps[row] - base) % MICROS_PER_SECOND != 0) {
+                unit = 1;
+            }
+        }
+        Dictionary appDictionary = new Dictionary(apps, rows);
+        Dictionary uriDictionary = new Dictionary(uris, rows);
+
+        ByteArrayOutputStream timestampColumn = new ByteArrayOutputStream(rows * 2);
+        ByteArrayOutputStream appColumn = new ByteArrayOutputStream(rows);
+        ByteArrayOutputStream uriColumn = new ByteArrayOutputStream(rows * 2);
+        ByteArrayOutputStream countColumn = new ByteArrayOutputStream(rows);
+        ByteArrayOutputStream ipColumn = new ByteArrayOutputStream(rows * 5);
+        Map<Long, Long> summary = new HashMap<>();
+        long previous = base;
+        for (int row : order) {
+            writeVarLong(timestampColumn, (timestamps[row] - previous) / unit);
+            previous = timestamps[row];
+            int app = appDictionary.code(apps[row]);
+            int uri = uriDictionary.code(uris[row]);
+            writeVarLong(appColumn, app);
+            writeVarLong(uriColumn, uri);
+            writeVarLong(countColumn, counts[row]);
+            ipColumn.write(ips[row].length);
+            ipColumn.write(ips[row]);
+            summary.merge((long) app << 32 | uri, (long) counts[row], Long::sum);
+        }
+        ByteArrayOutputStream summaryColumn = new ByteArrayOutputStream(summary.size() * 4);
+        writeVarLong(summaryColumn, summary.size());
+        summary.forEach((key, hits) -> {
+            writeVarLong(summaryColumn, key >>> 32);
+            writeVarLong(summaryColumn, key & 0xffffffffL);
+            writeVarLong(summaryColumn, hits);
+        });
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel),
+                    1 << 16));
+            out.writeInt(ColumnarSegment.MAGIC);
+            out.writeInt(ColumnarSegment.VERSION);
+            out.writeLong(base);
+            out.writeLong(rows == 0 ? base : timestamps[order[0]]);
+            out.writeLong(rows == 0 ? base : timestamps[order[rows - 1]]);
+            out.writeInt((int) unit);
+            out.writeInt(rows);
+            appDictionary.write(out);
+            uriDictionary.write(out);
+            out.writeInt(summaryColumn.size());
+            out.writeInt(timestampColumn.size());
+            out.writeInt(appColumn.size());
+            out.writeInt(uriColumn.size());
+            out.writeInt(countColumn.size());
+            summaryColumn.writeTo(out);
+            timestampColumn.writeTo(out);
+            appColumn.writeTo(out);
+            uriColumn.writeTo(out);
+            countColumn.writeTo(out);
+            ipColumn.writeTo(out);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    /**
+     * Row indexes in time order: sorts the offsets from the day start packed with the row index into one long.
+     */
+    private int[] timeOrder() {
+        long[] keys = new long[rows];
+        for (int row = 0; row < rows; row++) {
+            keys[row] = (timestamps[row] - base) << ROW_BITS | row;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            order[i] = (int) (keys[i] & ((1 << ROW_BITS) - 1));
+        }
+        return order;
+    }
+
+    private static void writeVarLong(OutputStream out, long value) {
+        try {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Segment-local codes of the ids, the most frequent id getting code 0 and the shortest varint.
+     */
+    private static class Dictionary {
+        private final int[] ids;
+        private final Map<Integer, Integer> codes = new HashMap<>();
+
+        Dictionary(int[] values, int rows) {
+            Map<Integer, Integer> frequencies = new HashMap<>();
+            for (int row = 0; row < rows; row++) {
+                frequencies.merge(values[row], 1, Integer::sum);
+            }
+            ids = frequencies.entrySet().stream()
+                    .sorted(Map.Entry.<Integer, Integer>comparingByValue().reversed())
+                    .mapToInt(Map.Entry::getKey)
+                    .toArray();
+            for (int code = 0; code < ids.length; code++) {
+                codes.put(ids[code], code);
+            }
+        }
+
+        int code(int id) {
+            return codes.get(id);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(ids.length);
+            for (int id : ids) {
+                out.writeInt(id);
+            }
+        }
+    }
+}
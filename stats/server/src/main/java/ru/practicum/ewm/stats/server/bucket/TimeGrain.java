@@ -0,0 +1,36 @@
+package ru.practicum.ewm.stats.server.bucket;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+public enum TimeGrain {
+    MINUTE(ChronoUnit.MINUTES),
+    HOUR(ChronoUnit.HOURS),
+    DAY(ChronoUnit.DAYS);
+
+    private final ChronoUnit unit;
+
+    TimeGrain(ChronoUnit unit) {
+        this.unit = unit;
+    }
+
+    public LocalDateTime truncate(LocalDateTime time) {
+        return time.truncatedTo(unit);
+    }
+
+    /**
+     * First bucket boundary at or after {@code time}.
+     */
+    public LocalDateTime ceil(LocalDateTime time) {
+        LocalDateTime truncated = truncate(time);
+        return truncated.equals(time) ? time : next(truncated);
+    }
+
+    public LocalDateTime next(LocalDateTime bucketStart) {
+        return bucketStart.plus(1, unit);
+    }
+
+    public long between(LocalDateTime from, LocalDateTime to) {
+        return unit.between(from, to);
+    }
+}
@@ -0,0 +1,20 @@
+package ru.practicum.ewm.stats.server.bucket;
+
+import lombok.Value;
+
+import java.time.LocalDateTime;
+
+/**
+ * Half-open range {@code [from, to)} covered either by whole buckets of {@code grain} or,
+ * when {@code grain} is null, by raw hits.
+ */
+@Value
+public class TimeSlice {
+    TimeGrain grain;
+    LocalDateTime from;
+    LocalDateTime to;
+
+    public boolean isRaw() {
+        return grain == null;
+    }
+}
@@ -0,0 +1,51 @@
+package ru.practicum.ewm.stats.server.bucket;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class TimeSlicer {
+    private TimeSlicer() {
+    }
+
+    /**
+     * Inclusive end of a stats request as the exclusive bound used by slices; timestamps are stored
+     * with microsecond precision.
+     */
+    public static LocalDateTime exclusiveEnd(LocalDateTime end) {
+        return end.plusNanos(1_000);
+    }
+
+    /**
+     * Covers {@code [from, to)} with the coarsest buckets possible: whole buckets of the first grain in the middle,
+     * the ragged edges with the next grains, and whatever is finer than the last grain with raw slices.
+     *
+     * @param grains available grains, coarsest first
+     */
+    public static List<TimeSlice> slice(LocalDateTime from, LocalDateTime to, TimeGrain... grains) {
+        List<TimeSlice> slices = new ArrayList<>();
+        slice(from, to, grains, 0, slices);
+        return slices;
+    }
+
+    private static void slice(LocalDateTime from, LocalDateTime to, TimeGrain[] grains, int level,
+                              List<TimeSlice> slices) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        if (level == grains.length) {
+            slices.add(new TimeSlice(null, from, to));
+            return;
+        }
+        TimeGrain grain = grains[level];
+        LocalDateTime first = grain.ceil(from);
+        LocalDateTime last = grain.truncate(to);
+        if (!first.isBefore(last)) {
+            slice(from, to, grains, level + 1, slices);
+            return;
+        }
+        slice(from, first, grains, level + 1, slices);
+        slices.add(new TimeSlice(grain, first, last));
+        slice(last, to, grains, level + 1, slices);
+    }
+}
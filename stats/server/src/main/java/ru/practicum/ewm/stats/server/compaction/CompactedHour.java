@@ -0,0 +1,128 @@
+package ru.practicum.ewm.stats.server.compaction;
+
+import org.roaringbitmap.RoaringBitmap;
+import ru.practicum.ewm.stats.server.repository.CompactionRepository.CompactedSecondCallback;
+import ru.practicum.ewm.stats.server.sketch.Bitmaps;
+import ru.practicum.ewm.stats.server.sketch.SketchKey;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One hour of the compacted history of an app and uri: the hit count and visitor bitmap of the hour, which answer
+ * the ranges covering all of it, and the same per second, which answer the edges of the other ranges.
+ */
+public class CompactedHour {
+    private final SketchKey key;
+    private final TreeMap<Integer, Second> seconds = new TreeMap<>();
+    private final RoaringBitmap visitors;
+    private long hits;
+
+    public CompactedHour(SketchKey key) {
+        this(key, 0, new RoaringBitmap());
+    }
+
+    private CompactedHour(SketchKey key, long hits, RoaringBitmap visitors) {
+        this.key = key;
+        this.hits = hits;
+        this.visitors = visitors;
+    }
+
+    /**
+     * Restores a stored hour. The seconds are parallel arrays, {@code null} when only the whole hour was read.
+     * Hours converted from the former per-second rows have no hour bitmap; it is the union of their seconds.
+     */
+    public static CompactedHour of(SketchKey key, long hits, byte[] visitors, Integer[] offsets, Long[] secondHits,
+                                   byte[][] secondVisitors) {
+        CompactedHour hour = new CompactedHour(key, hits,
+                visitors == null ? new RoaringBitmap() : Bitmaps.fromBytes(visitors));
+        if (offsets != null) {
+            for (int i = 0; i < offsets.length; i++) {
+                RoaringBitmap second = Bitmaps.fromBytes(secondVisitors[i]);
+                hour.seconds.put(offsets[i], new Second(secondHits[i], second));
+                if (visitors == null) {
+                    hour.visitors.or(second);
+                }
+            }
+        }
+        return hour;
+    }
+
+    public SketchKey getKey() {
+        return key;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public RoaringBitmap getVisitors() {
+        return visitors;
+    }
+
+    /**
+     * Adds {@code count} hits of a visitor in the second {@code offset} seconds after the start of the hour.
+     */
+    public void add(int offset, int visitorId, long count) {
+        hits += count;
+        visitors.add(visitorId);
+        Second second = seconds.computeIfAbsent(offset, o -> new Second(0, new RoaringBitmap()));
+        second.hits += count;
+        second.visitors.add(visitorId);
+    }
+
+    /**
+     * Adds the hits of the same hour compacted separately, e.g. by a late backfill.
+     */
+    public void merge(CompactedHour other) {
+        hits += other.hits;
+        visitors.or(other.visitors);
+        other.seconds.forEach((offset, second) -> {
+            Second target = seconds.computeIfAbsent(offset, o -> new Second(0, new RoaringBitmap()));
+            target.hits += second.hits;
+            target.visitors.or(second.visitors);
+        });
+    }
+
+    /**
+     * Gives the hour as one bucket if {@code wholeHour} and it lies in {@code [from, to)}, otherwise each of
+     * its seconds in the range.
+     */
+    public void forEach(LocalDateTime from, LocalDateTime to, boolean wholeHour, CompactedSecondCallback callback) {
+        LocalDateTime start = key.getBucketStart();
+        if (wholeHour && !start.isBefore(from) && !start.plusHours(1).isAfter(to)) {
+            callback.accept(key, hits, visitors);
+            return;
+        }
+        for (Map.Entry<Integer, Second> entry : seconds.entrySet()) {
+            LocalDateTime second = start.plusSeconds(entry.getKey());
+            if (!second.isBefore(from) && second.isBefore(to)) {
+                callback.accept(new SketchKey(key.getAppId(), key.getUriId(), second),
+                        entry.getValue().hits, entry.getValue().visitors);
+            }
+        }
+    }
+
+    public Integer[] getSecondOffsets() {
+        return seconds.keySet().toArray(new Integer[0]);
+    }
+
+    public Long[] getSecondHits() {
+        return seconds.values().stream().map(second -> second.hits).toArray(Long[]::new);
+    }
+
+    public byte[][] getSecondVisitors() {
+        return seconds.values().stream().map(second -> Bitmaps.toBytes(second.visitors)).toArray(byte[][]::new);
+    }
+
+    private static class Second {
+        private final RoaringBitmap visitors;
+        private long hits;
+
+        Second(long hits, RoaringBitmap visitors) {
+            this.hits = hits;
+            this.visitors = visitors;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package ru.practicum.ewm.stats.server.compaction;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.stats.server.partition.HitPartitionManager;
+import ru.practicum.ewm.stats.server.partition.RetentionListener;
+import ru.practicum.ewm.stats.server.repository.CompactionRepository;
+import ru.practicum.ewm.stats.server.rollup.RollupService;
+import ru.practicum.ewm.stats.server.sketch.SketchKey;
+import ru.practicum.ewm.stats.server.sketch.VisitorBitmapService;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
+/**
+ * Folds raw hits older than {@code stats.compaction.age-days} into a row per app, uri and hour in
+ * {@code hits_compacted}, then purges them from the hits table, one day per transaction.
+ * <p>
+ * A row keeps the hit count and visitor bitmap of the hour, which answer the ranges covering it, and the same
+ * per second, the precision of the timestamps the API accepts, for the edges of the others, so stats over
+ * compacted history stay exact for any range. Day buckets of rollups and sketches are not touched; queries take
+ * the sub-day edges of compacted history from {@code hits_compacted}. Requires the rollups and the visitor bitmaps,
+ * which answer the non-unique and exact unique stats once raw rows are gone.
+ */
+@Slf4j
+@Service
+public class CompactionService implements RetentionListener {
+    private final CompactionRepository compactionRepository;
+    private final HitPartitionManager hitPartitionManager;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int ageDays;
+
+    public CompactionService(CompactionRepository compactionRepository,
+                             HitPartitionManager hitPartitionManager,
+                             PlatformTransactionManager transactionManager,
+                             RollupService rollupService,
+                             VisitorBitmapService visitorBitmapService,
+                             @Value("${stats.compaction.enabled:false}") boolean enabled,
+                             @Value("${stats.compaction.age-days:90}") int ageDays) {
+        this.compactionRepository = compactionRepository;
+        this.hitPartitionManager = hitPartitionManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.ageDays = ageDays;
+        if (enabled && (!rollupService.isEnabled() || !visitorBitmapService.isEnabled())) {
+            log.error("Компактизация отключена: для нее нужны роллапы и битмапы посетителей");
+            enabled = false;
+        }
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Scheduled(initialDelayString = "${stats.compaction.initial-delay-ms:60000}",
+            fixedDelayString = "${stats.compaction.interval-ms:3600000}")
+    public void compact() {
+        if (!enabled) {
+            return;
+        }
+        LocalDate cutoff = LocalDate.now().minusDays(ageDays);
+        try {
+            Optional<LocalDateTime> oldest;
+            while ((oldest = compactionRepository.findOldestHitBefore(cutoff.atStartOfDay())).isPresent()) {
+                LocalDate day = oldest.get().toLocalDate();
+                long started = System.nanoTime();
+                long hours = transactionTemplate.execute(status -> compactDay(day));
+                log.info("Компактизирован день {}: часов={}, за {} мс", day, hours,
+                        (System.nanoTime() - started) / 1_000_000);
+            }
+        } catch (RuntimeException e) {
+            log.error("Ошибка компактизации обращений старше {}", cutoff, e);
+        }
+    }
+
+    /**
+     * Drops the compacted history before {@code cutoff} together with the raw hits, also after compaction
+     * has been disabled, since its rows are still read by the queries.
+     */
+    @Override
+    public void onRetention(LocalDateTime cutoff) {
+        int deleted = transactionTemplate.execute(status -> compactionRepository.deleteBefore(cutoff));
+        if (deleted > 0) {
+            log.info("Удалено компактизированных часов старше {}: {}", cutoff, deleted);
+        }
+    }
+
+    private long compactDay(LocalDate day) {
+        LocalDateTime from = day.atStartOfDay();
+        LocalDateTime to = from.plusDays(1);
+        compactionRepository.createVisitors(from, to);
+        HourFolder folder = new HourFolder();
+        compactionRepository.forEachSecondVisitor(from, to, folder::add);
+        folder.flush();
+        hitPartitionManager.purge(day, day.plusDays(1));
+        return folder.hours;
+    }
+
+    private void store(CompactedHour hour) {
+        if (compactionRepository.insertIfAbsent(hour)) {
+            return;
+        }
+        CompactedHour stored = compactionRepository.findForUpdate(hour.getKey());
+        stored.merge(hour);
+        compactionRepository.update(stored);
+    }
+
+    /**
+     * Accumulates the ordered stream one hour of an app and uri at a time.
+     */
+    private class HourFolder {
+        private CompactedHour hour;
+        private long hours;
+
+        void add(SketchKey second, int visitorId, long count) {
+            LocalDateTime start = second.getBucketStart().truncatedTo(ChronoUnit.HOURS);
+            SketchKey key = new SketchKey(second.getAppId(), second.getUriId(), start);
+            if (hour == null || !key.equals(hour.getKey())) {
+                flush();
+                hour = new CompactedHour(key);
+            }
+            hour.add((int) ChronoUnit.SECONDS.between(start, second.getBucketStart()), visitorId, count);
+        }
+
+        void flush() {
+            if (hour != null) {
+                store(hour);
+                hours++;
+                hour = null;
+            }
+        }
+    }
+}
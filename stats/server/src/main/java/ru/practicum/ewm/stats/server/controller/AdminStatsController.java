@@ -0,0 +1,27 @@
+package ru.practicum.ewm.stats.server.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import ru.practicum.ewm.stats.dto.BulkLoadResultDto;
+import ru.practicum.ewm.stats.server.ingest.HitCopyLoader;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+@Slf4j
+@RestController
+@RequestMapping("/admin")
+@RequiredArgsConstructor
+public class AdminStatsController {
+    private final HitCopyLoader hitCopyLoader;
+
+    @PostMapping(value = "/hits/copy", consumes = "text/csv")
+    @ResponseStatus(HttpStatus.CREATED)
+    public BulkLoadResultDto copyHits(@RequestParam(required = false, defaultValue = "false") Boolean header,
+                                      HttpServletRequest request) throws IOException {
+        log.info("Поступил запрос на массовую загрузку обращений: size={}", request.getContentLengthLong());
+        return hitCopyLoader.load(request.getInputStream(), header);
+    }
+}
@@ -1,16 +1,29 @@
 package ru.practicum.ewm.stats.server.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.practicum.ewm.stats.dto.EndpointHitDto;
+import ru.practicum.ewm.stats.dto.HitBatchResultDto;
+import ru.practicum.ewm.stats.dto.PopularityDto;
+import ru.practicum.ewm.stats.dto.StatsQueryDto;
+import ru.practicum.ewm.stats.dto.TimeSeriesDto;
 import ru.practicum.ewm.stats.dto.ViewStatsDto;
+import ru.practicum.ewm.stats.dto.VisitorSetDto;
 import ru.practicum.ewm.stats.server.service.StatsService;
 
+import javax.validation.Valid;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 import static ru.practicum.ewm.stats.dto.util.DateTimeFormat.DATETIME_FORMAT;
 
@@ -19,6 +32,7 @@ import static ru.practicum.ewm.stats.dto.util.DateTimeFormat.DATETIME_FORMAT;
 @RequiredArgsConstructor
 public class StatsController {
     private final StatsService statsService;
+    private final ObjectMapper objectMapper;
 
     @PostMapping("/hit")
     @ResponseStatus(HttpStatus.CREATED)
@@ -26,15 +40,118 @@ public class StatsController {
         statsService.hit(endpointHitDto);
     }
 
+    @PostMapping("/hits")
+    @ResponseStatus(HttpStatus.CREATED)
+    public HitBatchResultDto hitAll(@RequestBody List<EndpointHitDto> endpointHitDtos) {
+        log.info("Поступил пакет обращений: size={}", endpointHitDtos.size());
+        return statsService.hitAll(endpointHitDtos);
+    }
+
     @GetMapping("/stats")
     public List<ViewStatsDto> getStats(@RequestParam
                                            @DateTimeFormat(pattern = DATETIME_FORMAT) LocalDateTime start,
                                        @RequestParam
                                            @DateTimeFormat(pattern = DATETIME_FORMAT) LocalDateTime end,
                                        @RequestParam(required = false) List<String> uris,
-                                       @RequestParam(required = false, defaultValue = "false") Boolean unique) {
-        log.info("Поступил запрос на получение статистики: start={}, end={}, uris={}, unique={}",
+                                       @RequestParam(required = false, defaultValue = "false") Boolean unique,
+                                       @RequestParam(required = false, defaultValue = "false") Boolean exact) {
+        log.info("Поступил запрос на получение статистики: start={}, end={}, uris={}, unique={}, exact={}",
+                start, end, uris, unique, exact);
+        return statsService.getStats(start, end, uris, unique, exact);
+    }
+
+    @GetMapping("/stats/timeseries")
+    public List<TimeSeriesDto> getTimeSeries(@RequestParam
+                                                 @DateTimeFormat(pattern = DATETIME_FORMAT) LocalDateTime start,
+                                             @RequestParam
+                                                 @DateTimeFormat(pattern = DATETIME_FORMAT) LocalDateTime end,
+                                             @RequestParam List<String> uris,
+                                             @RequestParam(defaultValue = "hour") String grain) {
+        log.info("Поступил запрос временного ряда: start={}, end={}, uris={}, grain={}", start, end, uris, grain);
+        return statsService.getTimeSeries(start, end, uris, grain);
+    }
+
+    @GetMapping("/stats/top")
+    public List<ViewStatsDto> getTopStats(@RequestParam
+                                              @DateTimeFormat(pattern = DATETIME_FORMAT) LocalDateTime start,
+                                          @RequestParam
+                                              @DateTimeFormat(pattern = DATETIME_FORMAT) LocalDateTime end,
+                                          @RequestParam(defaultValue = "10") Integer n,
+                                          @RequestParam(defaultValue = "true") Boolean exact) {
+        log.info("Поступил запрос самых просматриваемых uri: start={}, end={}, n={}, exact={}", start, end, n, exact);
+        return statsService.getTopStats(start, end, n, exact);
+    }
+
+    /**
+     * Hits in the last minutes from the in-memory sliding windows, without reading the hits table.
+     */
+    @GetMapping("/stats/live")
+    public List<ViewStatsDto> getLiveStats(@RequestParam(defaultValue = "5") Integer minutes,
+                                           @RequestParam(required = false) List<String> uris) {
+        log.info("Поступил запрос живой статистики: minutes={}, uris={}", minutes, uris);
+        return statsService.getLiveStats(minutes, uris);
+    }
+
+    /**
+     * Uris ranked by time-decayed popularity, favouring recent views.
+     */
+    @GetMapping("/stats/trending")
+    public List<PopularityDto> getTrending(@RequestParam(defaultValue = "10") Integer n) {
+        log.info("Поступил запрос популярных uri: n={}", n);
+        return statsService.getTrending(n);
+    }
+
+    /**
+     * Popularity of the given uris, sorted, so that callers can rank their own items by it.
+     */
+    @PostMapping("/stats/trending")
+    public List<PopularityDto> getPopularity(@RequestBody List<String> uris) {
+        log.info("Поступил запрос популярности {} uri", uris.size());
+        return statsService.getPopularity(uris);
+    }
+
+    /**
+     * Stats for uri sets too large for a query string; the answer maps each uri with hits to its count.
+     */
+    @PostMapping("/stats/query")
+    public Map<String, Long> queryViews(@Valid @RequestBody StatsQueryDto query) {
+        log.info("Поступил запрос статистики по {} uri: start={}, end={}, unique={}",
+                query.getUris() == null ? "всем" : query.getUris().size(), query.getStart(), query.getEnd(),
+                query.getUnique());
+        return statsService.queryViews(query);
+    }
+
+    /**
+     * Visitor sets of the uris, for clients uniting the unique visitors of a uri stored on several servers.
+     */
+    @PostMapping("/stats/visitors")
+    public List<VisitorSetDto> getVisitors(@Valid @RequestBody StatsQueryDto query) {
+        log.info("Поступил запрос посетителей {} uri: start={}, end={}",
+                query.getUris() == null ? "всех" : query.getUris().size(), query.getStart(), query.getEnd());
+        return statsService.getVisitors(query);
+    }
+
+    /**
+     * Streams the stats as NDJSON, one {@link ViewStatsDto} per line, written as soon as it is read.
+     */
+    @GetMapping(value = "/stats", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamStats(
+            @RequestParam @DateTimeFormat(pattern = DATETIME_FORMAT) LocalDateTime start,
+            @RequestParam @DateTimeFormat(pattern = DATETIME_FORMAT) LocalDateTime end,
+            @RequestParam(required = false) List<String> uris,
+            @RequestParam(required = false, defaultValue = "false") Boolean unique) {
+        log.info("Поступил запрос на потоковую выгрузку статистики: start={}, end={}, uris={}, unique={}",
                 start, end, uris, unique);
-        return statsService.getStats(start, end, uris, unique);
+        StreamingResponseBody body = out -> statsService.streamStats(start, end, uris, unique, dto -> {
+            try {
+                out.write(objectMapper.writeValueAsBytes(dto));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,95 @@
+package ru.practicum.ewm.stats.server.counter;
+
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Hit counts of one app and uri in consecutive time buckets, kept in a primitive array that grows
+ * in both directions as older or newer buckets appear. The array spans at most {@link #MAX_DENSE_BUCKETS};
+ * buckets that would stretch it further, such as a stray timestamp years away, go to a sparse map instead.
+ */
+class BucketCounter {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_DENSE_BUCKETS = 1 << 16;
+
+    private long base;
+    private long[] counts;
+    private NavigableMap<Long, Long> overflow;
+
+    synchronized void add(long bucket, long hits) {
+        if (counts == null) {
+            base = bucket;
+            counts = new long[INITIAL_CAPACITY];
+        } else if (bucket < base) {
+            if (counts.length + (base - bucket) > MAX_DENSE_BUCKETS) {
+                addOverflow(bucket, hits);
+                return;
+            }
+            long[] grown = new long[capacityFor(counts.length + (base - bucket))];
+            int shift = grown.length - counts.length;
+            System.arraycopy(counts, 0, grown, shift, counts.length);
+            counts = grown;
+            base -= shift;
+        } else if (bucket - base >= counts.length) {
+            if (bucket - base >= MAX_DENSE_BUCKETS) {
+                addOverflow(bucket, hits);
+                return;
+            }
+            long[] grown = new long[capacityFor(bucket - base + 1)];
+            System.arraycopy(counts, 0, grown, 0, counts.length);
+            counts = grown;
+        }
+        counts[(int) (bucket - base)] += hits;
+    }
+
+    /**
+     * Hits in buckets {@code [fromBucket, toBucket)}.
+     */
+    synchronized long sum(long fromBucket, long toBucket) {
+        long sum = 0;
+        if (counts != null) {
+            int from = (int) Math.max(0, Math.min(counts.length, fromBucket - base));
+            int to = (int) Math.max(0, Math.min(counts.length, toBucket - base));
+            for (int i = from; i < to; i++) {
+                sum += counts[i];
+            }
+        }
+        if (overflow != null && fromBucket < toBucket) {
+            for (long hits : overflow.subMap(fromBucket, toBucket).values()) {
+                sum += hits;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Drops the buckets before {@code bucket}, shrinking the array to the ones after it.
+     */
+    synchronized void trimBefore(long bucket) {
+        if (overflow != null) {
+            overflow.headMap(bucket).clear();
+        }
+        if (counts == null || bucket <= base) {
+            return;
+        }
+        counts = bucket - base >= counts.length ? null : Arrays.copyOfRange(counts, (int) (bucket - base),
+                counts.length);
+        base = bucket;
+    }
+
+    private void addOverflow(long bucket, long hits) {
+        if (overflow == null) {
+            overflow = new TreeMap<>();
+        }
+        overflow.merge(bucket, hits, Long::sum);
+    }
+
+    private static int capacityFor(long required) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < required) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
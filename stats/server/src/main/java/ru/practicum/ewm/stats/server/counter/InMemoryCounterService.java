@@ -0,0 +1,242 @@
+package ru.practicum.ewm.stats.server.counter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.stats.server.bucket.TimeGrain;
+import ru.practicum.ewm.stats.server.bucket.TimeSlicer;
+import ru.practicum.ewm.stats.server.ingest.HitListener;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.model.StatsKey;
+import ru.practicum.ewm.stats.server.model.ViewStatsProjection;
+import ru.practicum.ewm.stats.server.model.ViewStatsRow;
+import ru.practicum.ewm.stats.server.partition.RetentionListener;
+import ru.practicum.ewm.stats.server.repository.EndpointHitJdbcRepository;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Non-unique hit counts of every app and uri per time bucket, held in memory. Loaded from the hits table
+ * when the bean starts, i.e. before any ingest path can reach it, and updated after each ingest commit.
+ * Assumes this instance sees every write to the hits table: the offline bulk loader cannot run next to it,
+ * see {@link ru.practicum.ewm.stats.server.ingest.BulkLoadLock}.
+ * <p>
+ * A range is answered from the whole buckets inside it; its ragged edges, shorter than a bucket each,
+ * are counted in the database unless they lie outside the span of known hits.
+ */
+@Slf4j
+@Service
+public class InMemoryCounterService implements HitListener, RetentionListener {
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final EndpointHitJdbcRepository endpointHitJdbcRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final TimeGrain grain;
+    private final Map<Integer, Map<Integer, BucketCounter>> countersByUri = new ConcurrentHashMap<>();
+    private volatile LocalDateTime minTimestamp;
+    private volatile LocalDateTime maxTimestamp;
+
+    public InMemoryCounterService(EndpointHitJdbcRepository endpointHitJdbcRepository,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${stats.memory.enabled:true}") boolean enabled,
+                                  @Value("${stats.memory.grain:HOUR}") TimeGrain grain) {
+        this.endpointHitJdbcRepository = endpointHitJdbcRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.enabled = enabled;
+        this.grain = grain;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        long started = System.nanoTime();
+        transactionTemplate.executeWithoutResult(status -> endpointHitJdbcRepository.forEachBucketCount(
+                grain.name().toLowerCase(), (appId, uriId, bucketStart, hits) -> {
+                    counter(appId, uriId).add(bucket(bucketStart), hits);
+                    extendSpan(bucketStart, grain.next(bucketStart));
+                }));
+        log.info("Счетчики в памяти загружены за {} мс: uri={}",
+                (System.nanoTime() - started) / 1_000_000, countersByUri.size());
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(hits);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                apply(hits);
+            }
+        });
+    }
+
+    /**
+     * Drops the buckets before {@code cutoff}. The database no longer has hits before it either, so the span
+     * of known hits starts there at the earliest. Counters stay registered, as ingest may be adding to them.
+     */
+    @Override
+    public void onRetention(LocalDateTime cutoff) {
+        if (!enabled) {
+            return;
+        }
+        long bucket = bucket(grain.truncate(cutoff));
+        countersByUri.values().forEach(counters -> counters.values().forEach(counter -> counter.trimBefore(bucket)));
+        synchronized (this) {
+            if (minTimestamp != null && minTimestamp.isBefore(cutoff)) {
+                minTimestamp = cutoff;
+            }
+        }
+    }
+
+    /**
+     * Non-unique stats for {@code [start, end]}, or empty if the counters are disabled.
+     */
+    public Optional<List<ViewStatsProjection>> getNotUniqueStats(LocalDateTime start, LocalDateTime end,
+                                                                 Collection<Integer> uriIds) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        List<ViewStatsProjection> stats = new ArrayList<>();
+        count(start, end, uriIds).forEach((key, hits) -> {
+            if (hits > 0) {
+                stats.add(new ViewStatsRow(key.getAppId(), key.getUriId(), hits));
+            }
+        });
+        stats.sort(Comparator.comparing(ViewStatsProjection::getHits).reversed());
+        return Optional.of(stats);
+    }
+
+    /**
+     * The {@code n} apps and uris with the most hits in {@code [start, end]}, largest first, selected
+     * with a bounded min-heap; empty if the counters are disabled.
+     */
+    public Optional<List<ViewStatsProjection>> getTopStats(LocalDateTime start, LocalDateTime end, int n) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        PriorityQueue<ViewStatsProjection> heap = new PriorityQueue<>(n + 1,
+                Comparator.comparing(ViewStatsProjection::getHits));
+        count(start, end, null).forEach((key, hits) -> {
+            if (hits > 0 && (heap.size() < n || hits > heap.peek().getHits())) {
+                heap.add(new ViewStatsRow(key.getAppId(), key.getUriId(), hits));
+                if (heap.size() > n) {
+                    heap.poll();
+                }
+            }
+        });
+        List<ViewStatsProjection> top = new ArrayList<>(heap);
+        top.sort(Comparator.comparing(ViewStatsProjection::getHits).reversed());
+        return Optional.of(top);
+    }
+
+    /**
+     * Hits per app and uri in {@code [start, end]}: the whole buckets from memory, the edges before the first
+     * and after the last whole bucket from the database.
+     */
+    private Map<StatsKey, Long> count(LocalDateTime start, LocalDateTime end, Collection<Integer> uriIds) {
+        LocalDateTime to = TimeSlicer.exclusiveEnd(end);
+        LocalDateTime first = grain.ceil(start);
+        LocalDateTime last = grain.truncate(to);
+        Map<StatsKey, Long> counts = new HashMap<>();
+        if (!first.isBefore(last)) {
+            countEdge(start, to, uriIds, counts);
+            return counts;
+        }
+        long fromBucket = bucket(first);
+        long toBucket = bucket(last);
+        Collection<Integer> uris = uriIds == null ? countersByUri.keySet() : uriIds;
+        for (Integer uriId : uris) {
+            Map<Integer, BucketCounter> counters = countersByUri.get(uriId);
+            if (counters != null) {
+                counters.forEach((appId, counter) -> counts.merge(new StatsKey(appId, uriId),
+                        counter.sum(fromBucket, toBucket), Long::sum));
+            }
+        }
+        countEdge(start, first, uriIds, counts);
+        countEdge(last, to, uriIds, counts);
+        return counts;
+    }
+
+    /**
+     * Adds the hits of {@code [from, to)} from the database; skipped if no known hit can fall into it.
+     */
+    private void countEdge(LocalDateTime from, LocalDateTime to, Collection<Integer> uriIds,
+                           Map<StatsKey, Long> counts) {
+        LocalDateTime min = minTimestamp;
+        LocalDateTime max = maxTimestamp;
+        if (!from.isBefore(to) || min == null || !to.isAfter(min) || !from.isBefore(max)) {
+            return;
+        }
+        for (ViewStatsProjection row : endpointHitJdbcRepository.sumHits(from, to, uriIds)) {
+            counts.merge(new StatsKey(row.getAppId(), row.getUriId()), row.getHits(), Long::sum);
+        }
+    }
+
+    private void apply(List<EndpointHit> hits) {
+        LocalDateTime first = null;
+        LocalDateTime last = null;
+        for (EndpointHit hit : hits) {
+            LocalDateTime timestamp = hit.getHitTimestamp();
+            counter(hit.getAppId(), hit.getUriId()).add(bucket(grain.truncate(timestamp)), hit.getHitCount());
+            if (first == null || timestamp.isBefore(first)) {
+                first = timestamp;
+            }
+            if (last == null || timestamp.isAfter(last)) {
+                last = timestamp;
+            }
+        }
+        if (first != null) {
+            extendSpan(first, TimeSlicer.exclusiveEnd(last));
+        }
+    }
+
+    private BucketCounter counter(int appId, int uriId) {
+        return countersByUri.computeIfAbsent(uriId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(appId, id -> new BucketCounter());
+    }
+
+    /**
+     * Widens the span {@code [min, max)} of known hits. Loaded buckets widen it to their bounds,
+     * as the exact timestamps inside them are not known.
+     */
+    private synchronized void extendSpan(LocalDateTime first, LocalDateTime last) {
+        if (minTimestamp == null || first.isBefore(minTimestamp)) {
+            minTimestamp = first;
+        }
+        if (maxTimestamp == null || last.isAfter(maxTimestamp)) {
+            maxTimestamp = last;
+        }
+    }
+
+    private long bucket(LocalDateTime bucketStart) {
+        return grain.between(EPOCH, bucketStart);
+    }
+}
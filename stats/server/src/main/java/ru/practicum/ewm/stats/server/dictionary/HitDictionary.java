@@ -0,0 +1,137 @@
+package ru.practicum.ewm.stats.server.dictionary;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.stats.dto.EndpointHitDto;
+import ru.practicum.ewm.stats.server.error.BadRequestError;
+import ru.practicum.ewm.stats.server.mapper.IpAddressMapper;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.repository.DictionaryRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process intern cache over the apps and uris dictionaries. Hits are stored with integer ids, names are
+ * only resolved back when stats are returned. New names are committed in their own transaction, so a cached id
+ * always refers to an existing row even if the ingest transaction that created it rolls back.
+ */
+@Component
+public class HitDictionary {
+    private final DictionaryRepository dictionaryRepository;
+    private final TransactionTemplate newTransaction;
+    private final Map<String, Integer> appIds = new ConcurrentHashMap<>();
+    private final Map<String, Integer> uriIds = new ConcurrentHashMap<>();
+    private final Map<Integer, String> appNames = new ConcurrentHashMap<>();
+    private final Map<Integer, String> uriPaths = new ConcurrentHashMap<>();
+    private final long maxFutureSeconds;
+
+    public HitDictionary(DictionaryRepository dictionaryRepository, PlatformTransactionManager transactionManager,
+                         @Value("${stats.hits.max-future-seconds:3600}") long maxFutureSeconds) {
+        this.dictionaryRepository = dictionaryRepository;
+        this.maxFutureSeconds = maxFutureSeconds;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public EndpointHit encode(EndpointHitDto dto) {
+        if (dto.getApp() == null || dto.getUri() == null || dto.getHitTimestamp() == null) {
+            throw new BadRequestError("Hit must have app, uri and timestamp: " + dto);
+        }
+        if (dto.getHitTimestamp().isAfter(LocalDateTime.now().plusSeconds(maxFutureSeconds))) {
+            throw new BadRequestError("Hit timestamp is more than " + maxFutureSeconds +
+                    " seconds in the future: " + dto);
+        }
+        EndpointHit hit = new EndpointHit();
+        hit.setAppId(appId(dto.getApp()));
+        hit.setUriId(uriId(dto.getUri()));
+        hit.setIp(IpAddressMapper.toBytes(dto.getIp()));
+        hit.setHitTimestamp(dto.getHitTimestamp());
+        hit.setHitId(dto.getHitId());
+        if (dto.getCount() != null) {
+            if (dto.getCount() < 1) {
+                throw new BadRequestError("Hit count must be positive: " + dto);
+            }
+            hit.setHitCount(dto.getCount());
+        }
+        return hit;
+    }
+
+    public int appId(String name) {
+        Integer id = appIds.get(name);
+        if (id == null) {
+            id = newTransaction.execute(status -> dictionaryRepository.getOrCreateApp(name));
+            remember(appIds, appNames, name, id);
+        }
+        return id;
+    }
+
+    public int uriId(String path) {
+        Integer id = uriIds.get(path);
+        if (id == null) {
+            id = newTransaction.execute(status -> dictionaryRepository.getOrCreateUri(path));
+            remember(uriIds, uriPaths, path, id);
+        }
+        return id;
+    }
+
+    /**
+     * Looks up ids of known uris without creating new ones; unknown uris have no hits and are skipped.
+     * Uris missing from the cache are looked up together.
+     */
+    public List<Integer> findUriIds(Collection<String> paths) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String path : paths) {
+            Integer id = uriIds.get(path);
+            if (id != null) {
+                ids.add(id);
+            } else {
+                missing.add(path);
+            }
+        }
+        if (!missing.isEmpty()) {
+            dictionaryRepository.findUriIds(missing).forEach((path, id) -> {
+                remember(uriIds, uriPaths, path, id);
+                ids.add(id);
+            });
+        }
+        return new ArrayList<>(ids);
+    }
+
+    public Optional<Integer> findUriId(String path) {
+        Integer id = uriIds.get(path);
+        if (id != null) {
+            return Optional.of(id);
+        }
+        Optional<Integer> found = dictionaryRepository.findUriId(path);
+        found.ifPresent(value -> remember(uriIds, uriPaths, path, value));
+        return found;
+    }
+
+    public String appName(int id) {
+        return appNames.computeIfAbsent(id, key -> dictionaryRepository.findAppName(key)
+                .orElseThrow(() -> new IllegalStateException("Unknown app id=" + key)));
+    }
+
+    public String uriPath(int id) {
+        return uriPaths.computeIfAbsent(id, key -> dictionaryRepository.findUriPath(key)
+                .orElseThrow(() -> new IllegalStateException("Unknown uri id=" + key)));
+    }
+
+    private static void remember(Map<String, Integer> ids, Map<Integer, String> names, String name, Integer id) {
+        ids.put(name, Objects.requireNonNull(id));
+        names.put(id, name);
+    }
+}
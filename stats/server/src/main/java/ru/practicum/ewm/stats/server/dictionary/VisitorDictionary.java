@@ -0,0 +1,78 @@
+package ru.practicum.ewm.stats.server.dictionary;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.ewm.stats.server.repository.VisitorRepository;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps visitor IPs to dense integer ids with a bounded LRU cache in front of the visitors table.
+ * Unlike apps and uris, new visitors are created in the ingest transaction: there are too many of them
+ * for a transaction each. Their ids are cached only after that transaction commits.
+ */
+@Component
+public class VisitorDictionary {
+    private final VisitorRepository visitorRepository;
+    private final Map<ByteBuffer, Integer> cache;
+
+    public VisitorDictionary(VisitorRepository visitorRepository,
+                             @Value("${stats.bitmaps.visitor-cache-size:100000}") int cacheSize) {
+        this.visitorRepository = visitorRepository;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Integer> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Visitor ids of the IPs, in the same order.
+     */
+    public List<Integer> visitorIds(List<byte[]> ips) {
+        List<Integer> ids = new ArrayList<>(ips.size());
+        List<byte[]> missing = new ArrayList<>();
+        synchronized (cache) {
+            for (byte[] ip : ips) {
+                Integer id = cache.get(ByteBuffer.wrap(ip));
+                ids.add(id);
+                if (id == null) {
+                    missing.add(ip);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return ids;
+        }
+        Map<ByteBuffer, Integer> created = visitorRepository.getOrCreate(missing);
+        for (int i = 0; i < ids.size(); i++) {
+            if (ids.get(i) == null) {
+                ids.set(i, created.get(ByteBuffer.wrap(ips.get(i))));
+            }
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    remember(created);
+                }
+            });
+        } else {
+            remember(created);
+        }
+        return ids;
+    }
+
+    private void remember(Map<ByteBuffer, Integer> ids) {
+        synchronized (cache) {
+            cache.putAll(ids);
+        }
+    }
+}
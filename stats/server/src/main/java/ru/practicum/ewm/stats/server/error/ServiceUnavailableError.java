@@ -0,0 +1,7 @@
+package ru.practicum.ewm.stats.server.error;
+
+public class ServiceUnavailableError extends RuntimeException {
+    public ServiceUnavailableError(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,16 @@
+package ru.practicum.ewm.stats.server.ingest;
+
+public enum BackpressurePolicy {
+    /**
+     * the caller waits until the writer frees space in the queue
+     */
+    BLOCK,
+    /**
+     * the hit is silently discarded and counted as dropped
+     */
+    DROP,
+    /**
+     * the hit is refused and the caller gets 503 Service Unavailable
+     */
+    REJECT
+}
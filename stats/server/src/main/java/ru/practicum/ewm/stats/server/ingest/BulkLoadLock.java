@@ -0,0 +1,77 @@
+package ru.practicum.ewm.stats.server.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Session-level advisory lock that keeps the offline bulk loader away from a database a stats server is using.
+ * Every server holds it shared while it runs, {@link ru.practicum.ewm.stats.server.StatsBulkLoadApp} takes it
+ * exclusively. The in-memory structures of a server only see its own writes, so rows copied behind its back
+ * would stay uncounted until a restart; loads next to a running server go through {@code POST /admin/hits/copy}.
+ */
+@Slf4j
+@Component
+public class BulkLoadLock {
+    private static final long KEY = 0x6577_6d5f_7374_6174L;
+
+    private final DataSource dataSource;
+    private Connection connection;
+
+    public BulkLoadLock(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Waits for a running bulk load to finish, then holds the lock shared until the server stops.
+     */
+    @PostConstruct
+    public void acquireShared() throws SQLException {
+        connection = dataSource.getConnection();
+        if (!lock(connection, "select pg_try_advisory_lock_shared(?)")) {
+            log.warn("Идет офлайн-загрузка обращений, запуск сервера ожидает ее завершения");
+            try (PreparedStatement ps = connection.prepareStatement("select pg_advisory_lock_shared(?)")) {
+                ps.setLong(1, KEY);
+                ps.execute();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void release() throws SQLException {
+        if (connection == null) {
+            return;
+        }
+        try {
+            lock(connection, "select pg_advisory_unlock_shared(?)");
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Takes the lock exclusively for the session of the connection; fails if a server holds it.
+     */
+    public static void acquireExclusive(Connection connection) throws SQLException {
+        if (!lock(connection, "select pg_try_advisory_lock(?)")) {
+            throw new IllegalStateException("A stats server is running against this database: stop it " +
+                    "or load the hits through POST /admin/hits/copy.");
+        }
+    }
+
+    private static boolean lock(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setLong(1, KEY);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package ru.practicum.ewm.stats.server.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.stats.dto.BulkLoadResultDto;
+import ru.practicum.ewm.stats.dto.EndpointHitDto;
+import ru.practicum.ewm.stats.server.dictionary.HitDictionary;
+import ru.practicum.ewm.stats.server.error.BadRequestError;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ru.practicum.ewm.stats.dto.util.DateTimeFormat.DATETIME_FORMAT;
+
+/**
+ * Bulk loader for backfills: streams CSV rows {@code app,uri,ip,timestamp[,count]} into the hits table
+ * through the PostgreSQL {@code COPY ... FROM STDIN} protocol, bypassing JPA and per-row statements.
+ * Timestamps use the {@code yyyy-MM-dd HH:mm:ss} format, the optional count of identical views defaults to 1.
+ * Rows are dictionary-encoded on the fly and sent in chunks; rows that cannot be parsed are counted as rejected
+ * instead of failing the whole load. Each chunk commits in its own transaction, so the derived structures catch up
+ * chunk by chunk instead of holding the whole load until the end; a failed load keeps the chunks before the failure.
+ */
+@Slf4j
+@Component
+public class HitCopyLoader {
+    private static final String COPY_HITS = "copy hits (hits_app_id, hits_uri_id, hits_ip, hits_timestamp, " +
+            "hits_count) from stdin";
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(DATETIME_FORMAT);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final HitDictionary hitDictionary;
+    private final HitWriter hitWriter;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkRows;
+
+    public HitCopyLoader(JdbcTemplate jdbcTemplate,
+                         HitDictionary hitDictionary,
+                         HitWriter hitWriter,
+                         PlatformTransactionManager transactionManager,
+                         @Value("${stats.copy.chunk-rows:50000}") int chunkRows) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.hitDictionary = hitDictionary;
+        this.hitWriter = hitWriter;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkRows = chunkRows;
+    }
+
+    public BulkLoadResultDto load(InputStream csv, boolean header) {
+        long started = System.nanoTime();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8), 1 << 16);
+        long rows = 0;
+        long rejected = 0;
+        try {
+            if (header) {
+                reader.readLine();
+            }
+            List<EndpointHit> chunk = new ArrayList<>(chunkRows);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    chunk.add(hitDictionary.encode(parse(line)));
+                } catch (BadRequestError | DateTimeParseException | NumberFormatException e) {
+                    rejected++;
+                    continue;
+                }
+                if (chunk.size() == chunkRows) {
+                    rows += copy(chunk);
+                    chunk = new ArrayList<>(chunkRows);
+                }
+            }
+            rows += copy(chunk);
+        } catch (IOException e) {
+            throw new BadRequestError("Failed to read hits for COPY: " + e.getMessage());
+        }
+        long millis = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+        BulkLoadResultDto result = BulkLoadResultDto.builder()
+                .rows(rows)
+                .rejected(rejected)
+                .millis(millis)
+                .rowsPerSecond(rows * 1000 / millis)
+                .build();
+        log.info("Загружено обращений через COPY: {} за {} мс ({} строк/с), отклонено: {}",
+                rows, millis, result.getRowsPerSecond(), rejected);
+        return result;
+    }
+
+    /**
+     * Sends one chunk as a COPY command in its own transaction, then lets the derived structures catch up;
+     * they cannot use the connection while a COPY is in progress.
+     */
+    private long copy(List<EndpointHit> chunk) {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        Long copied = transactionTemplate.execute(status -> copyInTransaction(chunk));
+        return copied == null ? 0 : copied;
+    }
+
+    private long copyInTransaction(List<EndpointHit> chunk) {
+        StringBuilder rows = new StringBuilder(chunk.size() * 48);
+        for (EndpointHit hit : chunk) {
+            appendRow(rows, hit);
+        }
+        byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+        Long copied = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_HITS);
+            try {
+                copyIn.writeToCopy(bytes, 0, bytes.length);
+                return copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        });
+        hitWriter.notifyListeners(chunk);
+        return copied == null ? 0 : copied;
+    }
+
+    static void appendRow(StringBuilder row, EndpointHit hit) {
+        row.append(hit.getAppId()).append('\t')
+                .append(hit.getUriId()).append('\t')
+                .append("\\\\x");
+        for (byte b : hit.getIp()) {
+            row.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+        }
+        row.append('\t').append(hit.getHitTimestamp().format(FORMATTER))
+                .append('\t').append(hit.getHitCount()).append('\n');
+    }
+
+    static EndpointHitDto parse(String line) {
+        List<String> fields = splitCsv(line);
+        if (fields.size() != 4 && fields.size() != 5) {
+            throw new BadRequestError("Expected 4 or 5 fields: " + line);
+        }
+        return EndpointHitDto.builder()
+                .app(fields.get(0))
+                .uri(fields.get(1))
+                .ip(fields.get(2))
+                .hitTimestamp(LocalDateTime.parse(fields.get(3), FORMATTER))
+                .count(fields.size() == 5 ? Integer.valueOf(fields.get(4)) : null)
+                .build();
+    }
+
+    /**
+     * Minimal RFC 4180 field splitting: quoted fields may contain commas and doubled quotes.
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
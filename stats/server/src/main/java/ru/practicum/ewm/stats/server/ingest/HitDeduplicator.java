@@ -0,0 +1,156 @@
+package ru.practicum.ewm.stats.server.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.repository.HitIdRepository;
+import ru.practicum.ewm.stats.server.sketch.BloomFilter;
+import ru.practicum.ewm.stats.server.sketch.Hashing;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Drops hits whose client-supplied id was already stored within {@code stats.dedup.window-ms}, so retried
+ * submissions are counted once. Two Bloom filters cover the current and the previous window: an id they have
+ * never seen is new and is stored without any lookup, only possible duplicates are checked exactly against
+ * the ids stored with the hits. Ids of hits still in an open transaction are tracked in memory, so a concurrent
+ * retry is dropped as well.
+ * <p>
+ * The filters only know the ids this instance stored since startup: until they cover two windows, every id
+ * is checked. Retries must reach the instance that stored the hit, as the sharded client routes them.
+ * Hits without an id are never dropped.
+ */
+@Slf4j
+@Component
+public class HitDeduplicator {
+    private final HitIdRepository hitIdRepository;
+    private final boolean enabled;
+    private final long expectedHits;
+    private final double falsePositiveRate;
+    private final Counter duplicateCounter;
+    private final Counter lookupCounter;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private BloomFilter current;
+    private BloomFilter previous;
+    /**
+     * rotations left until the filters cover two full windows of stored ids
+     */
+    private int coldRotations;
+
+    public HitDeduplicator(HitIdRepository hitIdRepository,
+                           MeterRegistry meterRegistry,
+                           @Value("${stats.dedup.enabled:true}") boolean enabled,
+                           @Value("${stats.dedup.expected-hits:1000000}") long expectedHits,
+                           @Value("${stats.dedup.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.hitIdRepository = hitIdRepository;
+        this.enabled = enabled;
+        this.expectedHits = expectedHits;
+        this.falsePositiveRate = falsePositiveRate;
+        this.current = new BloomFilter(expectedHits, falsePositiveRate);
+        this.previous = new BloomFilter(expectedHits, falsePositiveRate);
+        duplicateCounter = meterRegistry.counter("stats.dedup.hits", "result", "duplicate");
+        lookupCounter = meterRegistry.counter("stats.dedup.hits", "result", "lookup");
+    }
+
+    /**
+     * Hits stored before this start are unknown to the filters, so all ids are checked for two windows.
+     */
+    @PostConstruct
+    public synchronized void start() {
+        coldRotations = 2;
+    }
+
+    /**
+     * Returns the hits to store. Must run in the transaction that stores them: their ids count as stored
+     * until it completes.
+     */
+    public List<EndpointHit> filter(List<EndpointHit> hits) {
+        if (!enabled) {
+            return hits;
+        }
+        Set<String> batchIds = new HashSet<>();
+        List<String> suspects = new ArrayList<>();
+        synchronized (this) {
+            for (EndpointHit hit : hits) {
+                String hitId = hit.getHitId();
+                if (hitId == null || inFlight.contains(hitId) || !batchIds.add(hitId)) {
+                    continue;
+                }
+                long hash = hash(hitId);
+                if (coldRotations > 0 || current.mightContain(hash) || previous.mightContain(hash)) {
+                    suspects.add(hitId);
+                }
+                current.put(hash);
+                inFlight.add(hitId);
+            }
+        }
+        if (!batchIds.isEmpty()) {
+            release(batchIds);
+        }
+        if (!suspects.isEmpty()) {
+            lookupCounter.increment(suspects.size());
+            batchIds.removeAll(hitIdRepository.findExisting(suspects));
+        }
+        List<EndpointHit> unique = new ArrayList<>(hits.size());
+        for (EndpointHit hit : hits) {
+            String hitId = hit.getHitId();
+            if (hitId == null || batchIds.remove(hitId)) {
+                unique.add(hit);
+            }
+        }
+        if (unique.size() < hits.size()) {
+            duplicateCounter.increment(hits.size() - unique.size());
+            log.debug("Отброшено повторных обращений: {}", hits.size() - unique.size());
+        }
+        return unique;
+    }
+
+    /**
+     * Starts a new window; ids of the window before the previous one are forgotten.
+     */
+    @Scheduled(initialDelayString = "${stats.dedup.window-ms:600000}", fixedRateString = "${stats.dedup.window-ms:600000}")
+    public synchronized void rotate() {
+        if (!enabled) {
+            return;
+        }
+        previous = current;
+        current = new BloomFilter(expectedHits, falsePositiveRate);
+        if (coldRotations > 0) {
+            coldRotations--;
+        }
+    }
+
+    /**
+     * Forgets the in-flight ids once the transaction completes: committed ones are found by the lookup,
+     * rolled back ones may be stored again.
+     */
+    private void release(Set<String> hitIds) {
+        Set<String> released = Set.copyOf(hitIds);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            inFlight.removeAll(released);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                inFlight.removeAll(released);
+            }
+        });
+    }
+
+    private static long hash(String hitId) {
+        return Hashing.hash64(hitId.getBytes(StandardCharsets.UTF_8));
+    }
+}
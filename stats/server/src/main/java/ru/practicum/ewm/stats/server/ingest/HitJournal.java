@@ -0,0 +1,447 @@
+package ru.practicum.ewm.stats.server.ingest;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.stats.dto.EndpointHitDto;
+import ru.practicum.ewm.stats.server.dictionary.HitDictionary;
+import ru.practicum.ewm.stats.server.error.BadRequestError;
+import ru.practicum.ewm.stats.server.error.ServiceUnavailableError;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.repository.JournalCheckpointRepository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of hits in memory-mapped segment files. A hit is acknowledged once its record is
+ * forced to disk; a background drainer loads the segments into the hits table and deletes fully drained ones.
+ * Segments left from a previous run are replayed on startup.
+ * <p>
+ * Record layout: {@code int length, int crc32, long epochSecond, int nano, (short length, utf-8 bytes) x 4}
+ * for app, uri, ip and the optional hit id, empty when absent, then {@code int count}; records written before
+ * the hit id have three strings, records written before the count have none. A zero length marks the end
+ * of the written part of a segment.
+ * Drain offsets are committed together with the hits, so a crash never loads a record twice.
+ */
+@Slf4j
+@Component
+public class HitJournal {
+    private static final String SEGMENT_PREFIX = "hits-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int HEADER_SIZE = 8;
+
+    private final HitWriter hitWriter;
+    private final HitDictionary hitDictionary;
+    private final JournalCheckpointRepository journalCheckpointRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean fsync;
+    private final long drainIntervalMs;
+    private final int drainBatchSize;
+    /**
+     * segments in append order, the last one is the active segment
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final Map<String, Integer> drainedOffsets = new ConcurrentHashMap<>();
+    private final Object syncLock = new Object();
+    private ScheduledExecutorService drainer;
+    private Segment active;
+
+    public HitJournal(HitWriter hitWriter,
+                      HitDictionary hitDictionary,
+                      JournalCheckpointRepository journalCheckpointRepository,
+                      TransactionTemplate transactionTemplate,
+                      MeterRegistry meterRegistry,
+                      @Value("${stats.journal.enabled:false}") boolean enabled,
+                      @Value("${stats.journal.dir:journal}") String directory,
+                      @Value("${stats.journal.segment-size:67108864}") int segmentSize,
+                      @Value("${stats.journal.fsync:true}") boolean fsync,
+                      @Value("${stats.journal.drain-interval-ms:500}") long drainIntervalMs,
+                      @Value("${stats.journal.drain-batch-size:5000}") int drainBatchSize) {
+        this.hitWriter = hitWriter;
+        this.hitDictionary = hitDictionary;
+        this.journalCheckpointRepository = journalCheckpointRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+        this.drainIntervalMs = drainIntervalMs;
+        this.drainBatchSize = drainBatchSize;
+
+        Gauge.builder("stats.journal.segments", segments, s -> {
+            synchronized (this) {
+                return s.size();
+            }
+        }).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(directory);
+        drainedOffsets.putAll(journalCheckpointRepository.findAll());
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                if (sequence(file.getFileName().toString()) < 0) {
+                    log.warn("Пропущен посторонний файл в каталоге журнала: {}", file);
+                    continue;
+                }
+                Segment segment = Segment.open(file, segmentSize);
+                segments.put(segment.sequence, segment);
+            }
+        }
+        if (!segments.isEmpty()) {
+            log.info("Найдено сегментов журнала для восстановления: {}", segments.size());
+        }
+        long next = nextSequence();
+        removeStaleCheckpoints();
+        active = Segment.create(directory, next, segmentSize);
+        segments.put(next, active);
+
+        drainer = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "hit-journal-drainer"));
+        drainer.scheduleWithFixedDelay(this::drainQuietly, 0, drainIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (drainer == null) {
+            return;
+        }
+        drainer.shutdown();
+        drainer.awaitTermination(1, TimeUnit.MINUTES);
+        synchronized (this) {
+            active.buffer.force();
+            active.sealed = true;
+        }
+        drainQuietly();
+    }
+
+    /**
+     * Appends the hit and returns once it is on disk. Concurrent appends share one force of the segment.
+     */
+    public void append(EndpointHitDto hit) {
+        byte[] record = encode(hit);
+        if (record.length + HEADER_SIZE * 2 > segmentSize) {
+            throw new BadRequestError("Hit is too large for the journal: " + record.length + " bytes.");
+        }
+        Segment segment;
+        int end;
+        synchronized (this) {
+            if (!active.hasRoom(record.length)) {
+                roll();
+            }
+            segment = active;
+            end = segment.write(record);
+        }
+        if (fsync) {
+            sync(segment, end);
+        }
+    }
+
+    private void sync(Segment segment, int end) {
+        if (segment.syncedPosition >= end) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (segment.syncedPosition >= end) {
+                return;
+            }
+            int position = segment.position;
+            segment.buffer.force();
+            segment.syncedPosition = position;
+        }
+    }
+
+    /**
+     * Continues after the last segment and the last checkpoint: a crash between deleting a drained segment
+     * and its checkpoint leaves the checkpoint behind, a new segment with the same name would skip its records.
+     */
+    private long nextSequence() {
+        long last = segments.isEmpty() ? 0 : segments.lastKey();
+        for (String name : drainedOffsets.keySet()) {
+            last = Math.max(last, sequence(name));
+        }
+        return last + 1;
+    }
+
+    private void removeStaleCheckpoints() {
+        for (String name : List.copyOf(drainedOffsets.keySet())) {
+            long sequence = sequence(name);
+            if (sequence < 0 || !segments.containsKey(sequence)) {
+                journalCheckpointRepository.delete(name);
+                drainedOffsets.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Returns the sequence number of a segment file name, or -1 for any other name.
+     */
+    static long sequence(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)
+                || name.length() <= SEGMENT_PREFIX.length() + SEGMENT_SUFFIX.length()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void roll() {
+        active.buffer.force();
+        active.syncedPosition = active.position;
+        active.sealed = true;
+        long next = active.sequence + 1;
+        try {
+            active = Segment.create(directory, next, segmentSize);
+        } catch (IOException e) {
+            throw new ServiceUnavailableError("Cannot create journal segment: " + e.getMessage());
+        }
+        segments.put(next, active);
+    }
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch (RuntimeException e) {
+            log.error("Не удалось выгрузить журнал обращений в БД", e);
+        }
+    }
+
+    private void drain() {
+        List<Segment> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(segments.values());
+        }
+        for (Segment segment : pending) {
+            boolean sealed = segment.sealed;
+            int limit = segment.position;
+            int offset = drainedOffsets.getOrDefault(segment.name, 0);
+            while (offset < limit) {
+                List<EndpointHitDto> batch = new ArrayList<>(drainBatchSize);
+                int next = segment.read(offset, limit, batch, drainBatchSize);
+                if (next == offset) {
+                    break;
+                }
+                int checkpoint = next;
+                List<EndpointHit> hits = toHits(batch);
+                transactionTemplate.executeWithoutResult(status -> {
+                    hitWriter.write(hits);
+                    journalCheckpointRepository.save(segment.name, checkpoint);
+                });
+                drainedOffsets.put(segment.name, checkpoint);
+                offset = next;
+            }
+            if (sealed && offset >= limit) {
+                delete(segment);
+            }
+        }
+    }
+
+    /**
+     * Records that cannot be encoded (e.g. a malformed ip) are skipped, they would block the segment forever.
+     */
+    private List<EndpointHit> toHits(List<EndpointHitDto> batch) {
+        List<EndpointHit> hits = new ArrayList<>(batch.size());
+        for (EndpointHitDto dto : batch) {
+            try {
+                hits.add(hitDictionary.encode(dto));
+            } catch (BadRequestError e) {
+                log.warn("Пропущена невалидная запись журнала: {}", e.getMessage());
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * The file goes first: a checkpoint without its file is removed on the next start, while a file without
+     * its checkpoint would be loaded again.
+     */
+    private void delete(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        synchronized (this) {
+            segments.remove(segment.sequence);
+        }
+        journalCheckpointRepository.delete(segment.name);
+        drainedOffsets.remove(segment.name);
+    }
+
+    static byte[] encode(EndpointHitDto hit) {
+        byte[] app = hit.getApp().getBytes(StandardCharsets.UTF_8);
+        byte[] uri = hit.getUri().getBytes(StandardCharsets.UTF_8);
+        byte[] ip = hit.getIp().getBytes(StandardCharsets.UTF_8);
+        byte[] hitId = hit.getHitId() == null ? new byte[0] : hit.getHitId().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(12 + 8 + app.length + uri.length + ip.length + hitId.length + 4);
+        buffer.putLong(hit.getHitTimestamp().toEpochSecond(ZoneOffset.UTC));
+        buffer.putInt(hit.getHitTimestamp().getNano());
+        putString(buffer, app);
+        putString(buffer, uri);
+        putString(buffer, ip);
+        putString(buffer, hitId);
+        buffer.putInt(hit.getCount() == null ? 1 : hit.getCount());
+        return buffer.array();
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    static EndpointHitDto decode(ByteBuffer record) {
+        EndpointHitDto hit = new EndpointHitDto();
+        long epochSecond = record.getLong();
+        int nano = record.getInt();
+        hit.setHitTimestamp(LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC));
+        hit.setApp(getString(record));
+        hit.setUri(getString(record));
+        hit.setIp(getString(record));
+        if (record.hasRemaining()) {
+            String hitId = getString(record);
+            hit.setHitId(hitId.isEmpty() ? null : hitId);
+        }
+        if (record.hasRemaining()) {
+            hit.setCount(record.getInt());
+        }
+        return hit;
+    }
+
+    private static String getString(ByteBuffer record) {
+        byte[] value = new byte[record.getShort() & 0xFFFF];
+        record.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static final class Segment {
+        private final long sequence;
+        private final String name;
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private volatile int position;
+        private volatile int syncedPosition;
+        private volatile boolean sealed;
+
+        private Segment(long sequence, Path file, MappedByteBuffer buffer, int position, boolean sealed) {
+            this.sequence = sequence;
+            this.name = file.getFileName().toString();
+            this.file = file;
+            this.buffer = buffer;
+            this.position = position;
+            this.sealed = sealed;
+        }
+
+        static Segment create(Path directory, long sequence, int size) throws IOException {
+            Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Segment(sequence, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), 0, false);
+            }
+        }
+
+        /**
+         * Opens a segment left by a previous run read-only; its valid part ends at the first torn record.
+         */
+        static Segment open(Path file, int size) throws IOException {
+            long sequence = sequence(file.getFileName().toString());
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        Math.min(channel.size(), size));
+                Segment segment = new Segment(sequence, file, buffer, 0, true);
+                segment.position = segment.read(0, buffer.capacity(), null, Integer.MAX_VALUE);
+                return segment;
+            }
+        }
+
+        boolean hasRoom(int recordLength) {
+            return position + HEADER_SIZE + recordLength + HEADER_SIZE <= buffer.capacity();
+        }
+
+        /**
+         * Writes the payload before the header, so a reader never sees a length without its record.
+         */
+        int write(byte[] record) {
+            int start = position;
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            ByteBuffer view = buffer.duplicate();
+            view.position(start + HEADER_SIZE);
+            view.put(record);
+            buffer.putInt(start + 4, (int) crc.getValue());
+            buffer.putInt(start, record.length);
+            position = start + HEADER_SIZE + record.length;
+            return position;
+        }
+
+        /**
+         * Decodes records from {@code offset} up to {@code limit} into {@code hits} (validation only when null)
+         * and returns the offset after the last complete record.
+         */
+        int read(int offset, int limit, List<EndpointHitDto> hits, int maxRecords) {
+            ByteBuffer view = buffer.duplicate();
+            int current = offset;
+            int count = 0;
+            CRC32 crc = new CRC32();
+            while (count < maxRecords && current + HEADER_SIZE <= limit) {
+                int length = view.getInt(current);
+                if (length <= 0 || current + HEADER_SIZE + length > limit) {
+                    break;
+                }
+                view.limit(current + HEADER_SIZE + length).position(current + HEADER_SIZE);
+                ByteBuffer record = view.slice();
+                view.limit(view.capacity());
+                crc.reset();
+                crc.update(record.duplicate());
+                if ((int) crc.getValue() != view.getInt(current + 4)) {
+                    log.warn("Повреждённая запись в сегменте {} на позиции {}", name, current);
+                    break;
+                }
+                if (hits != null) {
+                    hits.add(decode(record));
+                }
+                current += HEADER_SIZE + length;
+                count++;
+            }
+            return current;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package ru.practicum.ewm.stats.server.ingest;
+
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+
+import java.util.List;
+
+/**
+ * Derived structure maintained at ingest time. Called by {@link HitWriter} inside the transaction that stores
+ * the hits; listeners keeping state outside the database must not publish it before that transaction commits.
+ */
+public interface HitListener {
+    void onHits(List<EndpointHit> hits);
+}
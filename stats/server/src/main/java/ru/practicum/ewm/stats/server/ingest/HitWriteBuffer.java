@@ -0,0 +1,200 @@
+package ru.practicum.ewm.stats.server.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.stats.server.error.ServiceUnavailableError;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind buffer for single hits: {@link #offer} only enqueues a hit, a dedicated writer thread
+ * group-commits the queue every {@code flush-interval} or as soon as {@code batch-size} hits are collected.
+ * On shutdown the writer drains whatever is left in the queue before the data source is closed.
+ */
+@Slf4j
+@Component
+public class HitWriteBuffer {
+    private static final long MAX_RETRY_DELAY_MS = 5_000;
+
+    private final HitWriter hitWriter;
+    private final boolean enabled;
+    private final BlockingQueue<EndpointHit> queue;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final BackpressurePolicy backpressurePolicy;
+    private final long shutdownTimeoutMs;
+    private final Counter enqueuedCounter;
+    private final Counter droppedCounter;
+    private final Counter rejectedCounter;
+    private final Counter writtenCounter;
+    private final Timer flushTimer;
+    private volatile boolean running;
+    private Thread writer;
+
+    public HitWriteBuffer(HitWriter hitWriter,
+                          MeterRegistry meterRegistry,
+                          @Value("${stats.write-behind.enabled:false}") boolean enabled,
+                          @Value("${stats.write-behind.capacity:100000}") int capacity,
+                          @Value("${stats.write-behind.batch-size:1000}") int batchSize,
+                          @Value("${stats.write-behind.flush-interval-ms:200}") long flushIntervalMs,
+                          @Value("${stats.write-behind.backpressure:BLOCK}") BackpressurePolicy backpressurePolicy,
+                          @Value("${stats.write-behind.shutdown-timeout-ms:30000}") long shutdownTimeoutMs) {
+        this.hitWriter = hitWriter;
+        this.enabled = enabled;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.backpressurePolicy = backpressurePolicy;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+
+        Gauge.builder("stats.write_behind.queue.depth", queue, BlockingQueue::size)
+                .description("Hits waiting in the write-behind queue")
+                .register(meterRegistry);
+        Gauge.builder("stats.write_behind.queue.capacity", queue, q -> q.size() + q.remainingCapacity())
+                .register(meterRegistry);
+        enqueuedCounter = meterRegistry.counter("stats.write_behind.hits", "result", "enqueued");
+        droppedCounter = meterRegistry.counter("stats.write_behind.hits", "result", "dropped");
+        rejectedCounter = meterRegistry.counter("stats.write_behind.hits", "result", "rejected");
+        writtenCounter = meterRegistry.counter("stats.write_behind.hits", "result", "written");
+        flushTimer = meterRegistry.timer("stats.write_behind.flush");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void offer(EndpointHit hit) {
+        boolean accepted;
+        switch (backpressurePolicy) {
+            case DROP:
+                accepted = queue.offer(hit);
+                if (!accepted) {
+                    droppedCounter.increment();
+                    return;
+                }
+                break;
+            case REJECT:
+                accepted = queue.offer(hit);
+                if (!accepted) {
+                    rejectedCounter.increment();
+                    throw new ServiceUnavailableError("Hit queue is full, retry later.");
+                }
+                break;
+            default:
+                try {
+                    queue.put(hit);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ServiceUnavailableError("Interrupted while waiting for the hit queue.");
+                }
+        }
+        enqueuedCounter.increment();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::runWriter, "hit-write-behind");
+        writer.start();
+        log.info("Write-behind включен: batchSize={}, flushIntervalMs={}, backpressure={}",
+                batchSize, flushIntervalMs, backpressurePolicy);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        writer.join(shutdownTimeoutMs);
+        if (writer.isAlive()) {
+            log.error("Write-behind не успел записать очередь за {} мс, осталось обращений: {}",
+                    shutdownTimeoutMs, queue.size());
+            writer.interrupt();
+        }
+    }
+
+    private void runWriter() {
+        List<EndpointHit> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Waits for the first hit, then keeps collecting until the batch is full or the flush interval elapses.
+     */
+    private void collect(List<EndpointHit> batch) throws InterruptedException {
+        EndpointHit first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        while (batch.size() < batchSize && running) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            EndpointHit next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+        queue.drainTo(batch, batchSize - batch.size());
+    }
+
+    /**
+     * Commits the batch, retrying with backoff while the database is unavailable: the queue keeps
+     * absorbing hits meanwhile and the backpressure policy applies once it is full.
+     */
+    private void flush(List<EndpointHit> batch) {
+        long delay = 100;
+        while (true) {
+            try {
+                flushTimer.record(() -> hitWriter.write(batch));
+                writtenCounter.increment(batch.size());
+                return;
+            } catch (RuntimeException e) {
+                log.error("Не удалось записать пакет из {} обращений, повтор через {} мс", batch.size(), delay, e);
+                if (!running && delay >= MAX_RETRY_DELAY_MS) {
+                    log.error("Остановка сервера: пакет из {} обращений потерян", batch.size());
+                    return;
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                delay = Math.min(delay * 2, MAX_RETRY_DELAY_MS);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package ru.practicum.ewm.stats.server.ingest;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.repository.EndpointHitJdbcRepository;
+
+import java.util.List;
+
+/**
+ * Single write path for encoded hits: every ingest mode ends here, so the derived structures
+ * registered as {@link HitListener} beans see each stored hit exactly once.
+ */
+@Component
+@RequiredArgsConstructor
+public class HitWriter {
+    private final EndpointHitJdbcRepository endpointHitJdbcRepository;
+    private final HitDeduplicator hitDeduplicator;
+    private final List<HitListener> hitListeners;
+
+    @Transactional
+    public void write(List<EndpointHit> hits) {
+        List<EndpointHit> unique = hitDeduplicator.filter(hits);
+        if (unique.isEmpty()) {
+            return;
+        }
+        endpointHitJdbcRepository.saveAll(unique);
+        notifyListeners(unique);
+    }
+
+    /**
+     * For hits already stored by other means, e.g. through COPY.
+     */
+    @Transactional
+    public void notifyListeners(List<EndpointHit> hits) {
+        for (HitListener listener : hitListeners) {
+            listener.onHits(hits);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ru.practicum.ewm.stats.server.live;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.ewm.stats.server.ingest.HitListener;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.model.StatsKey;
+import ru.practicum.ewm.stats.server.model.ViewStatsProjection;
+import ru.practicum.ewm.stats.server.model.ViewStatsRow;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hits of every app and uri over the last {@code stats.live.span-minutes}, kept in memory in rings of
+ * {@code stats.live.slot-seconds} slots and never read from the database. Counts start with this instance:
+ * hits stored before it started or by other instances are not included. A window is counted in whole slots,
+ * the current partial one included, so it may begin up to one slot later than requested. Hits stamped
+ * in the future count in the current slot.
+ */
+@Slf4j
+@Service
+public class LiveCounterService implements HitListener {
+    private final boolean enabled;
+    private final int slotSeconds;
+    private final int slots;
+    private final int stripes;
+    private final Map<StatsKey, SlidingWindowCounter> counters = new ConcurrentHashMap<>();
+
+    public LiveCounterService(@Value("${stats.live.enabled:true}") boolean enabled,
+                              @Value("${stats.live.slot-seconds:30}") int slotSeconds,
+                              @Value("${stats.live.span-minutes:60}") int spanMinutes,
+                              @Value("${stats.live.stripes:2}") int stripes) {
+        this.enabled = enabled;
+        this.slotSeconds = slotSeconds;
+        this.slots = spanMinutes * 60 / slotSeconds + 1;
+        this.stripes = stripes;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getSpanMinutes() {
+        return (slots - 1) * slotSeconds / 60;
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(hits);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                apply(hits);
+            }
+        });
+    }
+
+    /**
+     * Hits in the last {@code minutes}; {@code null} uris mean all of them.
+     */
+    public List<ViewStatsProjection> getLiveStats(int minutes, Collection<Integer> uriIds) {
+        long last = slot(LocalDateTime.now());
+        int count = Math.min(slots, minutes * 60 / slotSeconds);
+        List<ViewStatsProjection> stats = new ArrayList<>();
+        counters.forEach((key, counter) -> {
+            if (uriIds == null || uriIds.contains(key.getUriId())) {
+                long hits = counter.sum(last, count);
+                if (hits > 0) {
+                    stats.add(new ViewStatsRow(key.getAppId(), key.getUriId(), hits));
+                }
+            }
+        });
+        stats.sort(Comparator.comparing(ViewStatsProjection::getHits).reversed());
+        return stats;
+    }
+
+    /**
+     * Drops the counters without hits in the whole span. A hit racing with the removal of its counter is lost.
+     */
+    @Scheduled(fixedDelayString = "${stats.live.cleanup-interval-ms:60000}")
+    public void cleanup() {
+        long last = slot(LocalDateTime.now());
+        int before = counters.size();
+        counters.values().removeIf(counter -> counter.isIdle(last));
+        log.debug("Удалено неактивных живых счетчиков: {}", before - counters.size());
+    }
+
+    private void apply(List<EndpointHit> hits) {
+        long now = slot(LocalDateTime.now());
+        long oldest = now - slots + 1;
+        for (EndpointHit hit : hits) {
+            long slot = Math.min(now, slot(hit.getHitTimestamp()));
+            if (slot >= oldest) {
+                counters.computeIfAbsent(new StatsKey(hit.getAppId(), hit.getUriId()),
+                        key -> new SlidingWindowCounter(slots, stripes)).add(slot, hit.getHitCount());
+            }
+        }
+    }
+
+    private long slot(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) / slotSeconds;
+    }
+}
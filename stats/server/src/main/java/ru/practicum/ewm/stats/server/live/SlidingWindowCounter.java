@@ -0,0 +1,63 @@
+package ru.practicum.ewm.stats.server.live;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free hit counter over a ring of time slots, striped to keep concurrent writers off each other's
+ * cache lines. Every cell packs the slot number it belongs to with its count, so a writer that lands in a slot
+ * still holding an older one resets it with the same compare-and-set that adds the hits, and readers ignore
+ * cells of slots outside the window.
+ */
+class SlidingWindowCounter {
+    private static final int TAG_BITS = 24;
+    private static final long TAG_MASK = (1L << TAG_BITS) - 1;
+    private static final int STRIPE_PADDING = 8;
+
+    private final int slots;
+    private final int stripes;
+    private final int stride;
+    private final AtomicLongArray cells;
+
+    SlidingWindowCounter(int slots, int stripes) {
+        this.slots = slots;
+        this.stripes = stripes;
+        this.stride = slots + STRIPE_PADDING;
+        this.cells = new AtomicLongArray(stripes * stride);
+    }
+
+    void add(long slot, long hits) {
+        int index = (int) (Thread.currentThread().getId() % stripes) * stride + (int) (slot % slots);
+        long tag = slot & TAG_MASK;
+        long cell;
+        long updated;
+        do {
+            cell = cells.get(index);
+            updated = (cell & TAG_MASK) == tag ? cell + (hits << TAG_BITS) : hits << TAG_BITS | tag;
+        } while (!cells.compareAndSet(index, cell, updated));
+    }
+
+    /**
+     * Hits of the slots {@code (last - count, last]}; {@code count} must not exceed the ring size.
+     */
+    long sum(long last, int count) {
+        long sum = 0;
+        for (long slot = last - count + 1; slot <= last; slot++) {
+            long tag = slot & TAG_MASK;
+            int offset = (int) (slot % slots);
+            for (int stripe = 0; stripe < stripes; stripe++) {
+                long cell = cells.get(stripe * stride + offset);
+                if ((cell & TAG_MASK) == tag) {
+                    sum += cell >>> TAG_BITS;
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Whether no slot of the ring ending at {@code last} holds hits.
+     */
+    boolean isIdle(long last) {
+        return sum(last, slots) == 0;
+    }
+}
@@ -0,0 +1,60 @@
+package ru.practicum.ewm.stats.server.mapper;
+
+import ru.practicum.ewm.stats.server.error.BadRequestError;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Converts textual IP addresses to network byte order: 4 bytes for IPv4, 16 bytes for IPv6.
+ * IPv4-mapped IPv6 addresses are stored as IPv4, so both spellings of a visitor count as one.
+ */
+public final class IpAddressMapper {
+    private IpAddressMapper() {
+    }
+
+    public static byte[] toBytes(String ip) {
+        if (ip == null || ip.isBlank()) {
+            throw new BadRequestError("IP address is not present.");
+        }
+        if (ip.indexOf(':') < 0) {
+            return parseIpv4(ip);
+        }
+        try {
+            return InetAddress.getByName(ip).getAddress();
+        } catch (UnknownHostException e) {
+            throw new BadRequestError("Invalid IP address: " + ip);
+        }
+    }
+
+    /**
+     * Parses dotted IPv4 by hand: {@link InetAddress#getByName} would resolve anything else as a host name.
+     */
+    private static byte[] parseIpv4(String ip) {
+        byte[] address = new byte[4];
+        int octet = 0;
+        int value = -1;
+        for (int i = 0; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if (c == '.') {
+                if (value < 0 || octet == 3) {
+                    throw new BadRequestError("Invalid IP address: " + ip);
+                }
+                address[octet++] = (byte) value;
+                value = -1;
+            } else if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    throw new BadRequestError("Invalid IP address: " + ip);
+                }
+            } else {
+                throw new BadRequestError("Invalid IP address: " + ip);
+            }
+        }
+        if (value < 0 || octet != 3) {
+            throw new BadRequestError("Invalid IP address: " + ip);
+        }
+        address[3] = (byte) value;
+        return address;
+    }
+}
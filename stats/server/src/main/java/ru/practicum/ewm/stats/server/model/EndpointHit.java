@@ -16,15 +16,36 @@ public class EndpointHit {
     @Column(name = "hits_id")
     private Long id;
 
-    @Column(name = "hits_app")
-    private String app;
+    /**
+     * id from the apps dictionary
+     */
+    @Column(name = "hits_app_id")
+    private Integer appId;
 
-    @Column(name = "hits_uri")
-    private String uri;
+    /**
+     * id from the uris dictionary
+     */
+    @Column(name = "hits_uri_id")
+    private Integer uriId;
 
+    /**
+     * address in network byte order, 4 bytes for IPv4 and 16 bytes for IPv6
+     */
     @Column(name = "hits_ip")
-    private String ip;
+    private byte[] ip;
 
     @Column(name = "hits_timestamp")
     private LocalDateTime hitTimestamp;
+
+    /**
+     * number of identical views the row stands for
+     */
+    @Column(name = "hits_count")
+    private Integer hitCount = 1;
+
+    /**
+     * optional client-supplied id for deduplication
+     */
+    @Column(name = "hits_hit_id")
+    private String hitId;
 }
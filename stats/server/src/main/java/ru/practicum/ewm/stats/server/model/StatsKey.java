@@ -0,0 +1,12 @@
+package ru.practicum.ewm.stats.server.model;
+
+import lombok.Value;
+
+/**
+ * Grouping key of stats results: dictionary ids of app and uri.
+ */
+@Value
+public class StatsKey {
+    int appId;
+    int uriId;
+}
@@ -0,0 +1,13 @@
+package ru.practicum.ewm.stats.server.model;
+
+import java.sql.Timestamp;
+
+public interface TimeSeriesProjection {
+    Integer getUriId();
+
+    Timestamp getBucketStart();
+
+    Long getHits();
+
+    Long getUniqueHits();
+}
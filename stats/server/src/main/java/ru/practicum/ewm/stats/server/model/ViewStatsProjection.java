@@ -1,9 +1,9 @@
 package ru.practicum.ewm.stats.server.model;
 
 public interface ViewStatsProjection {
-    String getApp();
+    Integer getAppId();
 
-    String getUri();
+    Integer getUriId();
 
     Long getHits();
 }
@@ -0,0 +1,13 @@
+package ru.practicum.ewm.stats.server.model;
+
+import lombok.Value;
+
+/**
+ * Stats row computed outside of JPA, e.g. from rollups.
+ */
+@Value
+public class ViewStatsRow implements ViewStatsProjection {
+    Integer appId;
+    Integer uriId;
+    Long hits;
+}
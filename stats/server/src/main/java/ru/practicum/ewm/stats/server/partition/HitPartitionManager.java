@@ -0,0 +1,121 @@
+package ru.practicum.ewm.stats.server.partition;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.stats.server.repository.HitPartitionRepository;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps the hits table range-partitioned by {@code hits_timestamp}: creates partitions ahead of time,
+ * splits backfilled rows out of the default partition and applies retention by dropping whole partitions.
+ * Stats queries filter on {@code hits_timestamp}, so PostgreSQL prunes partitions outside the requested range.
+ */
+@Slf4j
+@Component
+public class HitPartitionManager {
+    private static final String PARTITION_PREFIX = "hits_p";
+
+    private final HitPartitionRepository hitPartitionRepository;
+    private final ObjectProvider<RetentionListener> retentionListeners;
+    private final PartitionGrain grain;
+    private final int ahead;
+    private final int retentionDays;
+
+    public HitPartitionManager(HitPartitionRepository hitPartitionRepository,
+                               ObjectProvider<RetentionListener> retentionListeners,
+                               @Value("${stats.partitions.grain:DAY}") PartitionGrain grain,
+                               @Value("${stats.partitions.ahead:7}") int ahead,
+                               @Value("${stats.partitions.retention-days:0}") int retentionDays) {
+        this.hitPartitionRepository = hitPartitionRepository;
+        this.retentionListeners = retentionListeners;
+        this.grain = grain;
+        this.ahead = ahead;
+        this.retentionDays = retentionDays;
+    }
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${stats.partitions.maintenance-interval-ms:3600000}")
+    public void maintain() {
+        try {
+            Set<LocalDate> existing = existingPartitions();
+            createMissing(existing);
+            applyRetention(existing);
+        } catch (RuntimeException e) {
+            log.error("Ошибка обслуживания партиций таблицы hits", e);
+        }
+    }
+
+    /**
+     * Removes the raw hits of {@code [from, to)}: drops the partition if it covers exactly that range,
+     * otherwise deletes the rows. Joins the caller's transaction.
+     */
+    public void purge(LocalDate from, LocalDate to) {
+        if (grain.truncate(from).equals(from) && grain.next(from).equals(to) && existingPartitions().contains(from)) {
+            hitPartitionRepository.dropPartition(PARTITION_PREFIX + grain.suffix(from));
+        } else {
+            hitPartitionRepository.deleteRows(from, to);
+        }
+    }
+
+    private void createMissing(Set<LocalDate> existing) {
+        Set<LocalDate> wanted = new TreeSet<>();
+        LocalDate start = grain.truncate(LocalDate.now());
+        for (int i = 0; i <= ahead; i++) {
+            wanted.add(start);
+            start = grain.next(start);
+        }
+        for (LocalDate day : hitPartitionRepository.findDefaultPartitionDays()) {
+            wanted.add(grain.truncate(day));
+        }
+        for (LocalDate from : wanted) {
+            if (existing.add(from)) {
+                String name = PARTITION_PREFIX + grain.suffix(from);
+                hitPartitionRepository.createPartition(name, from, grain.next(from));
+                log.info("Создана партиция {}", name);
+            }
+        }
+    }
+
+    /**
+     * Drops partitions that end before the retention cutoff; a partition is never dropped partially.
+     * The derived structures are then pruned up to the start of the partition holding the cutoff. They are
+     * looked up lazily, as the compaction and the archive both purge through this manager.
+     */
+    private void applyRetention(Set<LocalDate> existing) {
+        if (retentionDays <= 0) {
+            return;
+        }
+        LocalDate cutoff = LocalDate.now().minusDays(retentionDays);
+        for (LocalDate from : List.copyOf(existing)) {
+            if (!grain.next(from).isAfter(cutoff)) {
+                String name = PARTITION_PREFIX + grain.suffix(from);
+                hitPartitionRepository.dropPartition(name);
+                existing.remove(from);
+                log.info("Удалена партиция {} по сроку хранения", name);
+            }
+        }
+        LocalDateTime prunedBefore = grain.truncate(cutoff).atStartOfDay();
+        retentionListeners.orderedStream().forEach(listener -> listener.onRetention(prunedBefore));
+    }
+
+    private Set<LocalDate> existingPartitions() {
+        Set<LocalDate> existing = new HashSet<>();
+        for (String name : hitPartitionRepository.findPartitionNames()) {
+            if (name.startsWith(PARTITION_PREFIX)) {
+                LocalDate from = grain.parse(name.substring(PARTITION_PREFIX.length()));
+                if (from != null) {
+                    existing.add(from);
+                }
+            }
+        }
+        return existing;
+    }
+}
@@ -0,0 +1,40 @@
+package ru.practicum.ewm.stats.server.partition;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+public enum PartitionGrain {
+    DAY("yyyyMMdd"),
+    MONTH("yyyyMM");
+
+    private final DateTimeFormatter suffixFormat;
+
+    PartitionGrain(String suffixPattern) {
+        this.suffixFormat = DateTimeFormatter.ofPattern(suffixPattern);
+    }
+
+    public LocalDate truncate(LocalDate date) {
+        return this == DAY ? date : date.withDayOfMonth(1);
+    }
+
+    public LocalDate next(LocalDate start) {
+        return this == DAY ? start.plusDays(1) : start.plusMonths(1);
+    }
+
+    public String suffix(LocalDate start) {
+        return start.format(suffixFormat);
+    }
+
+    /**
+     * Parses the start of the range back from a partition suffix, returns null for foreign names.
+     */
+    public LocalDate parse(String suffix) {
+        if (this == DAY && suffix.length() == 8) {
+            return LocalDate.parse(suffix, suffixFormat);
+        }
+        if (this == MONTH && suffix.length() == 6) {
+            return LocalDate.parse(suffix + "01", DAY.suffixFormat);
+        }
+        return null;
+    }
+}
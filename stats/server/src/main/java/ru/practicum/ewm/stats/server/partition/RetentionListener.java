@@ -0,0 +1,11 @@
+package ru.practicum.ewm.stats.server.partition;
+
+import java.time.LocalDateTime;
+
+/**
+ * Derived structure pruned together with the raw hits. Called by {@link HitPartitionManager} on every
+ * maintenance run with retention enabled, once the partitions before {@code cutoff} are dropped.
+ */
+public interface RetentionListener {
+    void onRetention(LocalDateTime cutoff);
+}
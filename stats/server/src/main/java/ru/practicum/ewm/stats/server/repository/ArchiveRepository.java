@@ -0,0 +1,38 @@
+package ru.practicum.ewm.stats.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Catalog of the archived days and their segment files. Updated in the same transaction that purges
+ * the archived hits, so a day is read either from the hits table or from its segment, never from both.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ArchiveRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public Map<LocalDate, String> findAll() {
+        Map<LocalDate, String> segments = new TreeMap<>();
+        jdbcTemplate.query("select segment_day, segment_file from hits_archive_segments", rs -> {
+            segments.put(rs.getDate("segment_day").toLocalDate(), rs.getString("segment_file"));
+        });
+        return segments;
+    }
+
+    public void deleteBefore(LocalDate day) {
+        jdbcTemplate.update("delete from hits_archive_segments where segment_day < ?", Date.valueOf(day));
+    }
+
+    public void save(LocalDate day, String file, long rows) {
+        jdbcTemplate.update("insert into hits_archive_segments (segment_day, segment_file, segment_rows) " +
+                "values (?, ?, ?) on conflict (segment_day) do update set segment_file = excluded.segment_file, " +
+                "segment_rows = excluded.segment_rows", Date.valueOf(day), file, rows);
+    }
+}
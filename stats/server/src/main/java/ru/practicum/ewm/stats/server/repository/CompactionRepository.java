@@ -0,0 +1,185 @@
+package ru.practicum.ewm.stats.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.ewm.stats.server.compaction.CompactedHour;
+import ru.practicum.ewm.stats.server.sketch.Bitmaps;
+import ru.practicum.ewm.stats.server.sketch.SketchKey;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Compacted history: hits that were purged from the hits table, kept as a row per app, uri and hour with the hit
+ * count and a roaring bitmap of visitor ids of the hour, and the same per second of the hour in arrays.
+ */
+@Repository
+@RequiredArgsConstructor
+public class CompactionRepository {
+    private static final int FETCH_SIZE = 10_000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public Optional<LocalDateTime> findOldestHitBefore(LocalDateTime cutoff) {
+        Timestamp oldest = jdbcTemplate.queryForObject("select min(hits_timestamp) from hits " +
+                "where hits_timestamp < :cutoff", new MapSqlParameterSource("cutoff", Timestamp.valueOf(cutoff)),
+                Timestamp.class);
+        return Optional.ofNullable(oldest).map(Timestamp::toLocalDateTime);
+    }
+
+    /**
+     * Gives every IP of the range a visitor id, so that its hits can be folded into bitmaps.
+     */
+    public void createVisitors(LocalDateTime from, LocalDateTime to) {
+        jdbcTemplate.update("insert into visitors (visitor_ip) select distinct hits_ip from hits " +
+                "where hits_timestamp >= :from and hits_timestamp < :to order by hits_ip " +
+                "on conflict (visitor_ip) do nothing", range(from, to));
+    }
+
+    /**
+     * Streams hits of the range per app, uri, second and visitor, ordered so that each second of an app and uri
+     * arrives as one run. Must run in a transaction for the fetch size to take effect.
+     */
+    public void forEachSecondVisitor(LocalDateTime from, LocalDateTime to, SecondVisitorCallback callback) {
+        MapSqlParameterSource params = range(from, to);
+        String sql = "select h.hits_app_id, h.hits_uri_id, date_trunc('second', h.hits_timestamp) as bucket_start, " +
+                "v.visitor_id, sum(h.hits_count) as hits from hits h join visitors v on v.visitor_ip = h.hits_ip " +
+                "where h.hits_timestamp >= :from and h.hits_timestamp < :to " +
+                "group by h.hits_app_id, h.hits_uri_id, bucket_start, v.visitor_id " +
+                "order by h.hits_app_id, h.hits_uri_id, bucket_start";
+        jdbcTemplate.getJdbcOperations().query(connection -> {
+            PreparedStatement ps = jdbcTemplate.getPreparedStatementCreator(sql, params)
+                    .createPreparedStatement(connection);
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            callback.accept(new SketchKey(rs.getInt("hits_app_id"), rs.getInt("hits_uri_id"),
+                    rs.getTimestamp("bucket_start").toLocalDateTime()), rs.getInt("visitor_id"), rs.getLong("hits"));
+        });
+    }
+
+    /**
+     * @return {@code false} if the hour was compacted before, e.g. for a late backfill, and has to be merged
+     */
+    public boolean insertIfAbsent(CompactedHour hour) {
+        return jdbcTemplate.update("insert into hits_compacted (app_id, uri_id, bucket_start, hits_count, sketch, " +
+                "second_offsets, second_hits, second_visitors) values (:appId, :uriId, :bucketStart, :hits, :sketch, " +
+                ":secondOffsets, :secondHits, :secondVisitors) on conflict do nothing", params(hour)) == 1;
+    }
+
+    public CompactedHour findForUpdate(SketchKey key) {
+        List<CompactedHour> hours = jdbcTemplate.query("select app_id, uri_id, bucket_start, hits_count, sketch, " +
+                "second_offsets, second_hits, second_visitors from hits_compacted where app_id = :appId " +
+                "and uri_id = :uriId and bucket_start = :bucketStart for update", params(key),
+                (rs, rowNum) -> mapHour(rs));
+        return hours.get(0);
+    }
+
+    public void update(CompactedHour hour) {
+        jdbcTemplate.update("update hits_compacted set hits_count = :hits, sketch = :sketch, " +
+                "second_offsets = :secondOffsets, second_hits = :secondHits, second_visitors = :secondVisitors " +
+                "where app_id = :appId and uri_id = :uriId and bucket_start = :bucketStart", params(hour));
+    }
+
+    /**
+     * Streams the compacted history of {@code [from, to)}: each hour lying in the range as one bucket
+     * if {@code wholeHours}, the seconds of the others. The seconds of whole hours are not read.
+     */
+    public void forEachSecond(LocalDateTime from, LocalDateTime to, Collection<Integer> uriIds, boolean wholeHours,
+                              CompactedSecondCallback callback) {
+        MapSqlParameterSource params = range(from, to)
+                .addValue("fromHour", Timestamp.valueOf(from.truncatedTo(ChronoUnit.HOURS)))
+                .addValue("uriIds", uriIds == null ? null : uriIds.toArray(new Integer[0]));
+        String seconds = wholeHours
+                ? "case when sketch is not null and bucket_start >= :from and " +
+                "bucket_start + interval '1 hour' <= :to then null else %1$s end as %1$s"
+                : "%1$s";
+        String sql = "select app_id, uri_id, bucket_start, hits_count, sketch, " +
+                String.format(seconds, "second_offsets") + ", " + String.format(seconds, "second_hits") + ", " +
+                String.format(seconds, "second_visitors") + " from hits_compacted " +
+                "where bucket_start >= :fromHour and bucket_start < :to" +
+                (uriIds == null ? "" : " and uri_id = any(:uriIds)");
+        jdbcTemplate.query(sql, params, rs -> {
+            mapHour(rs).forEach(from, to, wholeHours, callback);
+        });
+    }
+
+    /**
+     * Deletes the compacted hours starting before {@code cutoff}.
+     */
+    public int deleteBefore(LocalDateTime cutoff) {
+        return jdbcTemplate.update("delete from hits_compacted where bucket_start < :cutoff",
+                new MapSqlParameterSource("cutoff", Timestamp.valueOf(cutoff)));
+    }
+
+    /**
+     * Query of the compacted hits in {@code [:from, :to)} with the columns {@code app_id}, {@code uri_id} and
+     * {@code hits}: a row per hour lying in the range, and per second of the hours it covers in part.
+     * The names of the timestamp parameters are given without the colon.
+     */
+    public static String hitsQuery(String from, String to, String uriFilter) {
+        return "select app_id, uri_id, hits_count as hits from hits_compacted " +
+                "where bucket_start >= :" + from + " and bucket_start + interval '1 hour' <= :" + to + uriFilter +
+                " union all select app_id, uri_id, s.hits from hits_compacted, " +
+                "unnest(second_offsets, second_hits) as s(second_offset, hits) " +
+                "where bucket_start > cast(:" + from + " as timestamp) - interval '1 hour' and bucket_start < :" + to +
+                " and (bucket_start < :" + from + " or bucket_start + interval '1 hour' > :" + to + ")" +
+                " and bucket_start + s.second_offset * interval '1 second' >= :" + from +
+                " and bucket_start + s.second_offset * interval '1 second' < :" + to + uriFilter;
+    }
+
+    private static MapSqlParameterSource range(LocalDateTime from, LocalDateTime to) {
+        return new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+    }
+
+    private static CompactedHour mapHour(ResultSet rs) throws SQLException {
+        Array offsets = rs.getArray("second_offsets");
+        Array secondHits = rs.getArray("second_hits");
+        Array secondVisitors = rs.getArray("second_visitors");
+        return CompactedHour.of(new SketchKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                        rs.getTimestamp("bucket_start").toLocalDateTime()), rs.getLong("hits_count"),
+                rs.getBytes("sketch"),
+                offsets == null ? null : (Integer[]) offsets.getArray(),
+                secondHits == null ? null : (Long[]) secondHits.getArray(),
+                secondVisitors == null ? null : (byte[][]) secondVisitors.getArray());
+    }
+
+    private static MapSqlParameterSource params(CompactedHour hour) {
+        return params(hour.getKey())
+                .addValue("hits", hour.getHits())
+                .addValue("sketch", Bitmaps.toBytes(hour.getVisitors()))
+                .addValue("secondOffsets", hour.getSecondOffsets())
+                .addValue("secondHits", hour.getSecondHits())
+                .addValue("secondVisitors", hour.getSecondVisitors());
+    }
+
+    private static MapSqlParameterSource params(SketchKey key) {
+        return new MapSqlParameterSource()
+                .addValue("appId", key.getAppId())
+                .addValue("uriId", key.getUriId())
+                .addValue("bucketStart", Timestamp.valueOf(key.getBucketStart()));
+    }
+
+    @FunctionalInterface
+    public interface SecondVisitorCallback {
+        void accept(SketchKey second, int visitorId, long hits);
+    }
+
+    @FunctionalInterface
+    public interface CompactedSecondCallback {
+        void accept(SketchKey bucket, long hits, RoaringBitmap visitors);
+    }
+}
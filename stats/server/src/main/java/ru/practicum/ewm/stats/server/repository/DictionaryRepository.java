@@ -0,0 +1,70 @@
+package ru.practicum.ewm.stats.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Dictionary tables for the repeated strings of the hits table: apps and uris.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DictionaryRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Returns the id of the app, inserting it first if it is new. Safe under concurrent inserts of the same name.
+     */
+    public int getOrCreateApp(String name) {
+        return getOrCreate("apps", "app_id", "app_name", name);
+    }
+
+    public int getOrCreateUri(String path) {
+        return getOrCreate("uris", "uri_id", "uri_path", path);
+    }
+
+    public Optional<Integer> findUriId(String path) {
+        return find("select uri_id from uris where uri_path = ?", Integer.class, path);
+    }
+
+    /**
+     * Ids of the known paths among {@code paths}, looked up by one statement with the paths as an array parameter.
+     */
+    public Map<String, Integer> findUriIds(Collection<String> paths) {
+        Map<String, Integer> ids = new HashMap<>();
+        jdbcTemplate.query("select uri_id, uri_path from uris where uri_path = any(?)",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", paths.toArray())),
+                rs -> {
+                    ids.put(rs.getString("uri_path"), rs.getInt("uri_id"));
+                });
+        return ids;
+    }
+
+    public Optional<String> findAppName(int id) {
+        return find("select app_name from apps where app_id = ?", String.class, id);
+    }
+
+    public Optional<String> findUriPath(int id) {
+        return find("select uri_path from uris where uri_id = ?", String.class, id);
+    }
+
+    private int getOrCreate(String table, String idColumn, String nameColumn, String name) {
+        List<Integer> ids = jdbcTemplate.queryForList("insert into " + table + " (" + nameColumn + ") values (?) " +
+                "on conflict (" + nameColumn + ") do nothing returning " + idColumn, Integer.class, name);
+        if (!ids.isEmpty()) {
+            return ids.get(0);
+        }
+        return jdbcTemplate.queryForObject("select " + idColumn + " from " + table + " where " + nameColumn + " = ?",
+                Integer.class, name);
+    }
+
+    private <T> Optional<T> find(String sql, Class<T> type, Object arg) {
+        return jdbcTemplate.queryForList(sql, type, arg).stream().findFirst();
+    }
+}
@@ -0,0 +1,213 @@
+package ru.practicum.ewm.stats.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.model.ViewStatsProjection;
+import ru.practicum.ewm.stats.server.model.ViewStatsRow;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * JDBC access to the hits table for the write paths where Hibernate cannot batch inserts:
+ * the identity key of {@link EndpointHit} forces one INSERT per persisted entity.
+ */
+@Repository
+@RequiredArgsConstructor
+public class EndpointHitJdbcRepository {
+    private static final String INSERT_HIT = "insert into hits (hits_app_id, hits_uri_id, hits_ip, hits_timestamp, " +
+            "hits_count, hits_hit_id) values (?, ?, ?, ?, ?, ?)";
+    private static final int FETCH_SIZE = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    @Value("${stats.hits.batch-size:1000}")
+    private int batchSize;
+
+    @Transactional
+    public void saveAll(List<EndpointHit> hits) {
+        jdbcTemplate.batchUpdate(INSERT_HIT, hits, batchSize, (ps, hit) -> {
+            ps.setInt(1, hit.getAppId());
+            ps.setInt(2, hit.getUriId());
+            ps.setBytes(3, hit.getIp());
+            ps.setTimestamp(4, Timestamp.valueOf(hit.getHitTimestamp()));
+            ps.setInt(5, hit.getHitCount());
+            ps.setString(6, hit.getHitId());
+        });
+    }
+
+    /**
+     * Streams the distinct visitors of every app and uri in {@code [from, to)}.
+     */
+    public void forEachVisitor(LocalDateTime from, LocalDateTime to, Collection<Integer> uriIds,
+                               VisitorCallback callback) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to))
+                .addValue("uriIds", toArray(uriIds));
+        String sql = "select distinct hits_app_id, hits_uri_id, hits_ip from hits " +
+                "where hits_timestamp >= :from and hits_timestamp < :to" +
+                (uriIds == null ? "" : " and hits_uri_id = any(:uriIds)");
+        namedJdbcTemplate.query(sql, params, rs -> {
+            callback.accept(rs.getInt("hits_app_id"), rs.getInt("hits_uri_id"), rs.getBytes("hits_ip"));
+        });
+    }
+
+    /**
+     * Streams the distinct visitor IPs of every uri and bucket of the grain ({@code minute}, {@code hour} or
+     * {@code day}) in {@code [from, to)}, over all apps.
+     */
+    public void forEachBucketVisitor(String grain, LocalDateTime from, LocalDateTime to, Collection<Integer> uriIds,
+                                     BucketVisitorCallback callback) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("grain", grain)
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to))
+                .addValue("uriIds", toArray(uriIds));
+        String sql = "select distinct hits_uri_id, date_trunc(:grain, hits_timestamp) as bucket_start, hits_ip " +
+                "from hits where hits_timestamp >= :from and hits_timestamp < :to and hits_uri_id = any(:uriIds)";
+        namedJdbcTemplate.query(sql, params, rs -> {
+            callback.accept(rs.getInt("hits_uri_id"), rs.getTimestamp("bucket_start").toLocalDateTime(),
+                    rs.getBytes("hits_ip"));
+        });
+    }
+
+    /**
+     * Streams the distinct visitor ids of every app and uri in {@code [from, to)}; hits whose IP has no visitor id
+     * were stored before the visitor bitmaps were enabled and are not returned.
+     */
+    public void forEachVisitorId(LocalDateTime from, LocalDateTime to, Collection<Integer> uriIds,
+                                 VisitorIdCallback callback) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to))
+                .addValue("uriIds", toArray(uriIds));
+        String sql = "select distinct h.hits_app_id, h.hits_uri_id, v.visitor_id from hits h " +
+                "join visitors v on v.visitor_ip = h.hits_ip " +
+                "where h.hits_timestamp >= :from and h.hits_timestamp < :to" +
+                (uriIds == null ? "" : " and h.hits_uri_id = any(:uriIds)");
+        namedJdbcTemplate.query(sql, params, rs -> {
+            callback.accept(rs.getInt("hits_app_id"), rs.getInt("hits_uri_id"), rs.getInt("visitor_id"));
+        });
+    }
+
+    /**
+     * Streams hit counts per app, uri and bucket of the grain ({@code minute}, {@code hour} or {@code day})
+     * over the whole table and the compacted history; a bucket may come twice.
+     * Must run in a transaction for the fetch size to take effect.
+     */
+    public void forEachBucketCount(String grain, BucketCountCallback callback) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("select hits_app_id, hits_uri_id, " +
+                    "date_trunc(?, hits_timestamp) as bucket_start, sum(hits_count) as hits from hits " +
+                    "group by hits_app_id, hits_uri_id, bucket_start " +
+                    "union all select app_id, uri_id, " +
+                    "date_trunc(?, bucket_start + s.second_offset * interval '1 second'), sum(s.hits) " +
+                    "from hits_compacted, unnest(second_offsets, second_hits) as s(second_offset, hits) " +
+                    "group by 1, 2, 3");
+            ps.setString(1, grain);
+            ps.setString(2, grain);
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            callback.accept(rs.getInt("hits_app_id"), rs.getInt("hits_uri_id"),
+                    rs.getTimestamp("bucket_start").toLocalDateTime(), rs.getLong("hits"));
+        });
+    }
+
+    /**
+     * Hit counts per app and uri in {@code [from, to)} from the raw and the compacted hits; {@code null} uri ids
+     * mean all uris.
+     */
+    public List<ViewStatsProjection> sumHits(LocalDateTime from, LocalDateTime to, Collection<Integer> uriIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to))
+                .addValue("uriIds", toArray(uriIds));
+        String sql = "select app_id, uri_id, sum(hits) as hits from (" +
+                "select hits_app_id as app_id, hits_uri_id as uri_id, hits_count as hits from hits " +
+                "where hits_timestamp >= :from and hits_timestamp < :to" +
+                (uriIds == null ? "" : " and hits_uri_id = any(:uriIds)") +
+                " union all " + CompactionRepository.hitsQuery("from", "to",
+                uriIds == null ? "" : " and uri_id = any(:uriIds)") +
+                ") h group by app_id, uri_id";
+        return namedJdbcTemplate.query(sql, params, (rs, rowNum) -> new ViewStatsRow(rs.getInt("app_id"),
+                rs.getInt("uri_id"), rs.getLong("hits")));
+    }
+
+    /**
+     * Streams every stored hit row in {@code [from, to)} with the number of views it stands for.
+     * Must run in a transaction for the fetch size to take effect.
+     */
+    public void forEachHit(LocalDateTime from, LocalDateTime to, HitCallback callback) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("select hits_app_id, hits_uri_id, hits_ip, " +
+                    "hits_timestamp, hits_count from hits where hits_timestamp >= ? and hits_timestamp < ?");
+            ps.setTimestamp(1, Timestamp.valueOf(from));
+            ps.setTimestamp(2, Timestamp.valueOf(to));
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            callback.accept(rs.getTimestamp("hits_timestamp").toLocalDateTime(), rs.getInt("hits_app_id"),
+                    rs.getInt("hits_uri_id"), rs.getBytes("hits_ip"), rs.getInt("hits_count"));
+        });
+    }
+
+    /**
+     * Distinct visitors per app and uri in {@code [from, to)} among the raw hits; {@code null} uri ids mean all uris.
+     */
+    public List<ViewStatsProjection> countVisitors(LocalDateTime from, LocalDateTime to, Collection<Integer> uriIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to))
+                .addValue("uriIds", toArray(uriIds));
+        String sql = "select hits_app_id, hits_uri_id, count(distinct hits_ip) as hits from hits " +
+                "where hits_timestamp >= :from and hits_timestamp < :to" +
+                (uriIds == null ? "" : " and hits_uri_id = any(:uriIds)") +
+                " group by hits_app_id, hits_uri_id";
+        return namedJdbcTemplate.query(sql, params, (rs, rowNum) -> new ViewStatsRow(rs.getInt("hits_app_id"),
+                rs.getInt("hits_uri_id"), rs.getLong("hits")));
+    }
+
+    /**
+     * Uri ids as one array parameter, so that statements do not grow with their number.
+     */
+    private static Integer[] toArray(Collection<Integer> uriIds) {
+        return uriIds == null ? null : uriIds.toArray(new Integer[0]);
+    }
+
+    @FunctionalInterface
+    public interface VisitorCallback {
+        void accept(int appId, int uriId, byte[] ip);
+    }
+
+    @FunctionalInterface
+    public interface VisitorIdCallback {
+        void accept(int appId, int uriId, int visitorId);
+    }
+
+    @FunctionalInterface
+    public interface BucketVisitorCallback {
+        void accept(int uriId, LocalDateTime bucketStart, byte[] ip);
+    }
+
+    @FunctionalInterface
+    public interface HitCallback {
+        void accept(LocalDateTime timestamp, int appId, int uriId, byte[] ip, int count);
+    }
+
+    @FunctionalInterface
+    public interface BucketCountCallback {
+        void accept(int appId, int uriId, LocalDateTime bucketStart, long hits);
+    }
+}
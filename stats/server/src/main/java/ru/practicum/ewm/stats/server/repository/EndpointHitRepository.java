@@ -1,32 +1,74 @@
 package ru.practicum.ewm.stats.server.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.model.TimeSeriesProjection;
 import ru.practicum.ewm.stats.server.model.ViewStatsProjection;
 
+import javax.persistence.QueryHint;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface EndpointHitRepository extends JpaRepository<EndpointHit, Long> {
-    @Query("select e.app as app, e.uri as uri, count(distinct e.ip) as hits " +
+    @Query("select e.appId as appId, e.uriId as uriId, sum(e.hitCount) as hits " +
+           "from EndpointHit e " +
+           "where e.hitTimestamp between :start and :end " +
+           "group by e.appId, e.uriId " +
+           "order by hits desc")
+    List<ViewStatsProjection> findTopStats(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end,
+                                           Pageable pageable);
+
+    /**
+     * Hits and distinct visitors per uri and bucket, over all apps; only buckets with hits are returned.
+     *
+     * @param grain {@code date_trunc} field: {@code minute}, {@code hour} or {@code day}
+     */
+    @Query(value = "select h.hits_uri_id as \"uriId\", date_trunc(:grain, h.hits_timestamp) as \"bucketStart\", " +
+                   "sum(h.hits_count) as hits, count(distinct h.hits_ip) as \"uniqueHits\" " +
+                   "from hits h " +
+                   "where h.hits_timestamp between :start and :end " +
+                   "and h.hits_uri_id in (:uriIds) " +
+                   "group by \"uriId\", \"bucketStart\" " +
+                   "order by \"uriId\", \"bucketStart\"",
+           nativeQuery = true)
+    List<TimeSeriesProjection> findTimeSeries(@Param("grain") String grain,
+                                              @Param("start") LocalDateTime start,
+                                              @Param("end") LocalDateTime end,
+                                              @Param("uriIds") Collection<Integer> uriIds);
+
+    /**
+     * Distinct visitors per app and uri read through a database cursor; the stream must be consumed
+     * in a transaction and closed.
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("select e.appId as appId, e.uriId as uriId, count(distinct e.ip) as hits " +
            "from EndpointHit e " +
            "where e.hitTimestamp between :start and :end " +
-           "and ((:uris) is null or e.uri in :uris) " +
-           "group by e.app, e.uri " +
+           "and ((:uriIds) is null or e.uriId in :uriIds) " +
+           "group by e.appId, e.uriId " +
            "order by hits desc")
-    List<ViewStatsProjection> findUniqueStats(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end,
-                                              @Param("uris") List<String> uris);
+    Stream<ViewStatsProjection> streamUniqueStats(@Param("start") LocalDateTime start,
+                                                  @Param("end") LocalDateTime end,
+                                                  @Param("uriIds") Collection<Integer> uriIds);
 
-    @Query("select e.app as app, e.uri as uri, count(e.ip) as hits " +
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("select e.appId as appId, e.uriId as uriId, sum(e.hitCount) as hits " +
            "from EndpointHit e " +
            "where e.hitTimestamp between :start and :end " +
-           "and ((:uris) is null or e.uri in :uris) " +
-           "group by e.app, e.uri " +
+           "and ((:uriIds) is null or e.uriId in :uriIds) " +
+           "group by e.appId, e.uriId " +
            "order by hits desc")
-    List<ViewStatsProjection> findNotUniqueStats(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end,
-                                                 @Param("uris") List<String> uris);
+    Stream<ViewStatsProjection> streamNotUniqueStats(@Param("start") LocalDateTime start,
+                                                     @Param("end") LocalDateTime end,
+                                                     @Param("uriIds") Collection<Integer> uriIds);
 }
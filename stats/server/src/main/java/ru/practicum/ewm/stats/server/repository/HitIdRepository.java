@@ -0,0 +1,28 @@
+package ru.practicum.ewm.stats.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Client-supplied ids stored with the hits, the exact check behind the deduplication filter.
+ */
+@Repository
+@RequiredArgsConstructor
+public class HitIdRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public Set<String> findExisting(Collection<String> hitIds) {
+        Set<String> existing = new HashSet<>();
+        jdbcTemplate.query("select distinct hits_hit_id from hits where hits_hit_id = any(?)",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", hitIds.toArray())),
+                rs -> {
+                    existing.add(rs.getString("hits_hit_id"));
+                });
+        return existing;
+    }
+}
@@ -0,0 +1,62 @@
+package ru.practicum.ewm.stats.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * DDL for the range partitions of the hits table. Partition names come from
+ * {@link ru.practicum.ewm.stats.server.partition.PartitionGrain}, never from user input.
+ */
+@Repository
+@RequiredArgsConstructor
+public class HitPartitionRepository {
+    public static final String DEFAULT_PARTITION = "hits_default";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public List<String> findPartitionNames() {
+        return jdbcTemplate.queryForList("select c.relname from pg_inherits i " +
+                "join pg_class c on c.oid = i.inhrelid " +
+                "join pg_class p on p.oid = i.inhparent " +
+                "where p.relname = 'hits'", String.class);
+    }
+
+    /**
+     * Days of the rows that landed in the default partition because no partition covered them yet.
+     */
+    public List<LocalDate> findDefaultPartitionDays() {
+        return jdbcTemplate.queryForList("select distinct cast(hits_timestamp as date) from " + DEFAULT_PARTITION,
+                LocalDate.class);
+    }
+
+    /**
+     * Creates the partition for {@code [from, to)} and attaches it. Rows of that range already in the default
+     * partition are moved first, otherwise the attach would fail its constraint check.
+     */
+    @Transactional
+    public void createPartition(String name, LocalDate from, LocalDate to) {
+        Timestamp lower = Timestamp.valueOf(from.atStartOfDay());
+        Timestamp upper = Timestamp.valueOf(to.atStartOfDay());
+        jdbcTemplate.execute("create table " + name + " (like hits including defaults including constraints)");
+        jdbcTemplate.update("with moved as (delete from " + DEFAULT_PARTITION + " " +
+                "where hits_timestamp >= ? and hits_timestamp < ? returning *) " +
+                "insert into " + name + " select * from moved", lower, upper);
+        jdbcTemplate.execute("alter table hits attach partition " + name + " " +
+                "for values from ('" + lower + "') to ('" + upper + "')");
+    }
+
+    public void deleteRows(LocalDate from, LocalDate to) {
+        jdbcTemplate.update("delete from hits where hits_timestamp >= ? and hits_timestamp < ?",
+                Timestamp.valueOf(from.atStartOfDay()), Timestamp.valueOf(to.atStartOfDay()));
+    }
+
+    public void dropPartition(String name) {
+        jdbcTemplate.execute("drop table if exists " + name);
+    }
+}
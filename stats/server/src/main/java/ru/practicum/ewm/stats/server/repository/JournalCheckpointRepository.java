@@ -0,0 +1,35 @@
+package ru.practicum.ewm.stats.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Drain progress of the hit journal segments. Updated in the same transaction as the hits it covers,
+ * so a segment is never loaded twice after a crash.
+ */
+@Repository
+@RequiredArgsConstructor
+public class JournalCheckpointRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public Map<String, Integer> findAll() {
+        Map<String, Integer> checkpoints = new HashMap<>();
+        jdbcTemplate.query("select segment_name, segment_offset from hits_journal_checkpoints", rs -> {
+            checkpoints.put(rs.getString("segment_name"), rs.getInt("segment_offset"));
+        });
+        return checkpoints;
+    }
+
+    public void save(String segment, int offset) {
+        jdbcTemplate.update("insert into hits_journal_checkpoints (segment_name, segment_offset) values (?, ?) " +
+                "on conflict (segment_name) do update set segment_offset = excluded.segment_offset", segment, offset);
+    }
+
+    public void delete(String segment) {
+        jdbcTemplate.update("delete from hits_journal_checkpoints where segment_name = ?", segment);
+    }
+}
@@ -0,0 +1,159 @@
+package ru.practicum.ewm.stats.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.ewm.stats.server.bucket.TimeSlice;
+import ru.practicum.ewm.stats.server.model.ViewStatsProjection;
+import ru.practicum.ewm.stats.server.model.ViewStatsRow;
+import ru.practicum.ewm.stats.server.rollup.RollupKey;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+@Repository
+@RequiredArgsConstructor
+public class RollupRepository {
+    private static final String UPSERT = "insert into hits_rollups " +
+            "(rollup_grain, app_id, uri_id, bucket_start, hits_count) " +
+            "values (:grain, :appId, :uriId, :bucketStart, :hits) " +
+            "on conflict (rollup_grain, uri_id, bucket_start, app_id) " +
+            "do update set hits_count = hits_rollups.hits_count + excluded.hits_count";
+    private static final int STREAM_FETCH_SIZE = 1000;
+    private static final RowMapper<ViewStatsProjection> ROW_MAPPER = (rs, rowNum) -> new ViewStatsRow(
+            rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits"));
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Adds the counts to the buckets. Keys must come sorted, so that concurrent ingest transactions
+     * lock the same rows in the same order and cannot deadlock.
+     */
+    public void increment(Map<RollupKey, Long> counts) {
+        MapSqlParameterSource[] batch = counts.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource()
+                        .addValue("grain", entry.getKey().getGrain().name())
+                        .addValue("appId", entry.getKey().getAppId())
+                        .addValue("uriId", entry.getKey().getUriId())
+                        .addValue("bucketStart", Timestamp.valueOf(entry.getKey().getBucketStart()))
+                        .addValue("hits", entry.getValue()))
+                .toArray(MapSqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate(UPSERT, batch);
+    }
+
+    /**
+     * Deletes the buckets of every grain starting before {@code cutoff}.
+     */
+    public int deleteBefore(LocalDateTime cutoff) {
+        return jdbcTemplate.update("delete from hits_rollups where bucket_start < :cutoff",
+                new MapSqlParameterSource("cutoff", Timestamp.valueOf(cutoff)));
+    }
+
+    /**
+     * Sums hits per app and uri over the slices in one statement: bucketed slices read the rollups,
+     * raw slices count the hits table directly. Uris are passed as one array parameter.
+     */
+    public List<ViewStatsProjection> sumHits(List<TimeSlice> slices, Collection<Integer> uriIds) {
+        if (slices.isEmpty()) {
+            return List.of();
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        return jdbcTemplate.query(sumHitsQuery(slices, uriIds, params), params, ROW_MAPPER);
+    }
+
+    /**
+     * Same as {@link #sumHits} read through a database cursor, for callers that write rows out as they come.
+     * Must run in a transaction for the fetch size to take effect.
+     */
+    public void streamHits(List<TimeSlice> slices, Collection<Integer> uriIds,
+                           Consumer<ViewStatsProjection> consumer) {
+        if (slices.isEmpty()) {
+            return;
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        PreparedStatementCreator query = jdbcTemplate.getPreparedStatementCreator(
+                sumHitsQuery(slices, uriIds, params), params);
+        jdbcTemplate.getJdbcOperations().query(connection -> {
+            PreparedStatement ps = query.createPreparedStatement(connection);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            consumer.accept(ROW_MAPPER.mapRow(rs, 0));
+        });
+    }
+
+    /**
+     * The {@code limit} groups with the most hits, largest first.
+     */
+    public List<ViewStatsProjection> topHits(List<TimeSlice> slices, int limit) {
+        if (slices.isEmpty()) {
+            return List.of();
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource().addValue("limit", limit);
+        return jdbcTemplate.query(sumHitsQuery(slices, null, params) + " limit :limit", params, ROW_MAPPER);
+    }
+
+    /**
+     * Streams the per-bucket counts of the slices without grouping them per app and uri: the same app and uri
+     * comes once per bucket. Must run in a transaction for the fetch size to take effect.
+     */
+    public void streamBucketHits(List<TimeSlice> slices, Consumer<ViewStatsProjection> consumer) {
+        if (slices.isEmpty()) {
+            return;
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        PreparedStatementCreator query = jdbcTemplate.getPreparedStatementCreator(
+                String.join(" union all ", sliceQueries(slices, null, params)), params);
+        jdbcTemplate.getJdbcOperations().query(connection -> {
+            PreparedStatement ps = query.createPreparedStatement(connection);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            consumer.accept(ROW_MAPPER.mapRow(rs, 0));
+        });
+    }
+
+    private static String sumHitsQuery(List<TimeSlice> slices, Collection<Integer> uriIds,
+                                       MapSqlParameterSource params) {
+        return "select app_id, uri_id, sum(hits) as hits from (" +
+                String.join(" union all ", sliceQueries(slices, uriIds, params)) + ") s " +
+                "group by app_id, uri_id order by hits desc";
+    }
+
+    /**
+     * Queries of the slices; rollup slices return a row per bucket, raw slices are grouped per app and uri
+     * and also read the compacted history of purged hits.
+     */
+    private static List<String> sliceQueries(List<TimeSlice> slices, Collection<Integer> uriIds,
+                                             MapSqlParameterSource params) {
+        List<String> parts = new ArrayList<>();
+        String uriFilter = uriIds == null ? "" : " and %s = any(:uriIds)";
+        params.addValue("uriIds", uriIds == null ? null : uriIds.toArray(new Integer[0]));
+        for (int i = 0; i < slices.size(); i++) {
+            TimeSlice slice = slices.get(i);
+            params.addValue("from" + i, Timestamp.valueOf(slice.getFrom()));
+            params.addValue("to" + i, Timestamp.valueOf(slice.getTo()));
+            if (slice.isRaw()) {
+                parts.add("select hits_app_id as app_id, hits_uri_id as uri_id, sum(hits_count) as hits from hits " +
+                        "where hits_timestamp >= :from" + i + " and hits_timestamp < :to" + i +
+                        String.format(uriFilter, "hits_uri_id") + " group by hits_app_id, hits_uri_id");
+                parts.add(CompactionRepository.hitsQuery("from" + i, "to" + i, String.format(uriFilter, "uri_id")));
+            } else {
+                params.addValue("grain" + i, slice.getGrain().name());
+                parts.add("select app_id, uri_id, hits_count as hits from hits_rollups " +
+                        "where rollup_grain = :grain" + i + " and bucket_start >= :from" + i +
+                        " and bucket_start < :to" + i + String.format(uriFilter, "uri_id"));
+            }
+        }
+        return parts;
+    }
+}
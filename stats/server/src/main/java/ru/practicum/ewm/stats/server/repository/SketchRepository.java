@@ -0,0 +1,186 @@
+package ru.practicum.ewm.stats.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.ewm.stats.server.sketch.SketchKey;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+
+/**
+ * Serialized per-bucket sketches. All sketch tables share the layout
+ * {@code (app_id, uri_id, bucket_start, sketch)} with the primary key {@code (uri_id, bucket_start, app_id)};
+ * the table name always comes from code, never from a request. Sketches of new hits first land in
+ * {@code hits_sketch_deltas} and are folded into their table later.
+ */
+@Repository
+@RequiredArgsConstructor
+public class SketchRepository {
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Stores the sketch if the bucket has none yet.
+     *
+     * @return {@code false} if the bucket already has a sketch, which then has to be merged
+     */
+    public boolean insertIfAbsent(String table, SketchKey key, byte[] sketch) {
+        return jdbcTemplate.update("insert into " + table + " (app_id, uri_id, bucket_start, sketch) " +
+                "values (:appId, :uriId, :bucketStart, :sketch) on conflict do nothing", params(key)
+                .addValue("sketch", sketch)) == 1;
+    }
+
+    public byte[] findForUpdate(String table, SketchKey key) {
+        List<byte[]> sketches = jdbcTemplate.query("select sketch from " + table + " where app_id = :appId " +
+                "and uri_id = :uriId and bucket_start = :bucketStart for update", params(key),
+                (rs, rowNum) -> rs.getBytes("sketch"));
+        return sketches.isEmpty() ? null : sketches.get(0);
+    }
+
+    public void update(String table, SketchKey key, byte[] sketch) {
+        jdbcTemplate.update("update " + table + " set sketch = :sketch where app_id = :appId " +
+                "and uri_id = :uriId and bucket_start = :bucketStart", params(key).addValue("sketch", sketch));
+    }
+
+    /**
+     * Streams the sketches and the not yet folded deltas of the buckets starting in {@code [from, to)}.
+     * Both are read by one statement, so a delta folded meanwhile is seen in one place or both, never in none.
+     */
+    public void forEach(String table, LocalDateTime from, LocalDateTime to,
+                        Collection<Integer> uriIds, BiConsumer<SketchKey, byte[]> consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("table", table)
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to))
+                .addValue("uriIds", uriIds == null ? null : uriIds.toArray(new Integer[0]));
+        String filter = " and bucket_start >= :from and bucket_start < :to" +
+                (uriIds == null ? "" : " and uri_id = any(:uriIds)");
+        String sql = "select app_id, uri_id, bucket_start, sketch from " + table + " where true" + filter +
+                " union all select app_id, uri_id, bucket_start, sketch from hits_sketch_deltas " +
+                "where sketch_table = :table" + filter;
+        jdbcTemplate.query(sql, params, rs -> {
+            consumer.accept(new SketchKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                    rs.getTimestamp("bucket_start").toLocalDateTime()), rs.getBytes("sketch"));
+        });
+    }
+
+    /**
+     * Stores the sketches of an ingest batch as deltas; must run in the ingest transaction.
+     */
+    public void insertDeltas(String table, Map<SketchKey, byte[]> deltas) {
+        jdbcTemplate.batchUpdate("insert into hits_sketch_deltas (sketch_table, app_id, uri_id, bucket_start, " +
+                "sketch) values (:table, :appId, :uriId, :bucketStart, :sketch)", deltas.entrySet().stream()
+                .map(entry -> params(entry.getKey())
+                        .addValue("table", table)
+                        .addValue("sketch", entry.getValue()))
+                .toArray(MapSqlParameterSource[]::new));
+    }
+
+    /**
+     * Locks up to {@code limit} of the oldest deltas of the table, skipping those another flush holds.
+     */
+    public void lockDeltas(String table, int limit, DeltaCallback callback) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("table", table)
+                .addValue("limit", limit);
+        jdbcTemplate.query("select delta_id, app_id, uri_id, bucket_start, sketch from hits_sketch_deltas " +
+                "where sketch_table = :table order by delta_id limit :limit for update skip locked", params, rs -> {
+                    callback.accept(rs.getLong("delta_id"), new SketchKey(rs.getInt("app_id"),
+                            rs.getInt("uri_id"), rs.getTimestamp("bucket_start").toLocalDateTime()),
+                            rs.getBytes("sketch"));
+                });
+    }
+
+    public void deleteDeltas(Collection<Long> deltaIds) {
+        jdbcTemplate.update("delete from hits_sketch_deltas where delta_id = any(:ids)",
+                new MapSqlParameterSource("ids", deltaIds.toArray(new Long[0])));
+    }
+
+    /**
+     * Oldest hit the sketches may have to cover, raw or compacted.
+     */
+    public Optional<LocalDateTime> findOldestHit() {
+        Timestamp oldest = jdbcTemplate.getJdbcOperations().queryForObject("select min(oldest) from (" +
+                "select min(hits_timestamp) as oldest from hits " +
+                "union all select min(bucket_start) from hits_compacted) h", Timestamp.class);
+        return Optional.ofNullable(oldest).map(Timestamp::toLocalDateTime);
+    }
+
+    /**
+     * Start of the buckets whose sketches are known to be complete: {@link LocalDateTime#MIN} once the whole
+     * history is covered, {@link LocalDateTime#MAX} before the backfill of the table began.
+     */
+    public LocalDateTime findCompleteFrom(String table) {
+        List<LocalDateTime> completeFrom = jdbcTemplate.query("select complete_from from hits_sketch_backfill " +
+                "where sketch_table = :table", new MapSqlParameterSource("table", table),
+                (rs, rowNum) -> toCompleteFrom(rs.getTimestamp("complete_from")));
+        return completeFrom.isEmpty() ? LocalDateTime.MAX : completeFrom.get(0);
+    }
+
+    /**
+     * Like {@link #findCompleteFrom}, but starts the backfill at {@code initial} if it has not begun and locks
+     * its progress until the end of the transaction.
+     */
+    public LocalDateTime lockCompleteFrom(String table, LocalDateTime initial) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("table", table)
+                .addValue("initial", Timestamp.valueOf(initial));
+        jdbcTemplate.update("insert into hits_sketch_backfill (sketch_table, complete_from) " +
+                "values (:table, :initial) on conflict do nothing", params);
+        return jdbcTemplate.queryForObject("select complete_from from hits_sketch_backfill " +
+                "where sketch_table = :table for update", params,
+                (rs, rowNum) -> toCompleteFrom(rs.getTimestamp("complete_from")));
+    }
+
+    public void updateCompleteFrom(String table, LocalDateTime completeFrom) {
+        jdbcTemplate.update("update hits_sketch_backfill set complete_from = :completeFrom " +
+                "where sketch_table = :table", new MapSqlParameterSource()
+                .addValue("table", table)
+                .addValue("completeFrom", completeFrom.equals(LocalDateTime.MIN)
+                        ? null : Timestamp.valueOf(completeFrom)));
+    }
+
+    /**
+     * Forgets the backfill progress, e.g. while the sketches are disabled and miss the new hits.
+     */
+    public void resetBackfill(String table) {
+        jdbcTemplate.update("delete from hits_sketch_backfill where sketch_table = :table",
+                new MapSqlParameterSource("table", table));
+    }
+
+    /**
+     * Deletes the sketches and deltas of the buckets starting before {@code cutoff}.
+     *
+     * @return number of deleted sketches
+     */
+    public int deleteBefore(String table, LocalDateTime cutoff) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("table", table)
+                .addValue("cutoff", Timestamp.valueOf(cutoff));
+        jdbcTemplate.update("delete from hits_sketch_deltas where sketch_table = :table " +
+                "and bucket_start < :cutoff", params);
+        return jdbcTemplate.update("delete from " + table + " where bucket_start < :cutoff", params);
+    }
+
+    private static MapSqlParameterSource params(SketchKey key) {
+        return new MapSqlParameterSource()
+                .addValue("appId", key.getAppId())
+                .addValue("uriId", key.getUriId())
+                .addValue("bucketStart", Timestamp.valueOf(key.getBucketStart()));
+    }
+
+    private static LocalDateTime toCompleteFrom(Timestamp completeFrom) {
+        return completeFrom == null ? LocalDateTime.MIN : completeFrom.toLocalDateTime();
+    }
+
+    @FunctionalInterface
+    public interface DeltaCallback {
+        void accept(long deltaId, SketchKey key, byte[] sketch);
+    }
+}
@@ -0,0 +1,54 @@
+package ru.practicum.ewm.stats.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.nio.ByteBuffer;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dense integer ids of visitor IPs, used as members of the visitor bitmaps and of the compacted history.
+ */
+@Repository
+@RequiredArgsConstructor
+public class VisitorRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Returns the ids of the IPs, inserting the new ones in the current transaction. Inserts go in IP order,
+     * so concurrent batches with common new IPs wait for each other instead of deadlocking.
+     */
+    public Map<ByteBuffer, Integer> getOrCreate(List<byte[]> ips) {
+        jdbcTemplate.update("insert into visitors (visitor_ip) select ip from unnest(?) as t(ip) order by ip " +
+                "on conflict (visitor_ip) do nothing", ps -> ps.setArray(1, toArray(ps.getConnection(), ips)));
+        Map<ByteBuffer, Integer> ids = new HashMap<>();
+        jdbcTemplate.query("select visitor_id, visitor_ip from visitors where visitor_ip = any(?)",
+                ps -> ps.setArray(1, toArray(ps.getConnection(), ips)),
+                rs -> {
+                    ids.put(ByteBuffer.wrap(rs.getBytes("visitor_ip")), rs.getInt("visitor_id"));
+                });
+        return ids;
+    }
+
+    public Map<Integer, byte[]> findIps(int[] visitorIds) {
+        Map<Integer, byte[]> ips = new HashMap<>();
+        jdbcTemplate.query("select visitor_id, visitor_ip from visitors where visitor_id = any(?)",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("integer",
+                        Arrays.stream(visitorIds).boxed().toArray())),
+                rs -> {
+                    ips.put(rs.getInt("visitor_id"), rs.getBytes("visitor_ip"));
+                });
+        return ips;
+    }
+
+    private static Array toArray(Connection connection, List<byte[]> ips) throws SQLException {
+        return connection.createArrayOf("bytea", ips.toArray(new byte[0][]));
+    }
+}
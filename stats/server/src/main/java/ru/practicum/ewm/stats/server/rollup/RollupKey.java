@@ -0,0 +1,25 @@
+package ru.practicum.ewm.stats.server.rollup;
+
+import lombok.Value;
+import ru.practicum.ewm.stats.server.bucket.TimeGrain;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+
+@Value
+public class RollupKey implements Comparable<RollupKey> {
+    private static final Comparator<RollupKey> ORDER = Comparator.comparing(RollupKey::getGrain)
+            .thenComparingInt(RollupKey::getUriId)
+            .thenComparing(RollupKey::getBucketStart)
+            .thenComparingInt(RollupKey::getAppId);
+
+    TimeGrain grain;
+    int appId;
+    int uriId;
+    LocalDateTime bucketStart;
+
+    @Override
+    public int compareTo(RollupKey other) {
+        return ORDER.compare(this, other);
+    }
+}
@@ -0,0 +1,95 @@
+package ru.practicum.ewm.stats.server.rollup;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.practicum.ewm.stats.server.bucket.TimeGrain;
+import ru.practicum.ewm.stats.server.bucket.TimeSlice;
+import ru.practicum.ewm.stats.server.bucket.TimeSlicer;
+import ru.practicum.ewm.stats.server.ingest.HitListener;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.model.ViewStatsProjection;
+import ru.practicum.ewm.stats.server.partition.RetentionListener;
+import ru.practicum.ewm.stats.server.repository.RollupRepository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Minute, hour and day rollups of non-unique hit counts per app and uri, incremented in the ingest transaction.
+ * A range is answered from the coarsest buckets that fit inside it and from raw hits only at the sub-minute edges,
+ * so the cost of a query depends on the number of buckets, not on the number of hits.
+ */
+@Slf4j
+@Service
+public class RollupService implements HitListener, RetentionListener {
+    private static final TimeGrain[] GRAINS = {TimeGrain.DAY, TimeGrain.HOUR, TimeGrain.MINUTE};
+
+    private final RollupRepository rollupRepository;
+    private final boolean enabled;
+
+    public RollupService(RollupRepository rollupRepository,
+                         @Value("${stats.rollups.enabled:true}") boolean enabled) {
+        this.rollupRepository = rollupRepository;
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        if (!enabled) {
+            return;
+        }
+        Map<RollupKey, Long> counts = new TreeMap<>();
+        for (EndpointHit hit : hits) {
+            for (TimeGrain grain : GRAINS) {
+                RollupKey key = new RollupKey(grain, hit.getAppId(), hit.getUriId(),
+                        grain.truncate(hit.getHitTimestamp()));
+                counts.merge(key, (long) hit.getHitCount(), Long::sum);
+            }
+        }
+        rollupRepository.increment(counts);
+    }
+
+    @Override
+    public void onRetention(LocalDateTime cutoff) {
+        if (!enabled) {
+            return;
+        }
+        int deleted = rollupRepository.deleteBefore(cutoff);
+        if (deleted > 0) {
+            log.info("Удалено агрегатов старше {}: {}", cutoff, deleted);
+        }
+    }
+
+    public List<ViewStatsProjection> getNotUniqueStats(LocalDateTime start, LocalDateTime end,
+                                                       Collection<Integer> uriIds) {
+        List<TimeSlice> slices = TimeSlicer.slice(start, TimeSlicer.exclusiveEnd(end), GRAINS);
+        log.debug("Статистика из роллапов: {}", slices);
+        return rollupRepository.sumHits(slices, uriIds);
+    }
+
+    public void streamNotUniqueStats(LocalDateTime start, LocalDateTime end, Collection<Integer> uriIds,
+                                     Consumer<ViewStatsProjection> consumer) {
+        rollupRepository.streamHits(TimeSlicer.slice(start, TimeSlicer.exclusiveEnd(end), GRAINS), uriIds, consumer);
+    }
+
+    public List<ViewStatsProjection> getTopStats(LocalDateTime start, LocalDateTime end, int n) {
+        return rollupRepository.topHits(TimeSlicer.slice(start, TimeSlicer.exclusiveEnd(end), GRAINS), n);
+    }
+
+    /**
+     * Streams per-bucket counts of the range without aggregating them, for callers that summarize
+     * the stream themselves.
+     */
+    public void streamBucketStats(LocalDateTime start, LocalDateTime end, Consumer<ViewStatsProjection> consumer) {
+        rollupRepository.streamBucketHits(TimeSlicer.slice(start, TimeSlicer.exclusiveEnd(end), GRAINS), consumer);
+    }
+}
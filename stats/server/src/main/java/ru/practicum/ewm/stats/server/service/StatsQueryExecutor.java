@@ -0,0 +1,91 @@
+package ru.practicum.ewm.stats.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.stats.server.bucket.TimeSlicer;
+import ru.practicum.ewm.stats.server.model.StatsKey;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+
+/**
+ * Splits long stats ranges into chunks of {@code stats.parallel.chunk-days} days and aggregates them in parallel
+ * on a bounded fork-join pool. Chunk edges fall on day starts, which are bucket edges of every rollup and sketch
+ * grain and partition edges of the hits table, so inner chunks are served from whole buckets and prune down
+ * to their own partitions. Partial results are merged per app and uri with a merge function that fits the value:
+ * a sum for hit counts, a union for visitor sets and sketches.
+ */
+@Slf4j
+@Component
+public class StatsQueryExecutor {
+    private final ForkJoinPool pool;
+    private final boolean enabled;
+    private final int chunkDays;
+
+    public StatsQueryExecutor(@Value("${stats.parallel.enabled:true}") boolean enabled,
+                              @Value("${stats.parallel.threads:4}") int threads,
+                              @Value("${stats.parallel.chunk-days:30}") int chunkDays) {
+        this.enabled = enabled && threads > 1;
+        this.chunkDays = chunkDays;
+        this.pool = this.enabled ? new ForkJoinPool(threads) : null;
+    }
+
+    /**
+     * Whether {@code [start, end]} spans more than one chunk.
+     */
+    public boolean splits(LocalDateTime start, LocalDateTime end) {
+        return enabled && firstChunkEnd(start).isBefore(TimeSlicer.exclusiveEnd(end));
+    }
+
+    /**
+     * Runs {@code chunk} for every inclusive sub-range of {@code [start, end]} in parallel and merges the results.
+     */
+    public <V> Map<StatsKey, V> aggregate(LocalDateTime start, LocalDateTime end,
+                                          BiFunction<LocalDateTime, LocalDateTime, Map<StatsKey, V>> chunk,
+                                          BinaryOperator<V> merge) {
+        List<CompletableFuture<Map<StatsKey, V>>> partials = new ArrayList<>();
+        LocalDateTime exclusiveEnd = TimeSlicer.exclusiveEnd(end);
+        for (LocalDateTime from = start, to = firstChunkEnd(start); from.isBefore(exclusiveEnd);
+             from = to, to = to.plusDays(chunkDays)) {
+            LocalDateTime chunkStart = from;
+            LocalDateTime chunkEnd = to.isBefore(exclusiveEnd) ? to.minusNanos(1_000) : end;
+            partials.add(CompletableFuture.supplyAsync(() -> chunk.apply(chunkStart, chunkEnd), pool));
+        }
+        log.debug("Диапазон {} - {} разбит на {} частей", start, end, partials.size());
+
+        Map<StatsKey, V> result = new HashMap<>();
+        try {
+            for (CompletableFuture<Map<StatsKey, V>> partial : partials) {
+                partial.join().forEach((key, value) -> result.merge(key, value, merge));
+            }
+        } catch (CompletionException e) {
+            partials.forEach(partial -> partial.cancel(false));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private LocalDateTime firstChunkEnd(LocalDateTime start) {
+        return start.toLocalDate().plusDays(chunkDays).atStartOfDay();
+    }
+}
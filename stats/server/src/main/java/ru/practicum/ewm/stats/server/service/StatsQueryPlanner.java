@@ -0,0 +1,258 @@
+package ru.practicum.ewm.stats.server.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.stats.server.archive.ArchiveService;
+import ru.practicum.ewm.stats.server.bucket.TimeSlicer;
+import ru.practicum.ewm.stats.server.compaction.CompactionService;
+import ru.practicum.ewm.stats.server.counter.InMemoryCounterService;
+import ru.practicum.ewm.stats.server.model.StatsKey;
+import ru.practicum.ewm.stats.server.model.ViewStatsProjection;
+import ru.practicum.ewm.stats.server.model.ViewStatsRow;
+import ru.practicum.ewm.stats.server.repository.EndpointHitJdbcRepository;
+import ru.practicum.ewm.stats.server.repository.EndpointHitRepository;
+import ru.practicum.ewm.stats.server.rollup.RollupService;
+import ru.practicum.ewm.stats.server.sketch.HyperLogLogService;
+import ru.practicum.ewm.stats.server.sketch.VisitorBitmapService;
+import ru.practicum.ewm.stats.server.top.TopStatsService;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Picks the sources a stats query is answered from and runs it. The archived part of a range is read from
+ * the segments, long ranges are split into chunks run in parallel, hit counts come from the in-memory counters,
+ * the rollups or the hits, and unique visitors from the {@link UniqueSource} that fits the query.
+ */
+@Component
+@RequiredArgsConstructor
+public class StatsQueryPlanner {
+    private final EndpointHitRepository endpointHitRepository;
+    private final EndpointHitJdbcRepository endpointHitJdbcRepository;
+    private final InMemoryCounterService inMemoryCounterService;
+    private final RollupService rollupService;
+    private final HyperLogLogService hyperLogLogService;
+    private final VisitorBitmapService visitorBitmapService;
+    private final TopStatsService topStatsService;
+    private final CompactionService compactionService;
+    private final ArchiveService archiveService;
+    private final StatsQueryExecutor statsQueryExecutor;
+
+    /**
+     * Where unique visitors are counted from.
+     */
+    public enum UniqueSource {
+        /**
+         * HyperLogLog sketches, approximate.
+         */
+        SKETCHES,
+        /**
+         * Visitor bitmaps, exact; they cover compacted history, which the hits miss, and fall back to the hits
+         * for the buckets they do not cover yet.
+         */
+        BITMAPS,
+        /**
+         * Distinct IPs of the hits table.
+         */
+        HITS
+    }
+
+    /**
+     * Every unique query takes the source this returns for its precision, so they all agree.
+     */
+    public UniqueSource uniqueSource(boolean exact) {
+        if (!exact && hyperLogLogService.isEnabled()) {
+            return UniqueSource.SKETCHES;
+        }
+        if (visitorBitmapService.isEnabled() || compactionService.isEnabled()) {
+            return UniqueSource.BITMAPS;
+        }
+        return UniqueSource.HITS;
+    }
+
+    /**
+     * Archive boundary when the range starts before it, so that the archived part has to be read from segments.
+     */
+    public LocalDateTime archiveBoundary(LocalDateTime start) {
+        LocalDateTime boundary = archiveService.isEnabled() ? archiveService.boundary() : null;
+        return boundary != null && start.isBefore(boundary) ? boundary : null;
+    }
+
+    /**
+     * Stats per app and uri of {@code [start, end]}, largest first; {@code null} uri ids mean all uris.
+     */
+    public List<ViewStatsProjection> getStats(LocalDateTime start, LocalDateTime end, List<Integer> uriIds,
+                                              boolean unique, boolean exact) {
+        LocalDateTime boundary = archiveBoundary(start);
+        return boundary != null
+                ? computeStatsWithArchive(start, end, uriIds, unique, exact, boundary)
+                : computeStats(start, end, uriIds, unique, exact);
+    }
+
+    /**
+     * The {@code n} most viewed apps and uris, largest first, or more of them when the archive is read.
+     */
+    public List<ViewStatsProjection> getTopStats(LocalDateTime start, LocalDateTime end, int n, Boolean exact) {
+        LocalDateTime boundary = archiveBoundary(start);
+        return boundary != null
+                ? computeStatsWithArchive(start, end, null, false, Boolean.TRUE.equals(exact), boundary)
+                : topStatsService.getTopStats(start, end, n, exact);
+    }
+
+    /**
+     * Passes the stats rows to the consumer as they are read, through a database cursor where the source
+     * allows it. Unique visitors are counted exactly.
+     */
+    public void streamStats(LocalDateTime start, LocalDateTime end, List<Integer> uriIds, boolean unique,
+                            Consumer<ViewStatsProjection> consumer) {
+        LocalDateTime boundary = archiveBoundary(start);
+        if (boundary != null) {
+            computeStatsWithArchive(start, end, uriIds, unique, true, boundary).forEach(consumer);
+            return;
+        }
+        if (!unique && rollupService.isEnabled()) {
+            rollupService.streamNotUniqueStats(start, end, uriIds, consumer);
+            return;
+        }
+        if (unique && uniqueSource(true) == UniqueSource.BITMAPS) {
+            visitorBitmapService.getUniqueStats(start, end, uriIds).forEach(consumer);
+            return;
+        }
+        try (Stream<ViewStatsProjection> stats = unique
+                ? endpointHitRepository.streamUniqueStats(start, end, uriIds)
+                : endpointHitRepository.streamNotUniqueStats(start, end, uriIds)) {
+            stats.forEach(consumer);
+        }
+    }
+
+    private List<ViewStatsProjection> computeStats(LocalDateTime start, LocalDateTime end, List<Integer> uriIds,
+                                                   boolean unique, boolean exact) {
+        if (statsQueryExecutor.splits(start, end)) {
+            return computeStatsInParallel(start, end, uriIds, unique, exact);
+        }
+        if (!unique) {
+            return inMemoryCounterService.getNotUniqueStats(start, end, uriIds)
+                    .orElseGet(() -> getNotUniqueStatsFromDatabase(start, end, uriIds));
+        }
+        UniqueSource source = uniqueSource(exact);
+        if (source == UniqueSource.SKETCHES) {
+            return hyperLogLogService.getUniqueStats(start, end, uriIds);
+        } else if (source == UniqueSource.BITMAPS) {
+            return visitorBitmapService.getUniqueStats(start, end, uriIds);
+        }
+        return sortByHits(endpointHitJdbcRepository.countVisitors(start, TimeSlicer.exclusiveEnd(end), uriIds));
+    }
+
+    /**
+     * Aggregates the chunks of a long range in parallel. Unique visitors of the chunks are merged as sketches,
+     * bitmaps or IP sets, whichever the sequential path would count them with.
+     */
+    private List<ViewStatsProjection> computeStatsInParallel(LocalDateTime start, LocalDateTime end,
+                                                             List<Integer> uriIds, boolean unique, boolean exact) {
+        Map<StatsKey, Long> hits = new HashMap<>();
+        UniqueSource source = unique ? uniqueSource(exact) : null;
+        if (source == UniqueSource.SKETCHES) {
+            statsQueryExecutor.aggregate(start, end,
+                    (from, to) -> hyperLogLogService.collectSketches(from, to, uriIds),
+                    (sketch, other) -> {
+                        sketch.merge(other);
+                        return sketch;
+                    }).forEach((key, sketch) -> hits.put(key, sketch.estimate()));
+        } else if (source == UniqueSource.BITMAPS) {
+            statsQueryExecutor.aggregate(start, end,
+                    (from, to) -> visitorBitmapService.collectBitmaps(from, to, uriIds),
+                    (bitmap, other) -> {
+                        bitmap.or(other);
+                        return bitmap;
+                    }).forEach((key, bitmap) -> hits.put(key, bitmap.getLongCardinality()));
+        } else if (source == UniqueSource.HITS) {
+            statsQueryExecutor.aggregate(start, end, (from, to) -> {
+                Map<StatsKey, Set<ByteBuffer>> visitors = new HashMap<>();
+                endpointHitJdbcRepository.forEachVisitor(from, TimeSlicer.exclusiveEnd(to), uriIds,
+                        (appId, uriId, ip) -> visitors.computeIfAbsent(new StatsKey(appId, uriId),
+                                key -> new HashSet<>()).add(ByteBuffer.wrap(ip)));
+                return visitors;
+            }, (ips, other) -> {
+                ips.addAll(other);
+                return ips;
+            }).forEach((key, ips) -> hits.put(key, (long) ips.size()));
+        } else {
+            Optional<List<ViewStatsProjection>> fromMemory = inMemoryCounterService.getNotUniqueStats(start, end,
+                    uriIds);
+            if (fromMemory.isPresent()) {
+                return fromMemory.get();
+            }
+            hits.putAll(statsQueryExecutor.aggregate(start, end, (from, to) -> {
+                Map<StatsKey, Long> counts = new HashMap<>();
+                for (ViewStatsProjection row : getNotUniqueStatsFromDatabase(from, to, uriIds)) {
+                    counts.merge(new StatsKey(row.getAppId(), row.getUriId()), row.getHits(), Long::sum);
+                }
+                return counts;
+            }, Long::sum));
+        }
+        return toSortedRows(hits);
+    }
+
+    /**
+     * Combines the archived part of the range, read from the segments, with the rest read from the database.
+     * Unique visitors are counted exactly over both parts by their IPs.
+     */
+    private List<ViewStatsProjection> computeStatsWithArchive(LocalDateTime start, LocalDateTime end,
+                                                              List<Integer> uriIds, boolean unique, boolean exact,
+                                                              LocalDateTime boundary) {
+        LocalDateTime exclusiveEnd = TimeSlicer.exclusiveEnd(end);
+        boolean hot = exclusiveEnd.isAfter(boundary);
+        LocalDateTime archiveEnd = hot ? boundary : exclusiveEnd;
+        Map<StatsKey, Long> hits;
+        if (unique) {
+            Map<StatsKey, Set<ByteBuffer>> visitors = new HashMap<>();
+            EndpointHitJdbcRepository.VisitorCallback collector = (appId, uriId, ip) -> visitors
+                    .computeIfAbsent(new StatsKey(appId, uriId), key -> new HashSet<>())
+                    .add(ByteBuffer.wrap(ip));
+            archiveService.forEachVisitor(start, archiveEnd, uriIds, collector);
+            if (hot) {
+                endpointHitJdbcRepository.forEachVisitor(boundary, exclusiveEnd, uriIds, collector);
+            }
+            hits = new HashMap<>();
+            visitors.forEach((key, ips) -> hits.put(key, (long) ips.size()));
+        } else {
+            hits = archiveService.countHits(start, archiveEnd, uriIds);
+            if (hot) {
+                for (ViewStatsProjection row : computeStats(boundary, end, uriIds, false, exact)) {
+                    hits.merge(new StatsKey(row.getAppId(), row.getUriId()), row.getHits(), Long::sum);
+                }
+            }
+        }
+        return toSortedRows(hits);
+    }
+
+    private List<ViewStatsProjection> getNotUniqueStatsFromDatabase(LocalDateTime start, LocalDateTime end,
+                                                                    List<Integer> uriIds) {
+        if (rollupService.isEnabled()) {
+            return rollupService.getNotUniqueStats(start, end, uriIds);
+        }
+        return sortByHits(endpointHitJdbcRepository.sumHits(start, TimeSlicer.exclusiveEnd(end), uriIds));
+    }
+
+    private static List<ViewStatsProjection> toSortedRows(Map<StatsKey, Long> hits) {
+        return hits.entrySet().stream()
+                .map(entry -> new ViewStatsRow(entry.getKey().getAppId(), entry.getKey().getUriId(), entry.getValue()))
+                .sorted(Comparator.comparing(ViewStatsProjection::getHits).reversed())
+                .collect(Collectors.toList());
+    }
+
+    private static List<ViewStatsProjection> sortByHits(List<ViewStatsProjection> rows) {
+        rows.sort(Comparator.comparing(ViewStatsProjection::getHits).reversed());
+        return rows;
+    }
+}
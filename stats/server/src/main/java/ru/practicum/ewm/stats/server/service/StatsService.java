@@ -1,13 +1,68 @@
 package ru.practicum.ewm.stats.server.service;
 
 import ru.practicum.ewm.stats.dto.EndpointHitDto;
+import ru.practicum.ewm.stats.dto.HitBatchResultDto;
+import ru.practicum.ewm.stats.dto.PopularityDto;
+import ru.practicum.ewm.stats.dto.StatsQueryDto;
+import ru.practicum.ewm.stats.dto.TimeSeriesDto;
 import ru.practicum.ewm.stats.dto.ViewStatsDto;
+import ru.practicum.ewm.stats.dto.VisitorSetDto;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public interface StatsService {
     void hit(EndpointHitDto endpointHitDto);
 
-    List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique);
+    HitBatchResultDto hitAll(List<EndpointHitDto> endpointHitDtos);
+
+    /**
+     * @param exact count unique visitors exactly instead of estimating them from sketches
+     */
+    List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique,
+                                Boolean exact);
+
+    /**
+     * Hits and unique visitors of each uri per bucket of the grain, one series per requested uri.
+     */
+    List<TimeSeriesDto> getTimeSeries(LocalDateTime start, LocalDateTime end, List<String> uris, String grain);
+
+    /**
+     * The {@code n} most viewed apps and uris, largest first; approximate unless {@code exact}.
+     */
+    List<ViewStatsDto> getTopStats(LocalDateTime start, LocalDateTime end, Integer n, Boolean exact);
+
+    /**
+     * Hits of each app and uri in the last {@code minutes}, largest first, from the in-memory sliding windows.
+     */
+    List<ViewStatsDto> getLiveStats(Integer minutes, List<String> uris);
+
+    /**
+     * The {@code n} uris with the highest time-decayed popularity, largest first.
+     */
+    List<PopularityDto> getTrending(Integer n);
+
+    /**
+     * Time-decayed popularity of the uris, largest first; uris never viewed are absent.
+     */
+    List<PopularityDto> getPopularity(List<String> uris);
+
+    /**
+     * Hits per uri for {@code POST /stats/query}, summed over apps; uris without hits are absent.
+     */
+    Map<String, Long> queryViews(StatsQueryDto query);
+
+    /**
+     * Distinct visitors per app and uri as hashes of their IPs, for clients merging unique counts across servers.
+     */
+    List<VisitorSetDto> getVisitors(StatsQueryDto query);
+
+    /**
+     * Passes stats rows to the consumer one by one as they are read through a database cursor,
+     * without collecting them first. Unique visitors are always counted exactly here.
+     */
+    void streamStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique,
+                     Consumer<ViewStatsDto> consumer);
 }
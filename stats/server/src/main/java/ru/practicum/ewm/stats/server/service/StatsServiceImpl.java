@@ -1,51 +1,251 @@
 package ru.practicum.ewm.stats.server.service;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.practicum.ewm.stats.dto.EndpointHitDto;
+import ru.practicum.ewm.stats.dto.HitBatchResultDto;
+import ru.practicum.ewm.stats.dto.PopularityDto;
+import ru.practicum.ewm.stats.dto.StatsQueryDto;
+import ru.practicum.ewm.stats.dto.TimeSeriesDto;
 import ru.practicum.ewm.stats.dto.ViewStatsDto;
+import ru.practicum.ewm.stats.dto.VisitorSetDto;
+import ru.practicum.ewm.stats.server.dictionary.HitDictionary;
 import ru.practicum.ewm.stats.server.error.BadRequestError;
-import ru.practicum.ewm.stats.server.mapper.StatsMapper;
+import ru.practicum.ewm.stats.server.error.ServiceUnavailableError;
+import ru.practicum.ewm.stats.server.ingest.HitJournal;
+import ru.practicum.ewm.stats.server.ingest.HitWriteBuffer;
+import ru.practicum.ewm.stats.server.ingest.HitWriter;
+import ru.practicum.ewm.stats.server.live.LiveCounterService;
+import ru.practicum.ewm.stats.server.mapper.IpAddressMapper;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
 import ru.practicum.ewm.stats.server.model.ViewStatsProjection;
-import ru.practicum.ewm.stats.server.repository.EndpointHitRepository;
+import ru.practicum.ewm.stats.server.trending.TrendingService;
 
+import javax.validation.Validator;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class StatsServiceImpl implements StatsService {
-    private final EndpointHitRepository endpointHitRepository;
+    private final HitWriter hitWriter;
+    private final HitDictionary hitDictionary;
+    private final HitWriteBuffer hitWriteBuffer;
+    private final HitJournal hitJournal;
+    private final StatsQueryPlanner statsQueryPlanner;
+    private final LiveCounterService liveCounterService;
+    private final TrendingService trendingService;
+    private final TimeSeriesService timeSeriesService;
+    private final VisitorSetService visitorSetService;
+    private final Validator validator;
+
+    @Value("${stats.hits.max-batch-size:10000}")
+    private int maxBatchSize;
+
+    @Value("${stats.top.max-n:1000}")
+    private int maxTopSize;
 
-    @Transactional
     @Override
     public void hit(EndpointHitDto endpointHitDto) {
-        endpointHitRepository.save(StatsMapper.INSTANCE.fromDto(endpointHitDto));
+        if (hitJournal.isEnabled()) {
+            if (!validator.validate(endpointHitDto).isEmpty()) {
+                throw new BadRequestError("Invalid hit: " + endpointHitDto);
+            }
+            IpAddressMapper.toBytes(endpointHitDto.getIp());
+            hitJournal.append(endpointHitDto);
+            return;
+        }
+        EndpointHit hit = hitDictionary.encode(endpointHitDto);
+        if (hitWriteBuffer.isEnabled()) {
+            hitWriteBuffer.offer(hit);
+        } else {
+            hitWriter.write(List.of(hit));
+        }
+    }
+
+    @Override
+    public HitBatchResultDto hitAll(List<EndpointHitDto> endpointHitDtos) {
+        if (endpointHitDtos.size() > maxBatchSize) {
+            throw new BadRequestError("Batch of " + endpointHitDtos.size() + " hits exceeds the limit of " +
+                    maxBatchSize + ".");
+        }
+        List<EndpointHit> hits = new ArrayList<>(endpointHitDtos.size());
+        for (EndpointHitDto dto : endpointHitDtos) {
+            if (dto == null || !validator.validate(dto).isEmpty()) {
+                continue;
+            }
+            try {
+                hits.add(hitDictionary.encode(dto));
+            } catch (BadRequestError e) {
+                log.debug("Отклонена запись пакета: {}", e.getMessage());
+            }
+        }
+
+        hitWriter.write(hits);
+
+        int rejected = endpointHitDtos.size() - hits.size();
+        if (rejected > 0) {
+            log.warn("Отклонено невалидных записей в пакете: {} из {}", rejected, endpointHitDtos.size());
+        }
+        return HitBatchResultDto.builder()
+                .accepted(hits.size())
+                .rejected(rejected)
+                .build();
     }
 
     @Transactional(readOnly = true)
     @Override
-    public List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique) {
-        if (start == null || end == null || start.isAfter(end)) {
-            throw new BadRequestError("Start/End date is not present, " +
-                    "or start date is before end date. start=" + start + ", end=" + end);
+    public List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique,
+                                       Boolean exact) {
+        validateRange(start, end);
+        List<Integer> uriIds = uris == null ? null : hitDictionary.findUriIds(uris);
+        if (uriIds != null && uriIds.isEmpty()) {
+            return Collections.emptyList();
         }
-        List<ViewStatsProjection> stats;
+        return statsQueryPlanner.getStats(start, end, uriIds, unique, exact).stream()
+                .map(this::toDto)
+                .collect(Collectors.toList());
+    }
 
-        if (unique) {
-            stats = endpointHitRepository.findUniqueStats(start, end, uris);
-        } else {
-            stats = endpointHitRepository.findNotUniqueStats(start, end, uris);
+    @Transactional(readOnly = true)
+    @Override
+    public List<TimeSeriesDto> getTimeSeries(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                             String grainName) {
+        validateRange(start, end);
+        return timeSeriesService.getTimeSeries(start, end, uris, grainName);
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public List<ViewStatsDto> getTopStats(LocalDateTime start, LocalDateTime end, Integer n, Boolean exact) {
+        validateRange(start, end);
+        if (n == null || n < 1 || n > maxTopSize) {
+            throw new BadRequestError("Parameter n must be between 1 and " + maxTopSize + ": " + n);
+        }
+        return statsQueryPlanner.getTopStats(start, end, n, exact).stream()
+                .limit(n)
+                .map(this::toDto)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<ViewStatsDto> getLiveStats(Integer minutes, List<String> uris) {
+        if (!liveCounterService.isEnabled()) {
+            throw new ServiceUnavailableError("Live counters are disabled.");
+        }
+        if (minutes == null || minutes < 1 || minutes > liveCounterService.getSpanMinutes()) {
+            throw new BadRequestError("Parameter minutes must be between 1 and " +
+                    liveCounterService.getSpanMinutes() + ": " + minutes);
+        }
+        List<Integer> uriIds = uris == null ? null : hitDictionary.findUriIds(uris);
+        if (uriIds != null && uriIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return liveCounterService.getLiveStats(minutes, uriIds == null ? null : new HashSet<>(uriIds)).stream()
+                .map(this::toDto)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<PopularityDto> getTrending(Integer n) {
+        checkTrendingEnabled();
+        if (n == null || n < 1 || n > maxTopSize) {
+            throw new BadRequestError("Parameter n must be between 1 and " + maxTopSize + ": " + n);
+        }
+        return toPopularityDtos(trendingService.getTop(n));
+    }
+
+    @Override
+    public List<PopularityDto> getPopularity(List<String> uris) {
+        checkTrendingEnabled();
+        if (uris.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return toPopularityDtos(trendingService.getScores(hitDictionary.findUriIds(uris)));
+    }
+
+    private void checkTrendingEnabled() {
+        if (!trendingService.isEnabled()) {
+            throw new ServiceUnavailableError("Trending scores are disabled.");
         }
+    }
 
-        return stats.stream()
-                .map(result -> ViewStatsDto.builder()
-                        .app(result.getApp())
-                        .uri(result.getUri())
-                        .hits(result.getHits())
+    private List<PopularityDto> toPopularityDtos(Map<Integer, Double> scores) {
+        return scores.entrySet().stream()
+                .map(entry -> PopularityDto.builder()
+                        .uri(hitDictionary.uriPath(entry.getKey()))
+                        .score(entry.getValue())
                         .build())
                 .collect(Collectors.toList());
     }
+
+    @Transactional(readOnly = true)
+    @Override
+    public Map<String, Long> queryViews(StatsQueryDto query) {
+        validateRange(query.getStart(), query.getEnd());
+        List<String> uris = query.getUris();
+        if (uris != null && uris.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        boolean unique = Boolean.TRUE.equals(query.getUnique());
+        boolean exact = Boolean.TRUE.equals(query.getExact());
+        List<Integer> uriIds = uris == null ? null : hitDictionary.findUriIds(uris);
+        if (uriIds != null && uriIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> views = new HashMap<>();
+        for (ViewStatsProjection row : statsQueryPlanner.getStats(query.getStart(), query.getEnd(), uriIds, unique,
+                exact)) {
+            views.merge(hitDictionary.uriPath(row.getUriId()), row.getHits(), Long::sum);
+        }
+        return views;
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public List<VisitorSetDto> getVisitors(StatsQueryDto query) {
+        validateRange(query.getStart(), query.getEnd());
+        if (query.getUris() != null && query.getUris().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return visitorSetService.getVisitors(query);
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public void streamStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique,
+                            Consumer<ViewStatsDto> consumer) {
+        validateRange(start, end);
+        List<Integer> uriIds = uris == null ? null : hitDictionary.findUriIds(uris);
+        if (uriIds != null && uriIds.isEmpty()) {
+            return;
+        }
+        statsQueryPlanner.streamStats(start, end, uriIds, unique, row -> consumer.accept(toDto(row)));
+    }
+
+    private ViewStatsDto toDto(ViewStatsProjection result) {
+        return ViewStatsDto.builder()
+                .app(hitDictionary.appName(result.getAppId()))
+                .uri(hitDictionary.uriPath(result.getUriId()))
+                .hits(result.getHits())
+                .build();
+    }
+
+    private static void validateRange(LocalDateTime start, LocalDateTime end) {
+        if (start == null || end == null || start.isAfter(end)) {
+            throw new BadRequestError("Start/End date is not present, " +
+                    "or start date is before end date. start=" + start + ", end=" + end);
+        }
+    }
 }
@@ -0,0 +1,217 @@
+package ru.practicum.ewm.stats.server.service;
+
+import lombok.RequiredArgsConstructor;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.practicum.ewm.stats.dto.TimeSeriesDto;
+import ru.practicum.ewm.stats.dto.TimeSeriesPointDto;
+import ru.practicum.ewm.stats.server.archive.ArchiveService;
+import ru.practicum.ewm.stats.server.bucket.TimeGrain;
+import ru.practicum.ewm.stats.server.bucket.TimeSlicer;
+import ru.practicum.ewm.stats.server.compaction.CompactionService;
+import ru.practicum.ewm.stats.server.dictionary.HitDictionary;
+import ru.practicum.ewm.stats.server.error.BadRequestError;
+import ru.practicum.ewm.stats.server.model.TimeSeriesProjection;
+import ru.practicum.ewm.stats.server.repository.CompactionRepository;
+import ru.practicum.ewm.stats.server.repository.EndpointHitJdbcRepository;
+import ru.practicum.ewm.stats.server.repository.EndpointHitRepository;
+import ru.practicum.ewm.stats.server.repository.VisitorRepository;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hits and unique visitors per uri and time bucket over the raw, compacted and archived hits. A bucket usually
+ * comes from one of them, but late hits of a compacted or archived day are stored raw again; the visitors of such
+ * a bucket are united by IP instead of adding up the counts of its parts.
+ */
+@Service
+@RequiredArgsConstructor
+public class TimeSeriesService {
+    private final EndpointHitRepository endpointHitRepository;
+    private final EndpointHitJdbcRepository endpointHitJdbcRepository;
+    private final CompactionRepository compactionRepository;
+    private final VisitorRepository visitorRepository;
+    private final CompactionService compactionService;
+    private final ArchiveService archiveService;
+    private final StatsQueryPlanner statsQueryPlanner;
+    private final HitDictionary hitDictionary;
+
+    @Value("${stats.timeseries.max-buckets:10000}")
+    private int maxTimeSeriesBuckets;
+
+    public List<TimeSeriesDto> getTimeSeries(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                             String grainName) {
+        if (uris == null || uris.isEmpty()) {
+            throw new BadRequestError("Time series need at least one uri.");
+        }
+        TimeGrain grain;
+        try {
+            grain = TimeGrain.valueOf(grainName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestError("Unknown grain: " + grainName);
+        }
+        LocalDateTime first = grain.truncate(start);
+        long buckets = grain.between(first, grain.truncate(end)) + 1;
+        if (buckets > maxTimeSeriesBuckets) {
+            throw new BadRequestError("Time series of " + buckets + " buckets exceeds the limit of " +
+                    maxTimeSeriesBuckets + ".");
+        }
+
+        Map<Integer, Map<LocalDateTime, SeriesBucket>> bucketsByUri = new HashMap<>();
+        List<Integer> uriIds = hitDictionary.findUriIds(uris);
+        LocalDateTime exclusiveEnd = TimeSlicer.exclusiveEnd(end);
+        if (!uriIds.isEmpty()) {
+            for (TimeSeriesProjection row : endpointHitRepository.findTimeSeries(
+                    grain.name().toLowerCase(), start, end, uriIds)) {
+                bucket(bucketsByUri, row.getUriId(), row.getBucketStart().toLocalDateTime())
+                        .addRaw(row.getHits(), row.getUniqueHits());
+            }
+        }
+        if (!uriIds.isEmpty() && compactionService.isEnabled()) {
+            compactionRepository.forEachSecond(start, exclusiveEnd, uriIds, grain != TimeGrain.MINUTE,
+                    (compacted, hits, visitors) -> bucket(bucketsByUri, compacted.getUriId(),
+                            grain.truncate(compacted.getBucketStart())).addCompacted(hits, visitors));
+        }
+        LocalDateTime boundary = statsQueryPlanner.archiveBoundary(start);
+        if (!uriIds.isEmpty() && boundary != null) {
+            archiveService.forEachHit(start, exclusiveEnd.isAfter(boundary) ? boundary : exclusiveEnd, uriIds,
+                    (timestamp, appId, uriId, ip, count) -> bucket(bucketsByUri, uriId, grain.truncate(timestamp))
+                            .addArchived(count, ip));
+        }
+        uniteVisitors(grain, start, exclusiveEnd, bucketsByUri);
+
+        List<TimeSeriesDto> series = new ArrayList<>();
+        for (String uri : new LinkedHashSet<>(uris)) {
+            Map<LocalDateTime, SeriesBucket> uriBuckets = hitDictionary.findUriId(uri)
+                    .map(bucketsByUri::get)
+                    .orElse(Collections.emptyMap());
+            List<TimeSeriesPointDto> points = new ArrayList<>((int) buckets);
+            for (LocalDateTime bucketStart = first; !bucketStart.isAfter(end); bucketStart = grain.next(bucketStart)) {
+                SeriesBucket bucket = uriBuckets.get(bucketStart);
+                points.add(TimeSeriesPointDto.builder()
+                        .bucketStart(bucketStart)
+                        .hits(bucket == null ? 0L : bucket.hits)
+                        .uniqueHits(bucket == null ? 0L : bucket.uniqueHits())
+                        .build());
+            }
+            series.add(TimeSeriesDto.builder()
+                    .uri(uri)
+                    .grain(grain.name())
+                    .points(points)
+                    .build());
+        }
+        return series;
+    }
+
+    /**
+     * Collects the IPs of every part of the buckets with visitors from more than one source: the raw ones read
+     * again per bucket, the compacted ones mapped back from their visitor ids.
+     */
+    private void uniteVisitors(TimeGrain grain, LocalDateTime start, LocalDateTime exclusiveEnd,
+                               Map<Integer, Map<LocalDateTime, SeriesBucket>> bucketsByUri) {
+        Map<Integer, Map<LocalDateTime, SeriesBucket>> mixed = new HashMap<>();
+        LocalDateTime from = null;
+        LocalDateTime to = null;
+        boolean raw = false;
+        RoaringBitmap visitorIds = new RoaringBitmap();
+        for (Map.Entry<Integer, Map<LocalDateTime, SeriesBucket>> uri : bucketsByUri.entrySet()) {
+            for (Map.Entry<LocalDateTime, SeriesBucket> entry : uri.getValue().entrySet()) {
+                SeriesBucket bucket = entry.getValue();
+                if (!bucket.isMixed()) {
+                    continue;
+                }
+                mixed.computeIfAbsent(uri.getKey(), id -> new HashMap<>()).put(entry.getKey(), bucket);
+                if (bucket.rawVisitors > 0) {
+                    raw = true;
+                    from = from == null || entry.getKey().isBefore(from) ? entry.getKey() : from;
+                    to = to == null || entry.getKey().isAfter(to) ? entry.getKey() : to;
+                }
+                if (bucket.visitorIds != null) {
+                    visitorIds.or(bucket.visitorIds);
+                }
+            }
+        }
+        if (mixed.isEmpty()) {
+            return;
+        }
+        if (raw) {
+            LocalDateTime rawEnd = grain.next(to);
+            endpointHitJdbcRepository.forEachBucketVisitor(grain.name().toLowerCase(),
+                    from.isBefore(start) ? start : from, rawEnd.isAfter(exclusiveEnd) ? exclusiveEnd : rawEnd,
+                    mixed.keySet(), (uriId, bucketStart, ip) -> {
+                        SeriesBucket bucket = mixed.get(uriId).get(bucketStart);
+                        if (bucket != null) {
+                            bucket.ips.add(ByteBuffer.wrap(ip));
+                        }
+                    });
+        }
+        Map<Integer, byte[]> ips = visitorIds.isEmpty()
+                ? Collections.emptyMap()
+                : visitorRepository.findIps(visitorIds.toArray());
+        mixed.values().forEach(uriBuckets -> uriBuckets.values().forEach(bucket -> {
+            if (bucket.visitorIds != null) {
+                bucket.visitorIds.forEach((int visitorId) -> bucket.ips.add(ByteBuffer.wrap(ips.get(visitorId))));
+            }
+            bucket.united = true;
+        }));
+    }
+
+    private static SeriesBucket bucket(Map<Integer, Map<LocalDateTime, SeriesBucket>> bucketsByUri, int uriId,
+                                       LocalDateTime bucketStart) {
+        return bucketsByUri.computeIfAbsent(uriId, id -> new HashMap<>())
+                .computeIfAbsent(bucketStart, b -> new SeriesBucket());
+    }
+
+    /**
+     * One time series bucket. Archived visitors are kept as IPs, compacted ones as visitor ids and raw ones
+     * as the count of the database, until the bucket turns out to be mixed and all of them are collected as IPs.
+     */
+    private static class SeriesBucket {
+        private final Set<ByteBuffer> ips = new HashSet<>();
+        private RoaringBitmap visitorIds;
+        private long hits;
+        private long rawVisitors;
+        private boolean archived;
+        private boolean united;
+
+        void addRaw(long hits, long visitors) {
+            this.hits += hits;
+            rawVisitors += visitors;
+        }
+
+        void addCompacted(long hits, RoaringBitmap visitors) {
+            this.hits += hits;
+            if (visitorIds == null) {
+                visitorIds = new RoaringBitmap();
+            }
+            visitorIds.or(visitors);
+        }
+
+        void addArchived(long hits, byte[] ip) {
+            this.hits += hits;
+            archived = true;
+            ips.add(ByteBuffer.wrap(ip));
+        }
+
+        boolean isMixed() {
+            return (rawVisitors > 0 ? 1 : 0) + (visitorIds != null ? 1 : 0) + (archived ? 1 : 0) > 1;
+        }
+
+        long uniqueHits() {
+            if (united) {
+                return ips.size();
+            }
+            return rawVisitors + (visitorIds == null ? 0 : visitorIds.getLongCardinality()) + ips.size();
+        }
+    }
+}
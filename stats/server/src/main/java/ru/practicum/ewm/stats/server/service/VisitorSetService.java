@@ -0,0 +1,87 @@
+package ru.practicum.ewm.stats.server.service;
+
+import lombok.RequiredArgsConstructor;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Service;
+import ru.practicum.ewm.stats.dto.StatsQueryDto;
+import ru.practicum.ewm.stats.dto.VisitorSetDto;
+import ru.practicum.ewm.stats.server.archive.ArchiveService;
+import ru.practicum.ewm.stats.server.bucket.TimeSlicer;
+import ru.practicum.ewm.stats.server.dictionary.HitDictionary;
+import ru.practicum.ewm.stats.server.model.StatsKey;
+import ru.practicum.ewm.stats.server.repository.EndpointHitJdbcRepository;
+import ru.practicum.ewm.stats.server.repository.VisitorRepository;
+import ru.practicum.ewm.stats.server.sketch.Hashing;
+import ru.practicum.ewm.stats.server.sketch.VisitorBitmapService;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Visitor sets per app and uri for clients merging the unique counts of a uri stored on several servers,
+ * e.g. while shards are rebalanced. Visitors are given as hashes of their IPs, since visitor ids are local
+ * to a server.
+ */
+@Service
+@RequiredArgsConstructor
+public class VisitorSetService {
+    private final EndpointHitJdbcRepository endpointHitJdbcRepository;
+    private final VisitorRepository visitorRepository;
+    private final VisitorBitmapService visitorBitmapService;
+    private final ArchiveService archiveService;
+    private final StatsQueryPlanner statsQueryPlanner;
+    private final HitDictionary hitDictionary;
+
+    public List<VisitorSetDto> getVisitors(StatsQueryDto query) {
+        LocalDateTime start = query.getStart();
+        LocalDateTime end = query.getEnd();
+        List<Integer> uriIds = query.getUris() == null ? null : hitDictionary.findUriIds(query.getUris());
+        if (uriIds != null && uriIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<StatsKey, Set<Long>> visitors = new HashMap<>();
+        EndpointHitJdbcRepository.VisitorCallback collector = (appId, uriId, ip) -> visitors
+                .computeIfAbsent(new StatsKey(appId, uriId), key -> new HashSet<>())
+                .add(Hashing.hash64(ip));
+        LocalDateTime exclusiveEnd = TimeSlicer.exclusiveEnd(end);
+        LocalDateTime hotStart = start;
+        LocalDateTime boundary = statsQueryPlanner.archiveBoundary(start);
+        if (boundary != null) {
+            archiveService.forEachVisitor(start, exclusiveEnd.isAfter(boundary) ? boundary : exclusiveEnd, uriIds,
+                    collector);
+            hotStart = boundary;
+        }
+        if (hotStart.isBefore(exclusiveEnd)) {
+            if (statsQueryPlanner.uniqueSource(true) == StatsQueryPlanner.UniqueSource.BITMAPS) {
+                addBitmapVisitors(visitors, visitorBitmapService.collectBitmaps(hotStart, end, uriIds));
+            } else {
+                endpointHitJdbcRepository.forEachVisitor(hotStart, exclusiveEnd, uriIds, collector);
+            }
+        }
+
+        List<VisitorSetDto> sets = new ArrayList<>(visitors.size());
+        visitors.forEach((key, hashes) -> sets.add(VisitorSetDto.builder()
+                .app(hitDictionary.appName(key.getAppId()))
+                .uri(hitDictionary.uriPath(key.getUriId()))
+                .visitors(hashes.stream().mapToLong(Long::longValue).toArray())
+                .build()));
+        return sets;
+    }
+
+    private void addBitmapVisitors(Map<StatsKey, Set<Long>> visitors, Map<StatsKey, RoaringBitmap> bitmaps) {
+        if (bitmaps.isEmpty()) {
+            return;
+        }
+        Map<Integer, byte[]> ips = visitorRepository.findIps(RoaringBitmap.or(bitmaps.values().iterator()).toArray());
+        bitmaps.forEach((key, bitmap) -> {
+            Set<Long> hashes = visitors.computeIfAbsent(key, k -> new HashSet<>());
+            bitmap.forEach((int visitorId) -> hashes.add(Hashing.hash64(ips.get(visitorId))));
+        });
+    }
+}
@@ -0,0 +1,33 @@
+package ru.practicum.ewm.stats.server.sketch;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+public final class Bitmaps {
+    private Bitmaps() {
+    }
+
+    /**
+     * Portable roaring format with run containers where they are smaller; the bitmap itself is not modified.
+     */
+    public static byte[] toBytes(RoaringBitmap bitmap) {
+        RoaringBitmap compact = bitmap.clone();
+        compact.runOptimize();
+        ByteBuffer buffer = ByteBuffer.allocate(compact.serializedSizeInBytes());
+        compact.serialize(buffer);
+        return buffer.array();
+    }
+
+    public static RoaringBitmap fromBytes(byte[] bytes) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        try {
+            bitmap.deserialize(ByteBuffer.wrap(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bitmap;
+    }
+}
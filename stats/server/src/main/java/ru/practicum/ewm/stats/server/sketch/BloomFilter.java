@@ -0,0 +1,48 @@
+package ru.practicum.ewm.stats.server.sketch;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe Bloom filter over 64-bit hashes, sized for {@code expectedInsertions} at the given false positive
+ * rate. Probe positions are derived from one hash by double hashing.
+ */
+public class BloomFilter {
+    private final AtomicLongArray words;
+    private final long bits;
+    private final int probes;
+
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Bloom filter needs positive insertions and a rate in (0, 1)");
+        }
+        long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate)
+                / (Math.log(2) * Math.log(2)));
+        words = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE, (optimalBits + 63) / 64));
+        bits = words.length() * 64L;
+        probes = Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+    }
+
+    public void put(long hash) {
+        long step = Long.rotateLeft(hash, 32) | 1;
+        for (int i = 0; i < probes; i++) {
+            long bit = ((hash + i * step) & Long.MAX_VALUE) % bits;
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word;
+            do {
+                word = words.get(index);
+            } while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask));
+        }
+    }
+
+    public boolean mightContain(long hash) {
+        long step = Long.rotateLeft(hash, 32) | 1;
+        for (int i = 0; i < probes; i++) {
+            long bit = ((hash + i * step) & Long.MAX_VALUE) % bits;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
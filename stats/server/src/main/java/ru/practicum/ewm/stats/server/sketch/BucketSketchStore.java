@@ -0,0 +1,275 @@
+package ru.practicum.ewm.stats.server.sketch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.stats.server.bucket.TimeGrain;
+import ru.practicum.ewm.stats.server.bucket.TimeSlice;
+import ru.practicum.ewm.stats.server.bucket.TimeSlicer;
+import ru.practicum.ewm.stats.server.ingest.HitListener;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.model.StatsKey;
+import ru.practicum.ewm.stats.server.partition.RetentionListener;
+import ru.practicum.ewm.stats.server.repository.SketchRepository;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Mergeable sketches per app, uri and time bucket. Each ingest batch stores its sketches as deltas in the ingest
+ * transaction, which a flush later merges into the stored ones; readers merge both, so a committed hit is always
+ * counted. Sketches of the hits stored before are rebuilt by a backfill walking back from the present, and
+ * the buckets it has not reached yet are answered from the hits.
+ *
+ * @param <S> sketch type
+ * @param <V> value a hit adds to a sketch
+ */
+@Slf4j
+public abstract class BucketSketchStore<S, V> implements HitListener, RetentionListener {
+    private static final Comparator<SketchKey> KEY_ORDER = Comparator.comparing(SketchKey::getUriId)
+            .thenComparing(SketchKey::getBucketStart)
+            .thenComparing(SketchKey::getAppId);
+    private static final int FLUSH_BATCH_SIZE = 10_000;
+
+    private final SketchRepository sketchRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final String table;
+    private final TimeGrain grain;
+    private final boolean enabled;
+    private volatile LocalDateTime completeFrom = LocalDateTime.MAX;
+
+    protected BucketSketchStore(SketchRepository sketchRepository, PlatformTransactionManager transactionManager,
+                                String table, TimeGrain grain, boolean enabled) {
+        this.sketchRepository = sketchRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.table = table;
+        this.grain = grain;
+        this.enabled = enabled;
+    }
+
+    protected abstract S newSketch();
+
+    /**
+     * Values the hits add to their sketches, in the order of the hits. Runs in the ingest transaction.
+     */
+    protected abstract List<V> values(List<EndpointHit> hits);
+
+    protected abstract void add(S sketch, V value);
+
+    protected abstract void merge(S target, S source);
+
+    protected abstract byte[] serialize(S sketch);
+
+    protected abstract S deserialize(byte[] bytes);
+
+    /**
+     * Adds the visitors of the hits in {@code [from, to)}, raw and compacted, to the sketches per app and uri.
+     */
+    protected abstract void collectRaw(Map<StatsKey, S> result, LocalDateTime from, LocalDateTime to,
+                                       Collection<Integer> uriIds);
+
+    /**
+     * Runs in the backfill transaction before the hits of {@code [from, to)} are read.
+     */
+    protected void prepareBackfill(LocalDateTime from, LocalDateTime to) {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public TimeGrain getGrain() {
+        return grain;
+    }
+
+    /**
+     * Hits stored while the sketches are disabled are missing from them, so the backfill starts over
+     * once they are enabled again.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            transactionTemplate.executeWithoutResult(status -> sketchRepository.resetBackfill(table));
+            return;
+        }
+        completeFrom = sketchRepository.findCompleteFrom(table);
+    }
+
+    /**
+     * Stores the sketches of the hits as deltas in the ingest transaction, so they commit or roll back
+     * together with the hits.
+     */
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        if (!enabled) {
+            return;
+        }
+        List<V> values = values(hits);
+        Map<SketchKey, S> sketches = new HashMap<>();
+        for (int i = 0; i < hits.size(); i++) {
+            EndpointHit hit = hits.get(i);
+            SketchKey key = new SketchKey(hit.getAppId(), hit.getUriId(), grain.truncate(hit.getHitTimestamp()));
+            add(sketches.computeIfAbsent(key, k -> newSketch()), values.get(i));
+        }
+        Map<SketchKey, byte[]> deltas = new LinkedHashMap<>();
+        sketches.forEach((key, sketch) -> deltas.put(key, serialize(sketch)));
+        sketchRepository.insertDeltas(table, deltas);
+    }
+
+    /**
+     * Per app and uri sketches of {@code [from, to)}: stored sketches for the whole buckets the backfill
+     * has covered, the hits for the rest.
+     */
+    protected Map<StatsKey, S> collectRange(LocalDateTime from, LocalDateTime to, Collection<Integer> uriIds) {
+        Map<StatsKey, S> result = new HashMap<>();
+        LocalDateTime complete = completeFrom;
+        for (TimeSlice slice : TimeSlicer.slice(from, to, grain)) {
+            LocalDateTime split = slice.isRaw() ? slice.getTo() : max(slice.getFrom(), min(slice.getTo(), complete));
+            if (slice.getFrom().isBefore(split)) {
+                collectRaw(result, slice.getFrom(), split, uriIds);
+            }
+            if (split.isBefore(slice.getTo())) {
+                sketchRepository.forEach(table, split, slice.getTo(), uriIds,
+                        (key, bytes) -> mergeInto(result, key.toStatsKey(), deserialize(bytes)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops the sketches of the buckets starting before {@code cutoff}, stored and not yet folded.
+     */
+    @Override
+    public void onRetention(LocalDateTime cutoff) {
+        if (!enabled) {
+            return;
+        }
+        int deleted = transactionTemplate.execute(status -> sketchRepository.deleteBefore(table, cutoff));
+        if (deleted > 0) {
+            log.info("Удалено скетчей в {} старше {}: {}", table, cutoff, deleted);
+        }
+    }
+
+    protected void mergeInto(Map<StatsKey, S> result, StatsKey key, S sketch) {
+        S target = result.get(key);
+        if (target == null) {
+            target = newSketch();
+            result.put(key, target);
+        }
+        merge(target, sketch);
+    }
+
+    /**
+     * Merges the deltas into the stored sketches. Instances share the work: each locks its own deltas.
+     */
+    @Scheduled(fixedDelayString = "${stats.sketches.flush-interval-ms:5000}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            int folded;
+            do {
+                folded = transactionTemplate.execute(status -> foldDeltas());
+            } while (folded == FLUSH_BATCH_SIZE);
+        } catch (RuntimeException e) {
+            log.error("Не удалось сохранить скетчи в {}, повтор при следующем сбросе", table, e);
+        }
+    }
+
+    /**
+     * Rebuilds the sketches of one day of the history, going back from the present. Merging is idempotent,
+     * so the deltas of the hits stored meanwhile may be merged into the same buckets before or after.
+     */
+    @Scheduled(fixedDelayString = "${stats.sketches.backfill-interval-ms:1000}")
+    public void backfill() {
+        if (!enabled || completeFrom.equals(LocalDateTime.MIN)) {
+            return;
+        }
+        try {
+            completeFrom = transactionTemplate.execute(status -> backfillDay());
+        } catch (RuntimeException e) {
+            log.error("Не удалось построить скетчи в {} до {}, повтор позже", table, completeFrom, e);
+        }
+    }
+
+    private int foldDeltas() {
+        Map<SketchKey, S> sketches = new TreeMap<>(KEY_ORDER);
+        List<Long> deltaIds = new ArrayList<>();
+        sketchRepository.lockDeltas(table, FLUSH_BATCH_SIZE, (deltaId, key, bytes) -> {
+            deltaIds.add(deltaId);
+            S sketch = deserialize(bytes);
+            sketches.merge(key, sketch, (current, other) -> {
+                merge(current, other);
+                return current;
+            });
+        });
+        if (deltaIds.isEmpty()) {
+            return 0;
+        }
+        sketches.forEach(this::store);
+        sketchRepository.deleteDeltas(deltaIds);
+        log.debug("Сохранено скетчей в {}: {} из {} дельт", table, sketches.size(), deltaIds.size());
+        return deltaIds.size();
+    }
+
+    private LocalDateTime backfillDay() {
+        LocalDateTime complete = sketchRepository.lockCompleteFrom(table,
+                grain.next(grain.truncate(LocalDateTime.now())));
+        if (complete.equals(LocalDateTime.MIN)) {
+            return complete;
+        }
+        Optional<LocalDateTime> oldest = sketchRepository.findOldestHit();
+        if (oldest.isEmpty() || !oldest.get().isBefore(complete)) {
+            sketchRepository.updateCompleteFrom(table, LocalDateTime.MIN);
+            log.info("Скетчи в {} построены по всей истории", table);
+            return LocalDateTime.MIN;
+        }
+        LocalDateTime from = grain.truncate(max(oldest.get(), complete.minusDays(1)));
+        prepareBackfill(from, complete);
+        Map<SketchKey, S> sketches = new TreeMap<>(KEY_ORDER);
+        for (LocalDateTime bucket = from; bucket.isBefore(complete); bucket = grain.next(bucket)) {
+            Map<StatsKey, S> bucketSketches = new HashMap<>();
+            collectRaw(bucketSketches, bucket, grain.next(bucket), null);
+            for (Map.Entry<StatsKey, S> entry : bucketSketches.entrySet()) {
+                StatsKey key = entry.getKey();
+                sketches.put(new SketchKey(key.getAppId(), key.getUriId(), bucket), entry.getValue());
+            }
+        }
+        sketches.forEach(this::store);
+        sketchRepository.updateCompleteFrom(table, from);
+        log.info("Скетчи в {} построены с {}: {}", table, from, sketches.size());
+        return from;
+    }
+
+    /**
+     * Read-merge-write of one bucket; the row lock serializes flushes of several server instances,
+     * which lock the buckets in the same order.
+     */
+    private void store(SketchKey key, S sketch) {
+        if (sketchRepository.insertIfAbsent(table, key, serialize(sketch))) {
+            return;
+        }
+        S stored = deserialize(sketchRepository.findForUpdate(table, key));
+        merge(stored, sketch);
+        sketchRepository.update(table, key, serialize(stored));
+    }
+
+    private static LocalDateTime min(LocalDateTime first, LocalDateTime second) {
+        return first.isBefore(second) ? first : second;
+    }
+
+    private static LocalDateTime max(LocalDateTime first, LocalDateTime second) {
+        return first.isAfter(second) ? first : second;
+    }
+}
@@ -0,0 +1,40 @@
+package ru.practicum.ewm.stats.server.sketch;
+
+public final class Hashing {
+    private Hashing() {
+    }
+
+    /**
+     * 64-bit hash of a binary IP address with well mixed high bits, as sketches take register indexes from them.
+     */
+    public static long hash64(byte[] bytes) {
+        long hash = 0x9E3779B97F4A7C15L ^ bytes.length;
+        long word = 0;
+        int shift = 0;
+        for (byte b : bytes) {
+            word |= (b & 0xFFL) << shift;
+            shift += 8;
+            if (shift == 64) {
+                hash = fmix64(hash ^ word) * 0x9E3779B97F4A7C15L;
+                word = 0;
+                shift = 0;
+            }
+        }
+        if (shift > 0) {
+            hash = fmix64(hash ^ word) * 0x9E3779B97F4A7C15L;
+        }
+        return fmix64(hash);
+    }
+
+    /**
+     * MurmurHash3 finalizer.
+     */
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xFF51AFD7ED558CCDL;
+        k ^= k >>> 33;
+        k *= 0xC4CEB9FE1A85EC53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,154 @@
+package ru.practicum.ewm.stats.server.sketch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * HyperLogLog cardinality sketch with one byte per register. Sketches are mergeable: the union of two sets
+ * is estimated from the register-wise maximum, which also makes merging the same sketch twice harmless.
+ * Relative standard error is {@code 1.04 / sqrt(2^precision)}.
+ * <p>
+ * Serialized form: {@code byte format, byte precision}, then either all registers (dense)
+ * or {@code int count, (char index, byte value) x count} for the non-zero ones (sparse).
+ */
+public class HyperLogLog {
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+    private static final byte DENSE = 0;
+    private static final byte SPARSE = 1;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be in [4, 16]: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Smallest precision whose standard error does not exceed {@code relativeError}.
+     */
+    public static int precisionFor(double relativeError) {
+        int precision = (int) Math.ceil(2 * Math.log(1.04 / relativeError) / Math.log(2));
+        return Math.max(MIN_PRECISION, Math.min(MAX_PRECISION, precision));
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void add(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (registers[index] < rank) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * Adds the other sketch into this one. A sketch of higher precision is folded down to this precision;
+     * a sketch of lower precision cannot be merged without losing accuracy and is rejected.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision == precision) {
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] < other.registers[i]) {
+                    registers[i] = other.registers[i];
+                }
+            }
+            return;
+        }
+        if (other.precision < precision) {
+            throw new IllegalArgumentException("Cannot merge precision " + other.precision + " into " + precision);
+        }
+        int shift = other.precision - precision;
+        int mask = (1 << shift) - 1;
+        for (int i = 0; i < other.registers.length; i++) {
+            if (other.registers[i] == 0) {
+                continue;
+            }
+            int dropped = i & mask;
+            byte rank = dropped != 0
+                    ? (byte) (shift - (32 - Integer.numberOfLeadingZeros(dropped)) + 1)
+                    : (byte) (other.registers[i] + shift);
+            int index = i >>> shift;
+            if (registers[index] < rank) {
+                registers[index] = rank;
+            }
+        }
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public byte[] toBytes() {
+        int nonZero = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                nonZero++;
+            }
+        }
+        if (2 + 4 + nonZero * 3 < 2 + registers.length) {
+            ByteBuffer buffer = ByteBuffer.allocate(2 + 4 + nonZero * 3)
+                    .put(SPARSE)
+                    .put((byte) precision)
+                    .putInt(nonZero);
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] != 0) {
+                    buffer.putChar((char) i).put(registers[i]);
+                }
+            }
+            return buffer.array();
+        }
+        return ByteBuffer.allocate(2 + registers.length)
+                .put(DENSE)
+                .put((byte) precision)
+                .put(registers)
+                .array();
+    }
+
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte format = buffer.get();
+        HyperLogLog sketch = new HyperLogLog(buffer.get());
+        if (format == DENSE) {
+            buffer.get(sketch.registers);
+        } else {
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                sketch.registers[buffer.getChar()] = buffer.get();
+            }
+        }
+        return sketch;
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package ru.practicum.ewm.stats.server.sketch;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.practicum.ewm.stats.server.bucket.TimeGrain;
+import ru.practicum.ewm.stats.server.bucket.TimeSlicer;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.model.StatsKey;
+import ru.practicum.ewm.stats.server.model.ViewStatsProjection;
+import ru.practicum.ewm.stats.server.model.ViewStatsRow;
+import ru.practicum.ewm.stats.server.repository.CompactionRepository;
+import ru.practicum.ewm.stats.server.repository.EndpointHitJdbcRepository;
+import ru.practicum.ewm.stats.server.repository.SketchRepository;
+import ru.practicum.ewm.stats.server.repository.VisitorRepository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Approximate unique visitors: one HyperLogLog sketch of visitor IPs per app, uri and bucket.
+ * A range merges the sketches of the whole buckets inside it and adds the distinct IPs of the ragged edges
+ * read from raw hits and compacted history. The error bound is set with {@code stats.hll.relative-error}.
+ */
+@Service
+public class HyperLogLogService extends BucketSketchStore<HyperLogLog, Long> {
+    private static final String TABLE = "hits_hll_sketches";
+
+    private final EndpointHitJdbcRepository endpointHitJdbcRepository;
+    private final CompactionRepository compactionRepository;
+    private final VisitorRepository visitorRepository;
+    private final int precision;
+
+    public HyperLogLogService(SketchRepository sketchRepository,
+                              PlatformTransactionManager transactionManager,
+                              EndpointHitJdbcRepository endpointHitJdbcRepository,
+                              CompactionRepository compactionRepository,
+                              VisitorRepository visitorRepository,
+                              @Value("${stats.hll.enabled:true}") boolean enabled,
+                              @Value("${stats.hll.grain:DAY}") TimeGrain grain,
+                              @Value("${stats.hll.relative-error:0.01}") double relativeError) {
+        super(sketchRepository, transactionManager, TABLE, grain, enabled);
+        this.endpointHitJdbcRepository = endpointHitJdbcRepository;
+        this.compactionRepository = compactionRepository;
+        this.visitorRepository = visitorRepository;
+        this.precision = HyperLogLog.precisionFor(relativeError);
+    }
+
+    public List<ViewStatsProjection> getUniqueStats(LocalDateTime start, LocalDateTime end,
+                                                    Collection<Integer> uriIds) {
+        return collectSketches(start, end, uriIds).entrySet().stream()
+                .map(entry -> new ViewStatsRow(entry.getKey().getAppId(), entry.getKey().getUriId(),
+                        entry.getValue().estimate()))
+                .sorted(Comparator.comparing(ViewStatsRow::getHits).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Per app and uri sketches of {@code [start, end]}, to be merged with those of adjacent ranges.
+     */
+    public Map<StatsKey, HyperLogLog> collectSketches(LocalDateTime start, LocalDateTime end, Collection<Integer> uriIds) {
+        return collectRange(start, TimeSlicer.exclusiveEnd(end), uriIds);
+    }
+
+    @Override
+    protected void collectRaw(Map<StatsKey, HyperLogLog> sketches, LocalDateTime from, LocalDateTime to,
+                              Collection<Integer> uriIds) {
+        endpointHitJdbcRepository.forEachVisitor(from, to, uriIds, (appId, uriId, ip) ->
+                sketches.computeIfAbsent(new StatsKey(appId, uriId), key -> newSketch()).add(Hashing.hash64(ip)));
+        addCompactedVisitors(sketches, from, to, uriIds);
+    }
+
+    /**
+     * Compacted history keeps visitor ids instead of IPs; they are mapped back to IPs to be hashed.
+     */
+    private void addCompactedVisitors(Map<StatsKey, HyperLogLog> sketches, LocalDateTime from, LocalDateTime to,
+                                      Collection<Integer> uriIds) {
+        Map<StatsKey, RoaringBitmap> visitors = new HashMap<>();
+        compactionRepository.forEachSecond(from, to, uriIds, true, (bucket, hits, bitmap) -> visitors
+                .computeIfAbsent(bucket.toStatsKey(), key -> new RoaringBitmap())
+                .or(bitmap));
+        if (visitors.isEmpty()) {
+            return;
+        }
+        Map<Integer, byte[]> ips = visitorRepository.findIps(RoaringBitmap.or(visitors.values().iterator()).toArray());
+        visitors.forEach((key, bitmap) -> {
+            HyperLogLog sketch = sketches.computeIfAbsent(key, k -> newSketch());
+            bitmap.forEach((int visitorId) -> sketch.add(Hashing.hash64(ips.get(visitorId))));
+        });
+    }
+
+    @Override
+    protected HyperLogLog newSketch() {
+        return new HyperLogLog(precision);
+    }
+
+    @Override
+    protected List<Long> values(List<EndpointHit> hits) {
+        return hits.stream()
+                .map(hit -> Hashing.hash64(hit.getIp()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    protected void add(HyperLogLog sketch, Long hash) {
+        sketch.add(hash);
+    }
+
+    @Override
+    protected void merge(HyperLogLog target, HyperLogLog source) {
+        target.merge(source);
+    }
+
+    @Override
+    protected byte[] serialize(HyperLogLog sketch) {
+        return sketch.toBytes();
+    }
+
+    @Override
+    protected HyperLogLog deserialize(byte[] bytes) {
+        return HyperLogLog.fromBytes(bytes);
+    }
+}
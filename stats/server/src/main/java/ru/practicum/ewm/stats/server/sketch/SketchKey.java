@@ -0,0 +1,17 @@
+package ru.practicum.ewm.stats.server.sketch;
+
+import lombok.Value;
+import ru.practicum.ewm.stats.server.model.StatsKey;
+
+import java.time.LocalDateTime;
+
+@Value
+public class SketchKey {
+    int appId;
+    int uriId;
+    LocalDateTime bucketStart;
+
+    public StatsKey toStatsKey() {
+        return new StatsKey(appId, uriId);
+    }
+}
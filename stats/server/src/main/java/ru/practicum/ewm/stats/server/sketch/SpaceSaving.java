@@ -0,0 +1,79 @@
+package ru.practicum.ewm.stats.server.sketch;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Space-Saving heavy hitters summary over a stream of weighted items, in memory bounded by {@code capacity}.
+ * An item outside the summary replaces the smallest counter and inherits its count as the error bound,
+ * so every reported count overestimates the true one by at most {@link Counter#getError()}, and every item
+ * with a true count above {@code total / capacity} is reported.
+ */
+public class SpaceSaving<K> {
+    private static final Comparator<Counter<?>> ORDER = Comparator.<Counter<?>>comparingLong(Counter::getCount)
+            .thenComparingLong(counter -> counter.sequence);
+
+    private final int capacity;
+    private final Map<K, Counter<K>> counters = new HashMap<>();
+    private final TreeSet<Counter<K>> byCount = new TreeSet<>(ORDER);
+    private long sequence;
+
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    public void offer(K item, long weight) {
+        Counter<K> counter = counters.get(item);
+        if (counter != null) {
+            byCount.remove(counter);
+            counter.count += weight;
+        } else if (counters.size() < capacity) {
+            counter = new Counter<>(item, weight, 0);
+            counters.put(item, counter);
+        } else {
+            Counter<K> smallest = byCount.pollFirst();
+            counters.remove(smallest.item);
+            counter = new Counter<>(item, smallest.count + weight, smallest.count);
+            counters.put(item, counter);
+        }
+        counter.sequence = sequence++;
+        byCount.add(counter);
+    }
+
+    /**
+     * Up to {@code n} items with the largest estimated counts, largest first.
+     */
+    public List<Counter<K>> top(int n) {
+        List<Counter<K>> top = new ArrayList<>(Math.min(n, counters.size()));
+        for (Counter<K> counter : byCount.descendingSet()) {
+            if (top.size() == n) {
+                break;
+            }
+            top.add(counter);
+        }
+        return top;
+    }
+
+    @Getter
+    public static class Counter<K> {
+        private final K item;
+        private long count;
+        private final long error;
+        private long sequence;
+
+        private Counter(K item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ru.practicum.ewm.stats.server.sketch;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.practicum.ewm.stats.server.bucket.TimeGrain;
+import ru.practicum.ewm.stats.server.bucket.TimeSlicer;
+import ru.practicum.ewm.stats.server.dictionary.VisitorDictionary;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.model.StatsKey;
+import ru.practicum.ewm.stats.server.model.ViewStatsProjection;
+import ru.practicum.ewm.stats.server.model.ViewStatsRow;
+import ru.practicum.ewm.stats.server.repository.CompactionRepository;
+import ru.practicum.ewm.stats.server.repository.EndpointHitJdbcRepository;
+import ru.practicum.ewm.stats.server.repository.SketchRepository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Exact unique visitors: one roaring bitmap of visitor ids per app, uri and day. A range ORs the bitmaps
+ * of the whole days inside it and adds the visitor ids of the partial days read from raw hits and compacted history.
+ * Hits stored before the bitmaps were enabled are added by the backfill.
+ */
+@Service
+public class VisitorBitmapService extends BucketSketchStore<RoaringBitmap, Integer> {
+    private static final String TABLE = "hits_visitor_bitmaps";
+
+    private final VisitorDictionary visitorDictionary;
+    private final EndpointHitJdbcRepository endpointHitJdbcRepository;
+    private final CompactionRepository compactionRepository;
+
+    public VisitorBitmapService(SketchRepository sketchRepository,
+                                PlatformTransactionManager transactionManager,
+                                VisitorDictionary visitorDictionary,
+                                EndpointHitJdbcRepository endpointHitJdbcRepository,
+                                CompactionRepository compactionRepository,
+                                @Value("${stats.bitmaps.enabled:true}") boolean enabled) {
+        super(sketchRepository, transactionManager, TABLE, TimeGrain.DAY, enabled);
+        this.visitorDictionary = visitorDictionary;
+        this.endpointHitJdbcRepository = endpointHitJdbcRepository;
+        this.compactionRepository = compactionRepository;
+    }
+
+    public List<ViewStatsProjection> getUniqueStats(LocalDateTime start, LocalDateTime end,
+                                                    Collection<Integer> uriIds) {
+        return collectBitmaps(start, end, uriIds).entrySet().stream()
+                .map(entry -> new ViewStatsRow(entry.getKey().getAppId(), entry.getKey().getUriId(),
+                        entry.getValue().getLongCardinality()))
+                .sorted(Comparator.comparing(ViewStatsRow::getHits).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Per app and uri visitor bitmaps of {@code [start, end]}, to be merged with those of adjacent ranges.
+     */
+    public Map<StatsKey, RoaringBitmap> collectBitmaps(LocalDateTime start, LocalDateTime end, Collection<Integer> uriIds) {
+        return collectRange(start, TimeSlicer.exclusiveEnd(end), uriIds);
+    }
+
+    @Override
+    protected void collectRaw(Map<StatsKey, RoaringBitmap> bitmaps, LocalDateTime from, LocalDateTime to,
+                              Collection<Integer> uriIds) {
+        endpointHitJdbcRepository.forEachVisitorId(from, to, uriIds, (appId, uriId, visitorId) -> bitmaps
+                .computeIfAbsent(new StatsKey(appId, uriId), key -> newSketch())
+                .add(visitorId));
+        compactionRepository.forEachSecond(from, to, uriIds, true, (bucket, hits, visitors) ->
+                mergeInto(bitmaps, bucket.toStatsKey(), visitors));
+    }
+
+    /**
+     * Hits stored while the bitmaps were disabled may have IPs without a visitor id yet.
+     */
+    @Override
+    protected void prepareBackfill(LocalDateTime from, LocalDateTime to) {
+        compactionRepository.createVisitors(from, to);
+    }
+
+    @Override
+    protected RoaringBitmap newSketch() {
+        return new RoaringBitmap();
+    }
+
+    @Override
+    protected List<Integer> values(List<EndpointHit> hits) {
+        return visitorDictionary.visitorIds(hits.stream()
+                .map(EndpointHit::getIp)
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    protected void add(RoaringBitmap bitmap, Integer visitorId) {
+        bitmap.add(visitorId);
+    }
+
+    @Override
+    protected void merge(RoaringBitmap target, RoaringBitmap source) {
+        target.or(source);
+    }
+
+    @Override
+    protected byte[] serialize(RoaringBitmap bitmap) {
+        return Bitmaps.toBytes(bitmap);
+    }
+
+    @Override
+    protected RoaringBitmap deserialize(byte[] bytes) {
+        return Bitmaps.fromBytes(bytes);
+    }
+}
@@ -0,0 +1,56 @@
+package ru.practicum.ewm.stats.server.top;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import ru.practicum.ewm.stats.server.counter.InMemoryCounterService;
+import ru.practicum.ewm.stats.server.model.StatsKey;
+import ru.practicum.ewm.stats.server.model.ViewStatsProjection;
+import ru.practicum.ewm.stats.server.model.ViewStatsRow;
+import ru.practicum.ewm.stats.server.repository.EndpointHitRepository;
+import ru.practicum.ewm.stats.server.rollup.RollupService;
+import ru.practicum.ewm.stats.server.sketch.SpaceSaving;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Most viewed apps and uris of a range. Exact mode keeps only the current top in a bounded heap, either over
+ * the in-memory counters or in the database as a sorted query with a limit. Approximate mode streams
+ * the rollup buckets of the range through a Space-Saving summary, so neither side groups every uri.
+ */
+@Service
+@RequiredArgsConstructor
+public class TopStatsService {
+    private final InMemoryCounterService inMemoryCounterService;
+    private final RollupService rollupService;
+    private final EndpointHitRepository endpointHitRepository;
+
+    @Value("${stats.top.counters-per-item:10}")
+    private int countersPerItem;
+
+    public List<ViewStatsProjection> getTopStats(LocalDateTime start, LocalDateTime end, int n, boolean exact) {
+        if (!exact && rollupService.isEnabled()) {
+            return getApproximateTopStats(start, end, n);
+        }
+        return inMemoryCounterService.getTopStats(start, end, n)
+                .orElseGet(() -> rollupService.isEnabled()
+                        ? rollupService.getTopStats(start, end, n)
+                        : endpointHitRepository.findTopStats(start, end, PageRequest.of(0, n)));
+    }
+
+    /**
+     * Counts may overestimate by the error of their Space-Saving counter.
+     */
+    private List<ViewStatsProjection> getApproximateTopStats(LocalDateTime start, LocalDateTime end, int n) {
+        SpaceSaving<StatsKey> summary = new SpaceSaving<>(n * countersPerItem);
+        rollupService.streamBucketStats(start, end, row ->
+                summary.offer(new StatsKey(row.getAppId(), row.getUriId()), row.getHits()));
+        return summary.top(n).stream()
+                .map(counter -> new ViewStatsRow(counter.getItem().getAppId(), counter.getItem().getUriId(),
+                        counter.getCount()))
+                .collect(Collectors.toList());
+    }
+}
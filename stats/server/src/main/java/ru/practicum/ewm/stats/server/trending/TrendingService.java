@@ -0,0 +1,188 @@
+package ru.practicum.ewm.stats.server.trending;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.stats.server.ingest.HitListener;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.repository.EndpointHitJdbcRepository;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Exponentially decayed popularity per uri with a half-life of {@code stats.trending.half-life-minutes}.
+ * Scores use forward decay: a view at time {@code t} adds {@code exp(lambda * (t - landmark))} to a weight that
+ * never decays, so an update is one addition and the ranking only moves for the uri that was viewed; the score
+ * at {@code now} is the weight times {@code exp(-lambda * (now - landmark))}. The landmark moves forward before
+ * the weights overflow, scaling all of them by the same factor. The ranking is a tree kept ordered by weight.
+ * Warmed up on start from the hits of the last ten half-lives; older ones weigh less than a thousandth.
+ */
+@Slf4j
+@Service
+public class TrendingService implements HitListener {
+    private static final Comparator<Score> RANKING = Comparator.comparingDouble((Score score) -> score.weight)
+            .reversed()
+            .thenComparingInt(score -> score.uriId);
+    private static final double MAX_EXPONENT = 500;
+    private static final double MIN_WEIGHT = 1e-300;
+    private static final int WARM_UP_HALF_LIVES = 10;
+
+    private final EndpointHitJdbcRepository endpointHitJdbcRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final long halfLifeSeconds;
+    private final double lambda;
+    private final Map<Integer, Score> scores = new HashMap<>();
+    private TreeSet<Score> ranking = new TreeSet<>(RANKING);
+    private long landmark = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+
+    public TrendingService(EndpointHitJdbcRepository endpointHitJdbcRepository,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${stats.trending.enabled:true}") boolean enabled,
+                           @Value("${stats.trending.half-life-minutes:60}") long halfLifeMinutes) {
+        this.endpointHitJdbcRepository = endpointHitJdbcRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.enabled = enabled;
+        this.halfLifeSeconds = halfLifeMinutes * 60;
+        this.lambda = Math.log(2) / halfLifeSeconds;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        transactionTemplate.executeWithoutResult(status -> endpointHitJdbcRepository.forEachHit(
+                now.minusSeconds(halfLifeSeconds * WARM_UP_HALF_LIVES), now,
+                (timestamp, appId, uriId, ip, count) -> add(uriId, timestamp, count)));
+        log.info("Рейтинг популярности загружен: uri={}", scores.size());
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(hits);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                apply(hits);
+            }
+        });
+    }
+
+    /**
+     * The {@code n} most popular uris by current score, largest first.
+     */
+    public synchronized Map<Integer, Double> getTop(int n) {
+        double decay = decayAt(LocalDateTime.now());
+        Map<Integer, Double> top = new LinkedHashMap<>();
+        Iterator<Score> iterator = ranking.iterator();
+        while (top.size() < n && iterator.hasNext()) {
+            Score score = iterator.next();
+            top.put(score.uriId, score.weight * decay);
+        }
+        return top;
+    }
+
+    /**
+     * Current scores of the uris, largest first; uris never viewed are absent.
+     */
+    public synchronized Map<Integer, Double> getScores(Collection<Integer> uriIds) {
+        double decay = decayAt(LocalDateTime.now());
+        List<Score> found = new ArrayList<>();
+        for (Integer uriId : uriIds) {
+            Score score = scores.get(uriId);
+            if (score != null) {
+                found.add(score);
+            }
+        }
+        found.sort(RANKING);
+        Map<Integer, Double> result = new LinkedHashMap<>();
+        found.forEach(score -> result.put(score.uriId, score.weight * decay));
+        return result;
+    }
+
+    private synchronized void apply(List<EndpointHit> hits) {
+        LocalDateTime now = LocalDateTime.now();
+        for (EndpointHit hit : hits) {
+            add(hit.getUriId(), hit.getHitTimestamp().isAfter(now) ? now : hit.getHitTimestamp(), hit.getHitCount());
+        }
+    }
+
+    private synchronized void add(int uriId, LocalDateTime timestamp, int count) {
+        double exponent = lambda * (timestamp.toEpochSecond(ZoneOffset.UTC) - landmark);
+        if (exponent > MAX_EXPONENT) {
+            moveLandmark(timestamp.toEpochSecond(ZoneOffset.UTC));
+            exponent = 0;
+        }
+        Score score = scores.get(uriId);
+        if (score == null) {
+            score = new Score(uriId);
+            scores.put(uriId, score);
+        } else {
+            ranking.remove(score);
+        }
+        score.weight += count * Math.exp(exponent);
+        ranking.add(score);
+    }
+
+    /**
+     * Rescales every weight to the new landmark and forgets the uris whose weight vanished.
+     */
+    private void moveLandmark(long newLandmark) {
+        double factor = Math.exp(-lambda * (newLandmark - landmark));
+        TreeSet<Score> rescaled = new TreeSet<>(RANKING);
+        Iterator<Score> iterator = scores.values().iterator();
+        while (iterator.hasNext()) {
+            Score score = iterator.next();
+            score.weight *= factor;
+            if (score.weight < MIN_WEIGHT) {
+                iterator.remove();
+            } else {
+                rescaled.add(score);
+            }
+        }
+        ranking = rescaled;
+        landmark = newLandmark;
+        log.info("Точка отсчета рейтинга популярности перенесена, uri={}", scores.size());
+    }
+
+    private double decayAt(LocalDateTime now) {
+        return Math.exp(-lambda * (now.toEpochSecond(ZoneOffset.UTC) - landmark));
+    }
+
+    private static final class Score {
+        private final int uriId;
+        private double weight;
+
+        private Score(int uriId) {
+            this.uriId = uriId;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+-- Databases created before this migration may hold a hits table that is not partitioned: the first schema
+-- with textual app, uri and ip columns or an early dictionary-encoded one. It is renamed out of the way
+-- and its rows are converted at the end of the migration.
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_class WHERE oid = to_regclass('hits') AND relkind = 'r') THEN
+        ALTER TABLE hits RENAME TO hits_legacy;
+        ALTER INDEX IF EXISTS hits_pkey RENAME TO hits_legacy_pkey;
+    END IF;
+END
+$$;
+
+CREATE TABLE IF NOT EXISTS apps
+(
+    app_id   INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    app_name VARCHAR(64) NOT NULL,
+    CONSTRAINT uq_app_name UNIQUE (app_name)
+);
+
+CREATE TABLE IF NOT EXISTS uris
+(
+    uri_id   INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    uri_path VARCHAR(256) NOT NULL,
+    CONSTRAINT uq_uri_path UNIQUE (uri_path)
+);
+
+CREATE TABLE IF NOT EXISTS hits
+(
+    hits_id        BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    hits_app_id    INTEGER                     NOT NULL REFERENCES apps (app_id),
+    hits_uri_id    INTEGER                     NOT NULL REFERENCES uris (uri_id),
+    hits_ip        BYTEA                       NOT NULL,
+    hits_timestamp TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    hits_count     INTEGER                     NOT NULL DEFAULT 1,
+    PRIMARY KEY (hits_id, hits_timestamp)
+) PARTITION BY RANGE (hits_timestamp);
+
+ALTER TABLE hits ADD COLUMN IF NOT EXISTS hits_count INTEGER NOT NULL DEFAULT 1;
+
+CREATE TABLE IF NOT EXISTS hits_default PARTITION OF hits DEFAULT;
+
+CREATE INDEX IF NOT EXISTS hits_timestamp_uri_idx ON hits (hits_timestamp, hits_uri_id);
+
+CREATE TABLE IF NOT EXISTS hits_rollups
+(
+    rollup_grain VARCHAR(8)                  NOT NULL,
+    app_id       INTEGER                     NOT NULL,
+    uri_id       INTEGER                     NOT NULL,
+    bucket_start TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    hits_count   BIGINT                      NOT NULL,
+    PRIMARY KEY (rollup_grain, uri_id, bucket_start, app_id)
+);
+
+CREATE INDEX IF NOT EXISTS hits_rollups_bucket_idx ON hits_rollups (rollup_grain, bucket_start);
+
+CREATE TABLE IF NOT EXISTS hits_hll_sketches
+(
+    app_id       INTEGER                     NOT NULL,
+    uri_id       INTEGER                     NOT NULL,
+    bucket_start TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    sketch       BYTEA                       NOT NULL,
+    PRIMARY KEY (uri_id, bucket_start, app_id)
+);
+
+CREATE INDEX IF NOT EXISTS hits_hll_sketches_bucket_idx ON hits_hll_sketches (bucket_start);
+
+CREATE TABLE IF NOT EXISTS visitors
+(
+    visitor_id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    visitor_ip BYTEA NOT NULL,
+    CONSTRAINT uq_visitor_ip UNIQUE (visitor_ip)
+);
+
+CREATE TABLE IF NOT EXISTS hits_visitor_bitmaps
+(
+    app_id       INTEGER                     NOT NULL,
+    uri_id       INTEGER                     NOT NULL,
+    bucket_start TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    sketch       BYTEA                       NOT NULL,
+    PRIMARY KEY (uri_id, bucket_start, app_id)
+);
+
+CREATE INDEX IF NOT EXISTS hits_visitor_bitmaps_bucket_idx ON hits_visitor_bitmaps (bucket_start);
+
+CREATE TABLE IF NOT EXISTS hits_compacted
+(
+    app_id       INTEGER                     NOT NULL,
+    uri_id       INTEGER                     NOT NULL,
+    bucket_start TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    hits_count   BIGINT                      NOT NULL,
+    sketch       BYTEA                       NOT NULL,
+    PRIMARY KEY (uri_id, bucket_start, app_id)
+);
+
+CREATE INDEX IF NOT EXISTS hits_compacted_bucket_idx ON hits_compacted (bucket_start);
+
+CREATE TABLE IF NOT EXISTS hits_archive_segments
+(
+    segment_day  DATE PRIMARY KEY,
+    segment_file VARCHAR(128) NOT NULL,
+    segment_rows BIGINT       NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS hits_journal_checkpoints
+(
+    segment_name   VARCHAR(64) PRIMARY KEY,
+    segment_offset INTEGER     NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS hits_ids
+(
+    hit_id      VARCHAR(64)                 PRIMARY KEY,
+    received_at TIMESTAMP WITHOUT TIME ZONE NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS hits_ids_received_idx ON hits_ids (received_at);
+
+-- Converts a textual IP address to the stored form, see IpAddressMapper: network byte order,
+-- IPv4-mapped IPv6 addresses as IPv4. Returns null for values that are not IP addresses.
+CREATE FUNCTION pg_temp.legacy_ip(ip TEXT) RETURNS BYTEA AS $$
+DECLARE
+    address BYTEA;
+BEGIN
+    address := substring(inet_send(host(ip::inet)::inet) FROM 5);
+    IF length(address) = 16 AND substring(address FROM 1 FOR 12) = '\x00000000000000000000ffff'::bytea THEN
+        address := substring(address FROM 13);
+    END IF;
+    RETURN address;
+EXCEPTION
+    WHEN invalid_text_representation THEN
+        RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
+
+-- Moves the rows of a renamed legacy hits table into the partitioned one and counts them in the rollups,
+-- which only see hits written through the application. Sketches and bitmaps are backfilled on startup.
+DO $$
+DECLARE
+    has_count BOOLEAN;
+BEGIN
+    IF to_regclass('hits_legacy') IS NULL THEN
+        RETURN;
+    END IF;
+    CREATE TEMPORARY TABLE hits_converted ON COMMIT DROP AS SELECT * FROM hits WITH NO DATA;
+    IF EXISTS (SELECT 1 FROM information_schema.columns
+               WHERE table_schema = current_schema() AND table_name = 'hits_legacy' AND column_name = 'hits_app') THEN
+        INSERT INTO apps (app_name) SELECT DISTINCT hits_app FROM hits_legacy ON CONFLICT DO NOTHING;
+        INSERT INTO uris (uri_path) SELECT DISTINCT hits_uri FROM hits_legacy ON CONFLICT DO NOTHING;
+        INSERT INTO hits_converted (hits_app_id, hits_uri_id, hits_ip, hits_timestamp, hits_count)
+        SELECT a.app_id, u.uri_id, l.ip, l.hits_timestamp, 1
+        FROM (SELECT hits_app, hits_uri, pg_temp.legacy_ip(hits_ip) AS ip, hits_timestamp FROM hits_legacy) l
+                 JOIN apps a ON a.app_name = l.hits_app
+                 JOIN uris u ON u.uri_path = l.hits_uri
+        WHERE l.ip IS NOT NULL;
+    ELSE
+        has_count := EXISTS (SELECT 1 FROM information_schema.columns
+                             WHERE table_schema = current_schema() AND table_name = 'hits_legacy'
+                               AND column_name = 'hits_count');
+        EXECUTE 'INSERT INTO hits_converted (hits_app_id, hits_uri_id, hits_ip, hits_timestamp, hits_count) ' ||
+                'SELECT hits_app_id, hits_uri_id, hits_ip, hits_timestamp, ' ||
+                CASE WHEN has_count THEN 'hits_count' ELSE '1' END || ' FROM hits_legacy';
+    END IF;
+    INSERT INTO hits (hits_app_id, hits_uri_id, hits_ip, hits_timestamp, hits_count)
+    SELECT hits_app_id, hits_uri_id, hits_ip, hits_timestamp, hits_count FROM hits_converted;
+    INSERT INTO hits_rollups (rollup_grain, app_id, uri_id, bucket_start, hits_count)
+    SELECT g.grain, h.hits_app_id, h.hits_uri_id, date_trunc(lower(g.grain), h.hits_timestamp), sum(h.hits_count)
+    FROM hits_converted h
+             CROSS JOIN (VALUES ('DAY'), ('HOUR'), ('MINUTE')) AS g(grain)
+    GROUP BY 1, 2, 3, 4
+    ON CONFLICT (rollup_grain, uri_id, bucket_start, app_id)
+        DO UPDATE SET hits_count = hits_rollups.hits_count + excluded.hits_count;
+    DROP TABLE hits_legacy;
+END
+$$;
@@ -0,0 +1,7 @@
+-- Client-supplied hit ids are stored with the hits instead of a separate table, so the deduplication
+-- lookup is only needed for ids its filters may have seen.
+ALTER TABLE hits ADD COLUMN IF NOT EXISTS hits_hit_id VARCHAR(64);
+
+CREATE INDEX IF NOT EXISTS hits_hit_id_idx ON hits (hits_hit_id) WHERE hits_hit_id IS NOT NULL;
+
+DROP TABLE IF EXISTS hits_ids;
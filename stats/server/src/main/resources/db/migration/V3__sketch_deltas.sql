@@ -0,0 +1,22 @@
+-- Sketch changes of each ingest batch, written in the ingest transaction and folded into the sketch tables
+-- by the flusher, so that a crash between the two loses nothing.
+CREATE TABLE IF NOT EXISTS hits_sketch_deltas
+(
+    delta_id     BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    sketch_table VARCHAR(64)                 NOT NULL,
+    app_id       INTEGER                     NOT NULL,
+    uri_id       INTEGER                     NOT NULL,
+    bucket_start TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    sketch       BYTEA                       NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS hits_sketch_deltas_bucket_idx ON hits_sketch_deltas (sketch_table, bucket_start);
+
+-- Progress of rebuilding a sketch table from the stored hits: its sketches are complete for the buckets
+-- starting at complete_from or later, and for all buckets once complete_from is NULL. Without a row
+-- nothing is known to be complete, e.g. for hits stored before the sketches were enabled.
+CREATE TABLE IF NOT EXISTS hits_sketch_backfill
+(
+    sketch_table  VARCHAR(64) PRIMARY KEY,
+    complete_from TIMESTAMP WITHOUT TIME ZONE
+);
@@ -0,0 +1,37 @@
+-- Compacted history per app, uri and hour instead of per second: the hour's count and visitor bitmap answer
+-- the ranges covering it, the parallel per-second arrays answer the edges of the others.
+ALTER TABLE hits_compacted RENAME TO hits_compacted_seconds;
+ALTER TABLE hits_compacted_seconds DROP CONSTRAINT hits_compacted_pkey;
+DROP INDEX IF EXISTS hits_compacted_bucket_idx;
+
+CREATE TABLE hits_compacted
+(
+    app_id          INTEGER                     NOT NULL,
+    uri_id          INTEGER                     NOT NULL,
+    bucket_start    TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    hits_count      BIGINT                      NOT NULL,
+    sketch          BYTEA,
+    second_offsets  INTEGER[]                   NOT NULL,
+    second_hits     BIGINT[]                    NOT NULL,
+    second_visitors BYTEA[]                     NOT NULL,
+    PRIMARY KEY (uri_id, bucket_start, app_id)
+);
+
+CREATE INDEX IF NOT EXISTS hits_compacted_bucket_idx ON hits_compacted (bucket_start);
+
+-- The bitmaps of the seconds cannot be merged in SQL, so converted hours have no hour bitmap and readers take
+-- the union of their seconds instead.
+INSERT INTO hits_compacted (app_id, uri_id, bucket_start, hits_count, sketch, second_offsets, second_hits,
+                            second_visitors)
+SELECT app_id,
+       uri_id,
+       date_trunc('hour', bucket_start),
+       sum(hits_count),
+       NULL,
+       array_agg(extract(epoch FROM bucket_start - date_trunc('hour', bucket_start))::INTEGER ORDER BY bucket_start),
+       array_agg(hits_count ORDER BY bucket_start),
+       array_agg(sketch ORDER BY bucket_start)
+FROM hits_compacted_seconds
+GROUP BY app_id, uri_id, date_trunc('hour', bucket_start);
+
+DROP TABLE hits_compacted_seconds;
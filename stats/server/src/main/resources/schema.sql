@@ -1,10 +0,0 @@
-DROP TABLE IF EXISTS hits;
-
-CREATE TABLE IF NOT EXISTS hits
-(
-    hits_id        BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
-    hits_app       VARCHAR(64)                 NOT NULL,
-    hits_uri       VARCHAR(256)                NOT NULL,
-    hits_ip        VARCHAR(32)                 NOT NULL,
-    hits_timestamp TIMESTAMP WITHOUT TIME ZONE NOT NULL
-);
\ No newline at end of file
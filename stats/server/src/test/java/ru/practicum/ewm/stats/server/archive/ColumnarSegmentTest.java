@@ -0,0 +1,180 @@
+package ru.practicum.ewm.stats.server.archive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ColumnarSegmentTest {
+    private static final long SECOND = 1_000_000;
+    private static final long BASE = LocalDateTime.of(2024, 3, 1, 0, 0).toEpochSecond(ZoneOffset.UTC) * SECOND;
+    private static final long DAY_END = BASE + 86_400 * SECOND;
+    private static final byte[] IP_1 = {10, 0, 0, 1};
+    private static final byte[] IP_2 = {10, 0, 0, 2};
+    private static final byte[] IP_3 = {10, 0, 0, 3};
+    private static final byte[] IP_6 = {0x20, 0x01, 0x0d, (byte) 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsRowsInTimeOrder() throws IOException {
+        ColumnarSegment segment = write(sampleBuilder());
+
+        assertEquals(4, segment.getRows());
+        assertEquals(List.of(
+                row(BASE + 60 * SECOND, 2, 10, IP_6, 3),
+                row(BASE + 3_600 * SECOND, 1, 10, IP_1, 1),
+                row(BASE + 3_600 * SECOND, 1, 10, IP_3, 1),
+                row(BASE + 7_200 * SECOND, 1, 20, IP_2, 2)), rows(segment, BASE, DAY_END, null));
+    }
+
+    @Test
+    void countsFromSummaryAndFromColumnsAlike() throws IOException {
+        ColumnarSegment segment = write(sampleBuilder());
+
+        assertEquals(Map.of("1/10", 2L, "2/10", 3L, "1/20", 2L), counts(segment, BASE, DAY_END, null));
+        assertEquals(Map.of("1/10", 2L, "2/10", 3L, "1/20", 2L), counts(segment, BASE + 1, DAY_END, null));
+        assertEquals(Map.of("1/10", 2L), counts(segment, BASE + 3_600 * SECOND, BASE + 7_200 * SECOND, null));
+        assertEquals(Map.of("1/20", 2L), counts(segment, BASE, DAY_END, Set.of(20)));
+        assertEquals(Map.of(), counts(segment, BASE, DAY_END, Set.of(30)));
+    }
+
+    @Test
+    void filtersRowsByRangeAndUri() throws IOException {
+        ColumnarSegment segment = write(sampleBuilder());
+
+        assertEquals(List.of(row(BASE + 60 * SECOND, 2, 10, IP_6, 3)),
+                rows(segment, BASE, BASE + 3_600 * SECOND, null));
+        assertEquals(List.of(row(BASE + 7_200 * SECOND, 1, 20, IP_2, 2)), rows(segment, BASE, DAY_END, Set.of(20)));
+        assertEquals(List.of(), rows(segment, DAY_END, DAY_END + SECOND, null));
+    }
+
+    @Test
+    void keepsSubSecondTimestamps() throws IOException {
+        SegmentBuilder builder = new SegmentBuilder(BASE);
+        builder.add(BASE + 2 * SECOND, 1, 10, IP_1, 1);
+        builder.add(BASE + 1_500_001, 1, 10, IP_2, 1);
+
+        ColumnarSegment segment = write(builder);
+
+        assertEquals(List.of(row(BASE + 1_500_001, 1, 10, IP_2, 1), row(BASE + 2 * SECOND, 1, 10, IP_1, 1)),
+                rows(segment, BASE, DAY_END, null));
+    }
+
+    @Test
+    void writesEmptySegment() throws IOException {
+        ColumnarSegment segment = write(new SegmentBuilder(BASE));
+
+        assertEquals(0, segment.getRows());
+        assertEquals(List.of(), rows(segment, BASE, DAY_END, null));
+    }
+
+    @Test
+    void leavesNoTemporaryFile() throws IOException {
+        write(sampleBuilder());
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of("day.seg"), files.map(file -> file.getFileName().toString())
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void readsVersionOneSegmentsAsSingleViews() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(ColumnarSegment.MAGIC);
+        out.writeInt(1);
+        out.writeLong(BASE);
+        out.writeLong(BASE + 10 * SECOND);
+        out.writeLong(BASE + 15 * SECOND);
+        out.writeInt((int) SECOND);
+        out.writeInt(2);
+        out.writeInt(1);
+        out.writeInt(5);
+        out.writeInt(1);
+        out.writeInt(7);
+        byte[] summary = {1, 0, 0, 2};
+        byte[] timestamps = {10, 5};
+        byte[] codes = {0, 0};
+        out.writeInt(summary.length);
+        out.writeInt(timestamps.length);
+        out.writeInt(codes.length);
+        out.writeInt(codes.length);
+        out.write(summary);
+        out.write(timestamps);
+        out.write(codes);
+        out.write(codes);
+        out.write(IP_1.length);
+        out.write(IP_1);
+        out.write(IP_2.length);
+        out.write(IP_2);
+        Path file = directory.resolve("v1.seg");
+        Files.write(file, bytes.toByteArray());
+
+        ColumnarSegment segment = ColumnarSegment.open(file);
+
+        assertEquals(List.of(row(BASE + 10 * SECOND, 5, 7, IP_1, 1), row(BASE + 15 * SECOND, 5, 7, IP_2, 1)),
+                rows(segment, BASE, DAY_END, null));
+        assertEquals(Map.of("5/7", 2L), counts(segment, BASE, DAY_END, null));
+        assertEquals(Map.of("5/7", 1L), counts(segment, BASE + 12 * SECOND, DAY_END, null));
+    }
+
+    @Test
+    void rejectsUnknownFiles() throws IOException {
+        Path file = directory.resolve("other.seg");
+        Files.write(file, new byte[64]);
+
+        assertThrows(IllegalStateException.class, () -> ColumnarSegment.open(file));
+    }
+
+    private static SegmentBuilder sampleBuilder() {
+        SegmentBuilder builder = new SegmentBuilder(BASE);
+        builder.add(BASE + 3_600 * SECOND, 1, 10, IP_1, 1);
+        builder.add(BASE + 60 * SECOND, 2, 10, IP_6, 3);
+        builder.add(BASE + 7_200 * SECOND, 1, 20, IP_2, 2);
+        builder.add(BASE + 3_600 * SECOND, 1, 10, IP_3, 1);
+        return builder;
+    }
+
+    private ColumnarSegment write(SegmentBuilder builder) throws IOException {
+        Path file = directory.resolve("day.seg");
+        builder.write(file);
+        return ColumnarSegment.open(file);
+    }
+
+    private static List<String> rows(ColumnarSegment segment, long from, long to, Set<Integer> uris) {
+        List<String> rows = new ArrayList<>();
+        segment.forEachHit(from, to, uris, (timestamp, appId, uriId, ip, count) ->
+                rows.add(row(timestamp, appId, uriId, ip, count)));
+        return rows;
+    }
+
+    private static Map<String, Long> counts(ColumnarSegment segment, long from, long to, Set<Integer> uris) {
+        Map<String, Long> counts = new HashMap<>();
+        segment.count(from, to, uris, (appId, uriId, hits) -> counts.merge(appId + "/" + uriId, hits, Long::sum));
+        return counts;
+    }
+
+    private static String row(long timestamp, int appId, int uriId, byte[] ip, int count) {
+        return timestamp + " " + appId + "/" + uriId + " " + Arrays.toString(ip) + " x" + count;
+    }
+}
@@ -0,0 +1,106 @@
+package ru.practicum.ewm.stats.server.bucket;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimeSlicerTest {
+    private static final TimeGrain[] GRAINS = {TimeGrain.DAY, TimeGrain.HOUR, TimeGrain.MINUTE};
+
+    @Test
+    void coversRaggedEdgesWithFinerGrainsAndRawSlices() {
+        LocalDateTime from = LocalDateTime.of(2024, 3, 1, 22, 17, 30, 500_000_000);
+        LocalDateTime to = LocalDateTime.of(2024, 3, 4, 1, 2, 3);
+
+        assertEquals(List.of(
+                new TimeSlice(null, from, at(1, 22, 18)),
+                new TimeSlice(TimeGrain.MINUTE, at(1, 22, 18), at(1, 23, 0)),
+                new TimeSlice(TimeGrain.HOUR, at(1, 23, 0), at(2, 0, 0)),
+                new TimeSlice(TimeGrain.DAY, at(2, 0, 0), at(4, 0, 0)),
+                new TimeSlice(TimeGrain.HOUR, at(4, 0, 0), at(4, 1, 0)),
+                new TimeSlice(TimeGrain.MINUTE, at(4, 1, 0), at(4, 1, 2)),
+                new TimeSlice(null, at(4, 1, 2), to)), TimeSlicer.slice(from, to, GRAINS));
+    }
+
+    @Test
+    void coversAlignedRangesWithWholeBucketsOnly() {
+        assertEquals(List.of(new TimeSlice(TimeGrain.HOUR, at(1, 10, 0), at(1, 12, 0))),
+                TimeSlicer.slice(at(1, 10, 0), at(1, 12, 0), GRAINS));
+        assertEquals(List.of(new TimeSlice(TimeGrain.DAY, at(1, 0, 0), at(3, 0, 0))),
+                TimeSlicer.slice(at(1, 0, 0), at(3, 0, 0), GRAINS));
+    }
+
+    @Test
+    void readsRangesWithinOneMinuteRaw() {
+        LocalDateTime from = at(1, 10, 0).plusSeconds(5);
+        LocalDateTime to = at(1, 10, 0).plusSeconds(50);
+
+        assertEquals(List.of(new TimeSlice(null, from, to)), TimeSlicer.slice(from, to, GRAINS));
+        assertEquals(List.of(new TimeSlice(null, at(1, 10, 0), at(1, 12, 0))),
+                TimeSlicer.slice(at(1, 10, 0), at(1, 12, 0)));
+    }
+
+    @Test
+    void returnsNoSlicesForEmptyRanges() {
+        assertTrue(TimeSlicer.slice(at(1, 10, 0), at(1, 10, 0), GRAINS).isEmpty());
+        assertTrue(TimeSlicer.slice(at(1, 11, 0), at(1, 10, 0), GRAINS).isEmpty());
+    }
+
+    @Test
+    void extendsInclusiveEndsByOneMicrosecond() {
+        LocalDateTime end = at(1, 23, 59).plusSeconds(59).plusNanos(999_999_000);
+
+        assertEquals(at(2, 0, 0), TimeSlicer.exclusiveEnd(end));
+        assertEquals(List.of(new TimeSlice(TimeGrain.DAY, at(1, 0, 0), at(2, 0, 0))),
+                TimeSlicer.slice(at(1, 0, 0), TimeSlicer.exclusiveEnd(end), GRAINS));
+    }
+
+    @Test
+    void tilesRandomRangesWithAlignedSlicesCoarsestInTheMiddle() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1_000; i++) {
+            LocalDateTime from = at(1, 0, 0).plusSeconds(random.nextInt(5 * 24 * 3600));
+            LocalDateTime to = from.plusSeconds(1 + random.nextInt(5 * 24 * 3600));
+            List<TimeSlice> slices = TimeSlicer.slice(from, to, GRAINS);
+
+            assertEquals(from, slices.get(0).getFrom());
+            assertEquals(to, slices.get(slices.size() - 1).getTo());
+            int coarsest = 0;
+            for (int s = 0; s < slices.size(); s++) {
+                TimeSlice slice = slices.get(s);
+                assertTrue(slice.getFrom().isBefore(slice.getTo()), slice.toString());
+                if (s > 0) {
+                    assertEquals(slices.get(s - 1).getTo(), slice.getFrom());
+                }
+                if (!slice.isRaw()) {
+                    assertEquals(slice.getGrain().truncate(slice.getFrom()), slice.getFrom(), slice.toString());
+                    assertEquals(slice.getGrain().truncate(slice.getTo()), slice.getTo(), slice.toString());
+                }
+                if (rank(slice) > rank(slices.get(coarsest))) {
+                    coarsest = s;
+                }
+            }
+            for (int s = 0; s < slices.size(); s++) {
+                assertTrue(rank(slices.get(s)) <= rank(slices.get(coarsest)), slices.toString());
+                if (s < coarsest) {
+                    assertTrue(rank(slices.get(s)) <= rank(slices.get(s + 1)), slices.toString());
+                } else if (s > coarsest) {
+                    assertTrue(rank(slices.get(s)) <= rank(slices.get(s - 1)), slices.toString());
+                }
+            }
+        }
+    }
+
+    private static int rank(TimeSlice slice) {
+        return slice.isRaw() ? -1 : slice.getGrain().ordinal();
+    }
+
+    private static LocalDateTime at(int day, int hour, int minute) {
+        return LocalDateTime.of(2024, 3, day, hour, minute);
+    }
+}
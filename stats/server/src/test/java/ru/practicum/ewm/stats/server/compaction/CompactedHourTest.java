@@ -0,0 +1,157 @@
+package ru.practicum.ewm.stats.server.compaction;
+
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+import ru.practicum.ewm.stats.server.sketch.Bitmaps;
+import ru.practicum.ewm.stats.server.sketch.SketchKey;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CompactedHourTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 11, 58, 0);
+    private static final List<LocalDateTime[]> RANGES = List.of(
+            range(START.truncatedTo(ChronoUnit.DAYS), START.truncatedTo(ChronoUnit.DAYS).plusDays(1)),
+            range(LocalDateTime.of(2024, 3, 1, 12, 0), LocalDateTime.of(2024, 3, 1, 13, 0)),
+            range(LocalDateTime.of(2024, 3, 1, 11, 59, 50), LocalDateTime.of(2024, 3, 1, 12, 0, 10)),
+            range(LocalDateTime.of(2024, 3, 1, 12, 15, 7), LocalDateTime.of(2024, 3, 1, 12, 15, 8)),
+            range(LocalDateTime.of(2024, 3, 1, 11, 59, 45), LocalDateTime.of(2024, 3, 1, 13, 0, 15)),
+            range(LocalDateTime.of(2024, 3, 1, 12, 30), LocalDateTime.of(2024, 3, 1, 14, 0)));
+
+    private final List<RawHit> raw = rawHits();
+
+    @Test
+    void givesTheSameNumbersAsTheRawHits() {
+        Collection<CompactedHour> hours = compact(raw).values();
+
+        for (LocalDateTime[] range : RANGES) {
+            assertSameNumbers(range[0], range[1], hours);
+        }
+    }
+
+    @Test
+    void givesTheSameNumbersAfterStoring() {
+        List<CompactedHour> stored = new ArrayList<>();
+        List<CompactedHour> converted = new ArrayList<>();
+        for (CompactedHour hour : compact(raw).values()) {
+            stored.add(CompactedHour.of(hour.getKey(), hour.getHits(), Bitmaps.toBytes(hour.getVisitors()),
+                    hour.getSecondOffsets(), hour.getSecondHits(), hour.getSecondVisitors()));
+            converted.add(CompactedHour.of(hour.getKey(), hour.getHits(), null,
+                    hour.getSecondOffsets(), hour.getSecondHits(), hour.getSecondVisitors()));
+        }
+
+        for (LocalDateTime[] range : RANGES) {
+            assertSameNumbers(range[0], range[1], stored);
+            assertSameNumbers(range[0], range[1], converted);
+        }
+    }
+
+    @Test
+    void mergesHoursCompactedSeparately() {
+        Map<SketchKey, CompactedHour> hours = compact(raw.subList(0, raw.size() / 2));
+        compact(raw.subList(raw.size() / 2, raw.size())).forEach((key, hour) -> {
+            CompactedHour target = hours.get(key);
+            if (target == null) {
+                hours.put(key, hour);
+            } else {
+                target.merge(hour);
+            }
+        });
+
+        for (LocalDateTime[] range : RANGES) {
+            assertSameNumbers(range[0], range[1], hours.values());
+        }
+    }
+
+    @Test
+    void givesWholeHoursAsOneBucket() {
+        List<SketchKey> buckets = new ArrayList<>();
+        for (CompactedHour hour : compact(raw).values()) {
+            hour.forEach(LocalDateTime.of(2024, 3, 1, 11, 59, 59), LocalDateTime.of(2024, 3, 1, 13, 0), true,
+                    (bucket, hits, visitors) -> buckets.add(bucket));
+        }
+
+        assertEquals(List.of(new SketchKey(1, 7, LocalDateTime.of(2024, 3, 1, 11, 59, 59)),
+                new SketchKey(1, 7, LocalDateTime.of(2024, 3, 1, 12, 0))), buckets);
+    }
+
+    private void assertSameNumbers(LocalDateTime from, LocalDateTime to, Collection<CompactedHour> hours) {
+        Map<LocalDateTime, Long> rawSeconds = new TreeMap<>();
+        Map<LocalDateTime, Long> rawHours = new TreeMap<>();
+        RoaringBitmap rawVisitors = new RoaringBitmap();
+        for (RawHit hit : raw) {
+            if (!hit.timestamp.isBefore(from) && hit.timestamp.isBefore(to)) {
+                rawSeconds.merge(hit.timestamp, hit.count, Long::sum);
+                rawHours.merge(hit.timestamp.truncatedTo(ChronoUnit.HOURS), hit.count, Long::sum);
+                rawVisitors.add(hit.visitorId);
+            }
+        }
+
+        Map<LocalDateTime, Long> seconds = new TreeMap<>();
+        Map<LocalDateTime, Long> byHour = new TreeMap<>();
+        RoaringBitmap visitors = new RoaringBitmap();
+        RoaringBitmap wholeHourVisitors = new RoaringBitmap();
+        for (CompactedHour hour : hours) {
+            hour.forEach(from, to, false, (bucket, hits, bitmap) -> {
+                seconds.merge(bucket.getBucketStart(), hits, Long::sum);
+                visitors.or(bitmap);
+            });
+            hour.forEach(from, to, true, (bucket, hits, bitmap) -> {
+                byHour.merge(bucket.getBucketStart().truncatedTo(ChronoUnit.HOURS), hits, Long::sum);
+                wholeHourVisitors.or(bitmap);
+            });
+        }
+
+        String message = from + " - " + to;
+        assertEquals(rawSeconds, seconds, message);
+        assertEquals(rawHours, byHour, message);
+        assertEquals(rawVisitors, visitors, message);
+        assertEquals(rawVisitors, wholeHourVisitors, message);
+    }
+
+    /**
+     * Folds the hits the way the compaction does, one hour of the app and uri at a time.
+     */
+    private static Map<SketchKey, CompactedHour> compact(List<RawHit> hits) {
+        Map<SketchKey, CompactedHour> hours = new LinkedHashMap<>();
+        for (RawHit hit : hits) {
+            LocalDateTime start = hit.timestamp.truncatedTo(ChronoUnit.HOURS);
+            hours.computeIfAbsent(new SketchKey(1, 7, start), CompactedHour::new)
+                    .add((int) ChronoUnit.SECONDS.between(start, hit.timestamp), hit.visitorId, hit.count);
+        }
+        return hours;
+    }
+
+    private static List<RawHit> rawHits() {
+        List<RawHit> hits = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            int visitorId = (i * 31) % 97;
+            hits.add(new RawHit(START.plusSeconds((i * 37L) % 3_900), visitorId, 1 + i % 3));
+        }
+        return hits;
+    }
+
+    private static LocalDateTime[] range(LocalDateTime from, LocalDateTime to) {
+        return new LocalDateTime[]{from, to};
+    }
+
+    private static class RawHit {
+        private final LocalDateTime timestamp;
+        private final int visitorId;
+        private final long count;
+
+        RawHit(LocalDateTime timestamp, int visitorId, long count) {
+            this.timestamp = timestamp;
+            this.visitorId = visitorId;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package ru.practicum.ewm.stats.server.counter;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import ru.practicum.ewm.stats.server.bucket.TimeGrain;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.model.ViewStatsProjection;
+import ru.practicum.ewm.stats.server.model.ViewStatsRow;
+import ru.practicum.ewm.stats.server.repository.EndpointHitJdbcRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryCounterServiceTest {
+    private static final LocalDateTime DAY = LocalDateTime.of(2024, 3, 1, 0, 0);
+
+    private final FakeHitRepository repository = new FakeHitRepository();
+    private final InMemoryCounterService service = new InMemoryCounterService(repository,
+            new NoTransactionManager(), true, TimeGrain.HOUR);
+
+    @Test
+    void answersAlignedRangesFromMemoryOnly() {
+        ingest(hit(1, 10, at(10, 15), 1), hit(1, 10, at(11, 30), 2), hit(2, 10, at(12, 45), 1));
+
+        assertEquals(Map.of("1/10", 3L, "2/10", 1L), stats(at(10, 0), at(13, 0).minusNanos(1_000)));
+        assertTrue(repository.edges.isEmpty());
+    }
+
+    @Test
+    void readsRaggedEdgesFromTheDatabase() {
+        ingest(hit(1, 10, at(10, 15), 1), hit(1, 10, at(11, 30), 2), hit(2, 10, at(12, 45), 1));
+
+        assertEquals(Map.of("1/10", 2L, "2/10", 1L), stats(at(10, 30), at(12, 50)));
+        assertEquals(List.of(at(10, 30) + "/" + at(11, 0), at(12, 0) + "/" + at(12, 50).plusNanos(1_000)),
+                repository.edges);
+    }
+
+    @Test
+    void countsEdgeHitsStoredByOtherWriters() {
+        ingest(hit(1, 10, at(10, 15), 1), hit(1, 10, at(12, 45), 1));
+        repository.stored.add(hit(1, 10, at(10, 40), 5));
+
+        assertEquals(Map.of("1/10", 5L), stats(at(10, 30), at(12, 10)));
+    }
+
+    @Test
+    void answersRangesShorterThanABucketFromTheDatabase() {
+        ingest(hit(1, 10, at(10, 15), 1), hit(1, 10, at(10, 45), 1), hit(1, 10, at(11, 15), 1));
+
+        assertEquals(Map.of("1/10", 1L), stats(at(10, 30), at(10, 50)));
+        assertEquals(1, repository.edges.size());
+    }
+
+    @Test
+    void skipsEdgesOutsideTheKnownHits() {
+        ingest(hit(1, 10, at(10, 15), 1), hit(1, 10, at(11, 15), 1));
+
+        assertEquals(Map.of("1/10", 2L), stats(at(9, 30), at(11, 20)));
+        assertEquals(List.of(at(11, 0) + "/" + at(11, 20).plusNanos(1_000)), repository.edges);
+        assertEquals(Map.of(), stats(at(13, 30), at(14, 10)));
+        assertEquals(1, repository.edges.size());
+    }
+
+    @Test
+    void loadsBucketsOnStart() {
+        repository.stored.add(hit(1, 10, at(10, 15), 3));
+        repository.stored.add(hit(1, 20, at(11, 15), 1));
+
+        service.load();
+
+        assertEquals(Map.of("1/10", 3L, "1/20", 1L), stats(at(0, 0), at(23, 59)));
+    }
+
+    @Test
+    void selectsTopStatsIncludingEdges() {
+        ingest(hit(1, 10, at(10, 15), 3), hit(1, 20, at(11, 15), 2), hit(1, 30, at(12, 5), 1));
+        repository.stored.add(hit(1, 30, at(12, 10), 4));
+
+        List<ViewStatsProjection> top = service.getTopStats(at(10, 0), at(12, 30), 2).orElseThrow();
+
+        assertEquals(List.of(new ViewStatsRow(1, 30, 5L), new ViewStatsRow(1, 10, 3L)), top);
+    }
+
+    @Test
+    void dropsBucketsBeforeTheRetentionCutoff() {
+        ingest(hit(1, 10, at(10, 15), 1), hit(1, 10, at(11, 15), 1));
+
+        service.onRetention(at(11, 0));
+
+        assertEquals(Map.of("1/10", 1L), stats(at(0, 0), at(23, 59)));
+    }
+
+    private void ingest(EndpointHit... hits) {
+        repository.stored.addAll(List.of(hits));
+        service.onHits(List.of(hits));
+    }
+
+    private Map<String, Long> stats(LocalDateTime start, LocalDateTime end) {
+        return service.getNotUniqueStats(start, end, null).orElseThrow().stream()
+                .collect(Collectors.toMap(row -> row.getAppId() + "/" + row.getUriId(), ViewStatsProjection::getHits));
+    }
+
+    private static LocalDateTime at(int hour, int minute) {
+        return DAY.plusHours(hour).plusMinutes(minute);
+    }
+
+    private static EndpointHit hit(int appId, int uriId, LocalDateTime timestamp, int count) {
+        EndpointHit hit = new EndpointHit();
+        hit.setAppId(appId);
+        hit.setUriId(uriId);
+        hit.setHitTimestamp(timestamp);
+        hit.setHitCount(count);
+        return hit;
+    }
+
+    /**
+     * Hits table in memory; records the ranges read for the edges.
+     */
+    private static class FakeHitRepository extends EndpointHitJdbcRepository {
+        private final List<EndpointHit> stored = new ArrayList<>();
+        private final List<String> edges = new ArrayList<>();
+
+        FakeHitRepository() {
+            super(null, null);
+        }
+
+        @Override
+        public void forEachBucketCount(String grain, BucketCountCallback callback) {
+            for (EndpointHit hit : stored) {
+                callback.accept(hit.getAppId(), hit.getUriId(), TimeGrain.valueOf(grain.toUpperCase())
+                        .truncate(hit.getHitTimestamp()), hit.getHitCount());
+            }
+        }
+
+        @Override
+        public List<ViewStatsProjection> sumHits(LocalDateTime from, LocalDateTime to, Collection<Integer> uriIds) {
+            edges.add(from + "/" + to);
+            Map<List<Integer>, Long> counts = new HashMap<>();
+            for (EndpointHit hit : stored) {
+                if (!hit.getHitTimestamp().isBefore(from) && hit.getHitTimestamp().isBefore(to)
+                        && (uriIds == null || uriIds.contains(hit.getUriId()))) {
+                    counts.merge(List.of(hit.getAppId(), hit.getUriId()), (long) hit.getHitCount(), Long::sum);
+                }
+            }
+            return counts.entrySet().stream()
+                    .map(entry -> new ViewStatsRow(entry.getKey().get(0), entry.getKey().get(1), entry.getValue()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static class NoTransactionManager implements PlatformTransactionManager {
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ru.practicum.ewm.stats.server.ingest;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.stats.dto.EndpointHitDto;
+import ru.practicum.ewm.stats.server.error.BadRequestError;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HitCopyLoaderTest {
+    private static final LocalDateTime TIMESTAMP = LocalDateTime.of(2024, 3, 1, 12, 30, 15);
+
+    @Test
+    void parsesRowWithoutCount() {
+        EndpointHitDto hit = HitCopyLoader.parse("ewm-main-service,/events/1,192.168.0.1,2024-03-01 12:30:15");
+
+        assertEquals("ewm-main-service", hit.getApp());
+        assertEquals("/events/1", hit.getUri());
+        assertEquals("192.168.0.1", hit.getIp());
+        assertEquals(TIMESTAMP, hit.getHitTimestamp());
+        assertNull(hit.getCount());
+    }
+
+    @Test
+    void parsesRowWithCount() {
+        EndpointHitDto hit = HitCopyLoader.parse("ewm-main-service,/events/1,192.168.0.1,2024-03-01 12:30:15,12");
+
+        assertEquals(12, hit.getCount());
+    }
+
+    @Test
+    void parsesQuotedFields() {
+        EndpointHitDto hit = HitCopyLoader.parse("\"ewm, main\",\"/events?q=\"\"a,b\"\"\",::1,2024-03-01 12:30:15");
+
+        assertEquals("ewm, main", hit.getApp());
+        assertEquals("/events?q=\"a,b\"", hit.getUri());
+        assertEquals("::1", hit.getIp());
+    }
+
+    @Test
+    void rejectsMalformedRows() {
+        assertThrows(BadRequestError.class, () -> HitCopyLoader.parse("ewm-main-service,/events/1,192.168.0.1"));
+        assertThrows(BadRequestError.class, () -> HitCopyLoader.parse("a,b,c,2024-03-01 12:30:15,1,2"));
+        assertThrows(DateTimeParseException.class, () -> HitCopyLoader.parse("a,b,c,2024-03-01T12:30:15"));
+        assertThrows(NumberFormatException.class, () -> HitCopyLoader.parse("a,b,c,2024-03-01 12:30:15,many"));
+    }
+
+    @Test
+    void writesCopyRowsWithEscapedBinaryIp() {
+        EndpointHit hit = new EndpointHit();
+        hit.setAppId(1);
+        hit.setUriId(42);
+        hit.setIp(new byte[]{(byte) 192, (byte) 168, 0, 10});
+        hit.setHitTimestamp(TIMESTAMP);
+        hit.setHitCount(3);
+        StringBuilder rows = new StringBuilder();
+
+        HitCopyLoader.appendRow(rows, hit);
+
+        assertEquals("1\t42\t\\\\xc0a8000a\t2024-03-01 12:30:15\t3\n", rows.toString());
+    }
+}
@@ -0,0 +1,148 @@
+package ru.practicum.ewm.stats.server.ingest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.repository.HitIdRepository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HitDeduplicatorTest {
+    private final FakeHitIdRepository repository = new FakeHitIdRepository();
+    private final HitDeduplicator deduplicator = new HitDeduplicator(repository, new SimpleMeterRegistry(), true,
+            1_000, 0.01);
+
+    @Test
+    void dropsRepeatedIds() {
+        assertEquals(List.of("a", "b"), write("a", "b"));
+
+        assertEquals(List.of("c"), write("a", "c", "b"));
+        assertTrue(repository.lookedUp.containsAll(List.of("a", "b")));
+    }
+
+    @Test
+    void dropsRepeatsWithinOneBatch() {
+        assertEquals(List.of("a", "b"), write("a", "b", "a"));
+    }
+
+    @Test
+    void keepsHitsWithoutId() {
+        List<EndpointHit> hits = hits(null, null);
+
+        assertEquals(2, deduplicator.filter(hits).size());
+        assertEquals(2, deduplicator.filter(hits).size());
+        assertTrue(repository.lookedUp.isEmpty());
+    }
+
+    @Test
+    void skipsLookupForIdsTheFiltersHaveNotSeen() {
+        write("a", "b", "c");
+        write("d");
+
+        assertTrue(repository.lookedUp.isEmpty());
+    }
+
+    @Test
+    void previousFilterStillCatchesIdsAfterOneRotation() {
+        write("a");
+        deduplicator.rotate();
+
+        assertEquals(List.of(), write("a"));
+        assertEquals(List.of("a"), repository.lookedUp);
+    }
+
+    @Test
+    void forgetsIdsAfterTwoRotations() {
+        write("a");
+        deduplicator.rotate();
+        deduplicator.rotate();
+
+        assertEquals(List.of("a"), write("a"));
+        assertTrue(repository.lookedUp.isEmpty());
+    }
+
+    @Test
+    void looksUpEveryIdUntilTwoWindowsPassedSinceStart() {
+        repository.stored.add("a");
+        deduplicator.start();
+
+        assertEquals(List.of("b"), write("a", "b"));
+        deduplicator.rotate();
+        assertEquals(List.of("c"), write("c"));
+        assertEquals(List.of("a", "b", "c"), repository.lookedUp);
+
+        deduplicator.rotate();
+        assertEquals(List.of("d"), write("d"));
+        assertEquals(3, repository.lookedUp.size());
+    }
+
+    @Test
+    void dropsIdsOfUncommittedTransactionsUntilTheyComplete() {
+        TransactionSynchronizationManager.initSynchronization();
+        List<TransactionSynchronization> synchronizations;
+        try {
+            assertEquals(List.of("a"), ids(deduplicator.filter(hits("a"))));
+            assertEquals(List.of(), ids(deduplicator.filter(hits("a"))));
+            synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertTrue(repository.lookedUp.isEmpty());
+
+        synchronizations.forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        assertEquals(List.of("a"), write("a"));
+        assertEquals(List.of("a"), repository.lookedUp);
+    }
+
+    /**
+     * Filters the hits and stores the ids of those kept, as the ingest transaction does.
+     */
+    private List<String> write(String... ids) {
+        List<String> kept = ids(deduplicator.filter(hits(ids)));
+        repository.stored.addAll(kept);
+        return kept;
+    }
+
+    private static List<EndpointHit> hits(String... ids) {
+        List<EndpointHit> hits = new ArrayList<>();
+        for (String id : ids) {
+            EndpointHit hit = new EndpointHit();
+            hit.setHitId(id);
+            hits.add(hit);
+        }
+        return hits;
+    }
+
+    private static List<String> ids(List<EndpointHit> hits) {
+        return hits.stream().map(EndpointHit::getHitId).collect(Collectors.toList());
+    }
+
+    /**
+     * In-memory stand-in for the ids stored with the hits.
+     */
+    private static class FakeHitIdRepository extends HitIdRepository {
+        private final List<String> lookedUp = new ArrayList<>();
+        private final Set<String> stored = new HashSet<>();
+
+        FakeHitIdRepository() {
+            super(null);
+        }
+
+        @Override
+        public Set<String> findExisting(Collection<String> hitIds) {
+            lookedUp.addAll(hitIds);
+            return hitIds.stream().filter(stored::contains).collect(Collectors.toSet());
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package ru.practicum.ewm.stats.server.ingest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ewm.stats.dto.EndpointHitDto;
+import ru.practicum.ewm.stats.server.repository.JournalCheckpointRepository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class HitJournalTest {
+    private static final LocalDateTime TIMESTAMP = LocalDateTime.of(2024, 3, 1, 12, 30, 15, 123_456_000);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsRecordWithIdAndCount() {
+        EndpointHitDto hit = hit("stats-id-1", 7);
+
+        assertEquals(hit, HitJournal.decode(ByteBuffer.wrap(HitJournal.encode(hit))));
+    }
+
+    @Test
+    void roundTripsRecordWithoutIdAndCount() {
+        EndpointHitDto decoded = HitJournal.decode(ByteBuffer.wrap(HitJournal.encode(hit(null, null))));
+
+        assertNull(decoded.getHitId());
+        assertEquals(1, decoded.getCount());
+        assertEquals(TIMESTAMP, decoded.getHitTimestamp());
+        assertEquals("/events/1", decoded.getUri());
+    }
+
+    @Test
+    void roundTripsNonAsciiStrings() {
+        EndpointHitDto hit = hit("идентификатор", 2);
+        hit.setUri("/события/1");
+
+        assertEquals(hit, HitJournal.decode(ByteBuffer.wrap(HitJournal.encode(hit))));
+    }
+
+    @Test
+    void decodesRecordsWrittenBeforeTheHitId() {
+        ByteBuffer record = header(ByteBuffer.allocate(128)).flip();
+
+        EndpointHitDto decoded = HitJournal.decode(record);
+
+        assertEquals("ewm-main-service", decoded.getApp());
+        assertEquals("192.168.0.1", decoded.getIp());
+        assertNull(decoded.getHitId());
+        assertNull(decoded.getCount());
+    }
+
+    @Test
+    void decodesRecordsWrittenBeforeTheCount() {
+        ByteBuffer record = header(ByteBuffer.allocate(128));
+        putString(record, "stats-id-1");
+        record.flip();
+
+        EndpointHitDto decoded = HitJournal.decode(record);
+
+        assertEquals("stats-id-1", decoded.getHitId());
+        assertNull(decoded.getCount());
+    }
+
+    @Test
+    void continuesAfterTheLastCheckpointedSegment() throws Exception {
+        FakeCheckpointRepository checkpoints = new FakeCheckpointRepository();
+        checkpoints.offsets.put("hits-00000000000000000003.seg", 120);
+        HitJournal journal = journal(checkpoints);
+
+        journal.start();
+        List<String> files = files();
+        journal.stop();
+
+        assertEquals(List.of("hits-00000000000000000004.seg"), files);
+        assertEquals(Map.of(), checkpoints.offsets);
+    }
+
+    @Test
+    void ignoresStrayFilesInTheDirectory() throws Exception {
+        Files.createFile(directory.resolve("hits-backup.seg"));
+        HitJournal journal = journal(new FakeCheckpointRepository());
+
+        journal.start();
+        List<String> files = files();
+        journal.stop();
+
+        assertEquals(List.of("hits-00000000000000000001.seg", "hits-backup.seg"), files);
+    }
+
+    @Test
+    void parsesSegmentSequences() {
+        assertEquals(12, HitJournal.sequence("hits-00000000000000000012.seg"));
+        assertEquals(-1, HitJournal.sequence("hits-backup.seg"));
+        assertEquals(-1, HitJournal.sequence("hits-.seg"));
+        assertEquals(-1, HitJournal.sequence("other.seg"));
+    }
+
+    private HitJournal journal(JournalCheckpointRepository checkpoints) {
+        return new HitJournal(null, null, checkpoints, new TransactionTemplate(), new SimpleMeterRegistry(),
+                true, directory.toString(), 4096, false, 60_000, 100);
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static ByteBuffer header(ByteBuffer record) {
+        record.putLong(TIMESTAMP.toEpochSecond(ZoneOffset.UTC));
+        record.putInt(TIMESTAMP.getNano());
+        putString(record, "ewm-main-service");
+        putString(record, "/events/1");
+        putString(record, "192.168.0.1");
+        return record;
+    }
+
+    private static void putString(ByteBuffer record, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        record.putShort((short) bytes.length);
+        record.put(bytes);
+    }
+
+    private static EndpointHitDto hit(String hitId, Integer count) {
+        return EndpointHitDto.builder()
+                .app("ewm-main-service")
+                .uri("/events/1")
+                .ip("192.168.0.1")
+                .hitTimestamp(TIMESTAMP)
+                .hitId(hitId)
+                .count(count)
+                .build();
+    }
+
+    private static class FakeCheckpointRepository extends JournalCheckpointRepository {
+        private final Map<String, Integer> offsets = new HashMap<>();
+
+        FakeCheckpointRepository() {
+            super(null);
+        }
+
+        @Override
+        public Map<String, Integer> findAll() {
+            return new HashMap<>(offsets);
+        }
+
+        @Override
+        public void save(String segment, int offset) {
+            offsets.put(segment, offset);
+        }
+
+        @Override
+        public void delete(String segment) {
+            offsets.remove(segment);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ru.practicum.ewm.stats.server.live;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SlidingWindowCounterTest {
+    @Test
+    void sumsSlotsOfTheWindow() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(60, 4);
+        counter.add(100, 1);
+        counter.add(101, 2);
+        counter.add(101, 3);
+        counter.add(105, 4);
+
+        assertEquals(10, counter.sum(105, 60));
+        assertEquals(9, counter.sum(105, 5));
+        assertEquals(4, counter.sum(105, 4));
+        assertEquals(6, counter.sum(104, 60));
+        assertEquals(0, counter.sum(99, 60));
+    }
+
+    @Test
+    void ignoresSlotsLeftFromAnEarlierLap() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(60, 1);
+        counter.add(10, 5);
+        counter.add(11, 1);
+
+        assertEquals(1, counter.sum(70, 60));
+
+        counter.add(70, 2);
+
+        assertEquals(3, counter.sum(70, 60));
+        assertEquals(2, counter.sum(71, 60));
+        assertEquals(0, counter.sum(200, 60));
+    }
+
+    @Test
+    void isIdleOnceTheWindowPassesTheLastHit() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(60, 2);
+
+        assertTrue(counter.isIdle(1_000));
+
+        counter.add(1_000, 1);
+
+        assertFalse(counter.isIdle(1_000));
+        assertFalse(counter.isIdle(1_059));
+        assertTrue(counter.isIdle(1_060));
+    }
+
+    @Test
+    void countsConcurrentWritersExactly() throws InterruptedException {
+        SlidingWindowCounter counter = new SlidingWindowCounter(60, 4);
+        int threads = 8;
+        int hitsPerThread = 50_000;
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < hitsPerThread; i++) {
+                    counter.add(500 + i % 10, 1);
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals((long) threads * hitsPerThread, counter.sum(509, 60));
+        assertEquals((long) threads * hitsPerThread / 10, counter.sum(509, 1));
+    }
+}
@@ -0,0 +1,143 @@
+package ru.practicum.ewm.stats.server.rollup;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.stats.server.bucket.TimeGrain;
+import ru.practicum.ewm.stats.server.bucket.TimeSlice;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.model.ViewStatsProjection;
+import ru.practicum.ewm.stats.server.model.ViewStatsRow;
+import ru.practicum.ewm.stats.server.repository.RollupRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RollupServiceTest {
+    private static final LocalDateTime DAY = LocalDateTime.of(2024, 3, 1, 0, 0);
+
+    private final FakeRollupRepository repository = new FakeRollupRepository();
+    private final RollupService service = new RollupService(repository, true);
+
+    @Test
+    void incrementsEveryGrainInKeyOrder() {
+        ingest(hit(2, 10, DAY.plusMinutes(90), 1), hit(1, 10, DAY.plusMinutes(91), 2), hit(1, 11, DAY, 1));
+
+        List<RollupKey> keys = new ArrayList<>(repository.increments.get(0).keySet());
+        assertEquals(keys.stream().sorted().collect(Collectors.toList()), keys);
+        assertEquals(9, keys.size());
+        assertEquals(2L, repository.rollups.get(new RollupKey(TimeGrain.DAY, 1, 10, DAY)));
+        assertEquals(1L, repository.rollups.get(new RollupKey(TimeGrain.HOUR, 2, 10, DAY.plusHours(1))));
+        assertEquals(2L, repository.rollups.get(new RollupKey(TimeGrain.MINUTE, 1, 10, DAY.plusMinutes(91))));
+        assertEquals(1L, repository.rollups.get(new RollupKey(TimeGrain.DAY, 1, 11, DAY)));
+    }
+
+    @Test
+    void countsInclusiveEndsOfAlignedRanges() {
+        ingest(hit(1, 10, DAY, 1), hit(1, 10, DAY.plusDays(1).minusNanos(1_000), 2), hit(1, 10, DAY.plusDays(1), 4));
+
+        assertEquals(Map.of("1/10", 3L), stats(DAY, DAY.plusDays(1).minusNanos(1_000), null));
+        assertEquals(Map.of("1/10", 7L), stats(DAY, DAY.plusDays(1), null));
+    }
+
+    @Test
+    void answersRangesLikeTheRawHits() {
+        Random random = new Random(7);
+        List<EndpointHit> hits = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            hits.add(hit(1 + random.nextInt(2), 10 + random.nextInt(3),
+                    DAY.plusSeconds(random.nextInt(4 * 24 * 3600)).plusNanos(random.nextInt(1_000_000) * 1_000L),
+                    1 + random.nextInt(3)));
+        }
+        ingest(hits.toArray(new EndpointHit[0]));
+
+        for (int i = 0; i < 200; i++) {
+            LocalDateTime start = DAY.plusSeconds(random.nextInt(4 * 24 * 3600));
+            LocalDateTime end = start.plusSeconds(random.nextInt(3 * 24 * 3600));
+            List<Integer> uriIds = random.nextBoolean() ? null : List.of(10 + random.nextInt(3));
+            List<TimeSlice> rawOnly = List.of(new TimeSlice(null, start, end.plusNanos(1_000)));
+
+            assertEquals(toMap(repository.sumHits(rawOnly, uriIds)), stats(start, end, uriIds), start + " - " + end);
+        }
+        assertTrue(repository.bucketSlices > 0);
+    }
+
+    private void ingest(EndpointHit... hits) {
+        repository.raw.addAll(List.of(hits));
+        service.onHits(List.of(hits));
+    }
+
+    private Map<String, Long> stats(LocalDateTime start, LocalDateTime end, List<Integer> uriIds) {
+        return toMap(service.getNotUniqueStats(start, end, uriIds));
+    }
+
+    private static Map<String, Long> toMap(List<ViewStatsProjection> rows) {
+        return rows.stream()
+                .collect(Collectors.toMap(row -> row.getAppId() + "/" + row.getUriId(), ViewStatsProjection::getHits));
+    }
+
+    private static EndpointHit hit(int appId, int uriId, LocalDateTime timestamp, int count) {
+        EndpointHit hit = new EndpointHit();
+        hit.setAppId(appId);
+        hit.setUriId(uriId);
+        hit.setHitTimestamp(timestamp);
+        hit.setHitCount(count);
+        return hit;
+    }
+
+    /**
+     * Rollups table and hits table in memory; slices are summed like the repository statement does.
+     */
+    private static class FakeRollupRepository extends RollupRepository {
+        private final Map<RollupKey, Long> rollups = new HashMap<>();
+        private final List<Map<RollupKey, Long>> increments = new ArrayList<>();
+        private final List<EndpointHit> raw = new ArrayList<>();
+        private int bucketSlices;
+
+        FakeRollupRepository() {
+            super(null);
+        }
+
+        @Override
+        public void increment(Map<RollupKey, Long> counts) {
+            increments.add(counts);
+            counts.forEach((key, hits) -> rollups.merge(key, hits, Long::sum));
+        }
+
+        @Override
+        public List<ViewStatsProjection> sumHits(List<TimeSlice> slices, Collection<Integer> uriIds) {
+            Map<List<Integer>, Long> counts = new HashMap<>();
+            for (TimeSlice slice : slices) {
+                if (slice.isRaw()) {
+                    for (EndpointHit hit : raw) {
+                        if (!hit.getHitTimestamp().isBefore(slice.getFrom())
+                                && hit.getHitTimestamp().isBefore(slice.getTo())
+                                && (uriIds == null || uriIds.contains(hit.getUriId()))) {
+                            counts.merge(List.of(hit.getAppId(), hit.getUriId()), (long) hit.getHitCount(),
+                                    Long::sum);
+                        }
+                    }
+                    continue;
+                }
+                bucketSlices++;
+                rollups.forEach((key, hits) -> {
+                    if (key.getGrain() == slice.getGrain() && !key.getBucketStart().isBefore(slice.getFrom())
+                            && key.getBucketStart().isBefore(slice.getTo())
+                            && (uriIds == null || uriIds.contains(key.getUriId()))) {
+                        counts.merge(List.of(key.getAppId(), key.getUriId()), hits, Long::sum);
+                    }
+                });
+            }
+            return counts.entrySet().stream()
+                    .map(entry -> new ViewStatsRow(entry.getKey().get(0), entry.getKey().get(1), entry.getValue()))
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package ru.practicum.ewm.stats.server.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.stats.server.model.StatsKey;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatsQueryExecutorTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 10, 30);
+    private static final LocalDateTime END = LocalDateTime.of(2024, 3, 5, 8, 15);
+
+    private final StatsQueryExecutor executor = new StatsQueryExecutor(true, 4, 1);
+    private final List<Hit> hits = List.of(
+            new Hit(1, 10, START, "a"),
+            new Hit(1, 10, LocalDateTime.of(2024, 3, 1, 23, 59, 59, 999_999_000), "b"),
+            new Hit(1, 10, LocalDateTime.of(2024, 3, 2, 0, 0), "a"),
+            new Hit(1, 11, LocalDateTime.of(2024, 3, 2, 0, 0), "c"),
+            new Hit(2, 10, LocalDateTime.of(2024, 3, 3, 12, 0), "b"),
+            new Hit(1, 10, LocalDateTime.of(2024, 3, 4, 23, 59, 59, 999_999_000), "c"),
+            new Hit(1, 10, LocalDateTime.of(2024, 3, 5, 0, 0), "b"),
+            new Hit(1, 11, END, "c"),
+            new Hit(1, 10, START.minusNanos(1_000), "d"),
+            new Hit(1, 10, END.plusNanos(1_000), "d"));
+
+    @AfterEach
+    void stop() {
+        executor.stop();
+    }
+
+    @Test
+    void splitsRangesLongerThanOneChunk() {
+        assertTrue(executor.splits(START, END));
+        assertFalse(executor.splits(START, START.plusHours(13).plusMinutes(29)));
+        assertFalse(new StatsQueryExecutor(true, 1, 1).splits(START, END));
+        assertFalse(new StatsQueryExecutor(false, 4, 1).splits(START, END));
+    }
+
+    @Test
+    void coversTheRangeWithChunksEndingBeforeDayStarts() {
+        List<LocalDateTime[]> chunks = Collections.synchronizedList(new ArrayList<>());
+        executor.aggregate(START, END, (from, to) -> {
+            chunks.add(new LocalDateTime[]{from, to});
+            return Map.<StatsKey, Long>of();
+        }, Long::sum);
+
+        chunks.sort((chunk, other) -> chunk[0].compareTo(other[0]));
+        assertEquals(5, chunks.size());
+        assertEquals(START, chunks.get(0)[0]);
+        for (int i = 1; i < chunks.size(); i++) {
+            assertEquals(START.toLocalDate().plusDays(i).atStartOfDay(), chunks.get(i)[0]);
+            assertEquals(chunks.get(i)[0].minusNanos(1_000), chunks.get(i - 1)[1]);
+        }
+        assertEquals(END, chunks.get(4)[1]);
+    }
+
+    @Test
+    void sumsHitCountsOfChunksToTheSinglePassCounts() {
+        Map<StatsKey, Long> merged = executor.aggregate(START, END, this::countHits, Long::sum);
+
+        assertEquals(countHits(START, END), merged);
+        assertEquals(Map.of(new StatsKey(1, 10), 5L, new StatsKey(1, 11), 2L, new StatsKey(2, 10), 1L), merged);
+    }
+
+    @Test
+    void unitesVisitorSetsOfChunksToTheSinglePassSets() {
+        Map<StatsKey, Set<String>> merged = executor.aggregate(START, END, this::collectVisitors, (ips, other) -> {
+            ips.addAll(other);
+            return ips;
+        });
+
+        assertEquals(collectVisitors(START, END), merged);
+        assertEquals(Set.of("a", "b", "c"), merged.get(new StatsKey(1, 10)));
+        assertEquals(Set.of("c"), merged.get(new StatsKey(1, 11)));
+    }
+
+    @Test
+    void rethrowsFailuresOfChunks() {
+        IllegalStateException failure = new IllegalStateException("chunk failed");
+
+        assertEquals(failure, assertThrows(IllegalStateException.class, () -> executor.aggregate(START, END,
+                (from, to) -> {
+                    if (!from.equals(START)) {
+                        throw failure;
+                    }
+                    return countHits(from, to);
+                }, Long::sum)));
+    }
+
+    private Map<StatsKey, Long> countHits(LocalDateTime from, LocalDateTime to) {
+        Map<StatsKey, Long> counts = new HashMap<>();
+        for (Hit hit : hits) {
+            if (!hit.timestamp.isBefore(from) && !hit.timestamp.isAfter(to)) {
+                counts.merge(new StatsKey(hit.appId, hit.uriId), 1L, Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    private Map<StatsKey, Set<String>> collectVisitors(LocalDateTime from, LocalDateTime to) {
+        Map<StatsKey, Set<String>> visitors = new HashMap<>();
+        for (Hit hit : hits) {
+            if (!hit.timestamp.isBefore(from) && !hit.timestamp.isAfter(to)) {
+                visitors.computeIfAbsent(new StatsKey(hit.appId, hit.uriId), key -> new HashSet<>()).add(hit.ip);
+            }
+        }
+        return visitors;
+    }
+
+    private static class Hit {
+        private final int appId;
+        private final int uriId;
+        private final LocalDateTime timestamp;
+        private final String ip;
+
+        Hit(int appId, int uriId, LocalDateTime timestamp, String ip) {
+            this.appId = appId;
+            this.uriId = uriId;
+            this.timestamp = timestamp;
+            this.ip = ip;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package ru.practicum.ewm.stats.server.sketch;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import ru.practicum.ewm.stats.server.bucket.TimeGrain;
+import ru.practicum.ewm.stats.server.model.EndpointHit;
+import ru.practicum.ewm.stats.server.model.StatsKey;
+import ru.practicum.ewm.stats.server.repository.SketchRepository;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BucketSketchStoreTest {
+    private static final LocalDateTime TODAY = LocalDate.now().atStartOfDay();
+
+    private final FakeSketchRepository repository = new FakeSketchRepository();
+    private final VisitorSetStore store = new VisitorSetStore(repository, true);
+
+    @Test
+    void countsCommittedHitsBeforeAndAfterTheFlush() {
+        repository.backfill.put(VisitorSetStore.TABLE, LocalDateTime.MIN);
+        store.start();
+        ingest(hit(1, 10, TODAY.minusDays(2).plusHours(3), 1), hit(1, 10, TODAY.minusDays(2).plusHours(5), 2),
+                hit(1, 10, TODAY.minusDays(1).plusHours(1), 1), hit(2, 20, TODAY.minusDays(1).plusHours(2), 3));
+
+        assertEquals(Map.of("1/10", 2, "2/20", 1), visitors(TODAY.minusDays(3), TODAY));
+        assertEquals(3, repository.deltas.size());
+
+        store.flush();
+
+        assertTrue(repository.deltas.isEmpty());
+        assertEquals(3, repository.sketches.size());
+        assertEquals(Map.of("1/10", 2, "2/20", 1), visitors(TODAY.minusDays(3), TODAY));
+        assertTrue(repository.rawReads.isEmpty());
+    }
+
+    @Test
+    void keepsTheDeltasWhenAFlushFails() {
+        repository.backfill.put(VisitorSetStore.TABLE, LocalDateTime.MIN);
+        store.start();
+        ingest(hit(1, 10, TODAY.minusDays(1), 1));
+        store.flush();
+        ingest(hit(1, 10, TODAY.minusDays(1), 2));
+        repository.failStores = true;
+
+        store.flush();
+
+        assertEquals(1, repository.deltas.size());
+        assertEquals(Map.of("1/10", 2), visitors(TODAY.minusDays(1), TODAY));
+
+        repository.failStores = false;
+        store.flush();
+
+        assertTrue(repository.deltas.isEmpty());
+        assertEquals(Map.of("1/10", 2), visitors(TODAY.minusDays(1), TODAY));
+    }
+
+    @Test
+    void answersBucketsTheBackfillHasNotReachedFromTheHits() {
+        store.start();
+        store.stored.add(hit(1, 10, TODAY.minusDays(3).plusHours(1), 1));
+        store.stored.add(hit(1, 10, TODAY.minusDays(1).plusHours(1), 2));
+
+        assertEquals(Map.of("1/10", 2), visitors(TODAY.minusDays(5), TODAY));
+        assertEquals(List.of(TODAY.minusDays(5) + "/" + TODAY), repository.rawReads);
+
+        store.backfill();
+        store.backfill();
+        repository.rawReads.clear();
+
+        assertEquals(Map.of("1/10", 2), visitors(TODAY.minusDays(5), TODAY));
+        assertEquals(List.of(TODAY.minusDays(5) + "/" + TODAY.minusDays(1)), repository.rawReads);
+    }
+
+    @Test
+    void backfillsTheHistoryDayByDay() {
+        store.start();
+        store.stored.add(hit(1, 10, TODAY.minusDays(3).plusHours(1), 1));
+        store.stored.add(hit(1, 10, TODAY.minusDays(1).plusHours(1), 2));
+        ingest(hit(1, 10, TODAY.plusHours(1), 3));
+
+        for (int i = 0; i < 10; i++) {
+            store.backfill();
+        }
+        store.flush();
+        repository.rawReads.clear();
+
+        assertEquals(LocalDateTime.MIN, repository.backfill.get(VisitorSetStore.TABLE));
+        assertEquals(Map.of("1/10", 3), visitors(TODAY.minusDays(5), TODAY.plusDays(1)));
+        assertTrue(repository.rawReads.isEmpty());
+        assertEquals(Set.of(TODAY.minusDays(3), TODAY.minusDays(1), TODAY), repository.sketches.keySet().stream()
+                .map(SketchKey::getBucketStart)
+                .collect(Collectors.toSet()));
+    }
+
+    @Test
+    void startsTheBackfillOverWhileDisabled() {
+        repository.backfill.put(VisitorSetStore.TABLE, LocalDateTime.MIN);
+        VisitorSetStore disabled = new VisitorSetStore(repository, false);
+
+        disabled.start();
+        disabled.onHits(List.of(hit(1, 10, TODAY, 1)));
+
+        assertFalse(repository.backfill.containsKey(VisitorSetStore.TABLE));
+        assertTrue(repository.deltas.isEmpty());
+    }
+
+    @Test
+    void dropsSketchesAndDeltasBeforeTheRetentionCutoff() {
+        repository.backfill.put(VisitorSetStore.TABLE, LocalDateTime.MIN);
+        store.start();
+        ingest(hit(1, 10, TODAY.minusDays(2), 1), hit(1, 10, TODAY.minusDays(1), 2));
+        store.flush();
+        ingest(hit(1, 10, TODAY.minusDays(2), 3));
+
+        store.onRetention(TODAY.minusDays(1));
+
+        assertEquals(1, repository.sketches.size());
+        assertTrue(repository.deltas.isEmpty());
+        assertEquals(Map.of("1/10", 1), visitors(TODAY.minusDays(5), TODAY));
+    }
+
+    private void ingest(EndpointHit... hits) {
+        store.stored.addAll(List.of(hits));
+        store.onHits(List.of(hits));
+    }
+
+    private Map<String, Integer> visitors(LocalDateTime from, LocalDateTime to) {
+        return store.collectRange(from, to, null).entrySet().stream()
+                .collect(Collectors.toMap(entry -> entry.getKey().getAppId() + "/" + entry.getKey().getUriId(),
+                        entry -> entry.getValue().size()));
+    }
+
+    private static EndpointHit hit(int appId, int uriId, LocalDateTime timestamp, int visitor) {
+        EndpointHit hit = new EndpointHit();
+        hit.setAppId(appId);
+        hit.setUriId(uriId);
+        hit.setIp(new byte[]{10, 0, 0, (byte) visitor});
+        hit.setHitTimestamp(timestamp);
+        return hit;
+    }
+
+    /**
+     * Exact sets of the last IP bytes per day, read back from the hits of the test for raw ranges.
+     */
+    private static class VisitorSetStore extends BucketSketchStore<Set<Integer>, Integer> {
+        private static final String TABLE = "visitor_sets";
+
+        private final FakeSketchRepository repository;
+        private final List<EndpointHit> stored = new ArrayList<>();
+
+        VisitorSetStore(FakeSketchRepository repository, boolean enabled) {
+            super(repository, new NoTransactionManager(), TABLE, TimeGrain.DAY, enabled);
+            this.repository = repository;
+            repository.stored = stored;
+        }
+
+        @Override
+        protected Set<Integer> newSketch() {
+            return new TreeSet<>();
+        }
+
+        @Override
+        protected List<Integer> values(List<EndpointHit> hits) {
+            return hits.stream()
+                    .map(hit -> (int) hit.getIp()[3])
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        protected void add(Set<Integer> sketch, Integer value) {
+            sketch.add(value);
+        }
+
+        @Override
+        protected void merge(Set<Integer> target, Set<Integer> source) {
+            target.addAll(source);
+        }
+
+        @Override
+        protected byte[] serialize(Set<Integer> sketch) {
+            ByteBuffer bytes = ByteBuffer.allocate(sketch.size() * Integer.BYTES);
+            sketch.forEach(bytes::putInt);
+            return bytes.array();
+        }
+
+        @Override
+        protected Set<Integer> deserialize(byte[] bytes) {
+            Set<Integer> sketch = new TreeSet<>();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                sketch.add(buffer.getInt());
+            }
+            return sketch;
+        }
+
+        @Override
+        protected void collectRaw(Map<StatsKey, Set<Integer>> result, LocalDateTime from, LocalDateTime to,
+                                  Collection<Integer> uriIds) {
+            repository.rawReads.add(from + "/" + to);
+            for (EndpointHit hit : stored) {
+                if (!hit.getHitTimestamp().isBefore(from) && hit.getHitTimestamp().isBefore(to)) {
+                    result.computeIfAbsent(new StatsKey(hit.getAppId(), hit.getUriId()), key -> newSketch())
+                            .add((int) hit.getIp()[3]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sketch, delta and backfill tables of one sketch table in memory; {@link LocalDateTime#MIN} stands
+     * for a NULL {@code complete_from}.
+     */
+    private static class FakeSketchRepository extends SketchRepository {
+        private final Map<SketchKey, byte[]> sketches = new HashMap<>();
+        private final Map<Long, Map.Entry<SketchKey, byte[]>> deltas = new TreeMap<>();
+        private final Map<String, LocalDateTime> backfill = new HashMap<>();
+        private final List<String> rawReads = new ArrayList<>();
+        private List<EndpointHit> stored = List.of();
+        private long nextDeltaId = 1;
+        private boolean failStores;
+
+        FakeSketchRepository() {
+            super(null);
+        }
+
+        @Override
+        public boolean insertIfAbsent(String table, SketchKey key, byte[] sketch) {
+            if (failStores) {
+                throw new IllegalStateException("Database is down");
+            }
+            return sketches.putIfAbsent(key, sketch) == null;
+        }
+
+        @Override
+        public byte[] findForUpdate(String table, SketchKey key) {
+            return sketches.get(key);
+        }
+
+        @Override
+        public void update(String table, SketchKey key, byte[] sketch) {
+            sketches.put(key, sketch);
+        }
+
+        @Override
+        public void forEach(String table, LocalDateTime from, LocalDateTime to, Collection<Integer> uriIds,
+                            BiConsumer<SketchKey, byte[]> consumer) {
+            sketches.forEach((key, sketch) -> {
+                if (!key.getBucketStart().isBefore(from) && key.getBucketStart().isBefore(to)) {
+                    consumer.accept(key, sketch);
+                }
+            });
+            deltas.values().forEach(delta -> {
+                if (!delta.getKey().getBucketStart().isBefore(from) && delta.getKey().getBucketStart().isBefore(to)) {
+                    consumer.accept(delta.getKey(), delta.getValue());
+                }
+            });
+        }
+
+        @Override
+        public void insertDeltas(String table, Map<SketchKey, byte[]> batch) {
+            batch.forEach((key, sketch) -> deltas.put(nextDeltaId++, Map.entry(key, sketch)));
+        }
+
+        @Override
+        public void lockDeltas(String table, int limit, DeltaCallback callback) {
+            deltas.entrySet().stream()
+                    .limit(limit)
+                    .forEach(delta -> callback.accept(delta.getKey(), delta.getValue().getKey(),
+                            delta.getValue().getValue()));
+        }
+
+        @Override
+        public void deleteDeltas(Collection<Long> deltaIds) {
+            deltaIds.forEach(deltas::remove);
+        }
+
+        @Override
+        public Optional<LocalDateTime> findOldestHit() {
+            return stored.stream()
+                    .map(EndpointHit::getHitTimestamp)
+                    .min(LocalDateTime::compareTo);
+        }
+
+        @Override
+        public LocalDateTime findCompleteFrom(String table) {
+            return backfill.getOrDefault(table, LocalDateTime.MAX);
+        }
+
+        @Override
+        public LocalDateTime lockCompleteFrom(String table, LocalDateTime initial) {
+            return backfill.computeIfAbsent(table, t -> initial);
+        }
+
+        @Override
+        public void updateCompleteFrom(String table, LocalDateTime completeFrom) {
+            backfill.put(table, completeFrom);
+        }
+
+        @Override
+        public void resetBackfill(String table) {
+            backfill.remove(table);
+        }
+
+        @Override
+        public int deleteBefore(String table, LocalDateTime cutoff) {
+            deltas.values().removeIf(delta -> delta.getKey().getBucketStart().isBefore(cutoff));
+            int before = sketches.size();
+            sketches.keySet().removeIf(key -> key.getBucketStart().isBefore(cutoff));
+            return before - sketches.size();
+        }
+    }
+
+    private static class NoTransactionManager implements PlatformTransactionManager {
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ru.practicum.ewm.stats.server.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperLogLogTest {
+    private static final int PRECISION = 14;
+
+    @Test
+    void estimatesLargeCardinalityWithinErrorBound() {
+        HyperLogLog sketch = sketchOf(PRECISION, 0, 100_000);
+
+        assertWithinBound(100_000, sketch);
+    }
+
+    @Test
+    void estimatesSmallCardinalityAlmostExactly() {
+        HyperLogLog sketch = sketchOf(PRECISION, 0, 10);
+
+        assertEquals(10, sketch.estimate(), 1);
+    }
+
+    @Test
+    void ignoresRepeatedItems() {
+        HyperLogLog sketch = sketchOf(PRECISION, 0, 1_000);
+        byte[] before = sketch.toBytes();
+        for (int i = 0; i < 1_000; i++) {
+            sketch.add(hash(i));
+        }
+
+        assertArrayEquals(before, sketch.toBytes());
+    }
+
+    @Test
+    void mergeEstimatesUnion() {
+        HyperLogLog sketch = sketchOf(PRECISION, 0, 60_000);
+        HyperLogLog other = sketchOf(PRECISION, 40_000, 100_000);
+
+        sketch.merge(other);
+
+        assertWithinBound(100_000, sketch);
+    }
+
+    @Test
+    void mergeIsIdempotent() {
+        HyperLogLog sketch = sketchOf(PRECISION, 0, 50_000);
+        HyperLogLog other = sketchOf(PRECISION, 25_000, 75_000);
+        sketch.merge(other);
+        byte[] once = sketch.toBytes();
+
+        sketch.merge(other);
+        sketch.merge(sketchOf(PRECISION, 0, 50_000));
+
+        assertArrayEquals(once, sketch.toBytes());
+    }
+
+    @Test
+    void mergeFoldsHigherPrecisionIntoSameRegisters() {
+        HyperLogLog folded = new HyperLogLog(10);
+        folded.merge(sketchOf(PRECISION, 0, 20_000));
+
+        assertArrayEquals(sketchOf(10, 0, 20_000).toBytes(), folded.toBytes());
+    }
+
+    @Test
+    void mergeRejectsLowerPrecision() {
+        HyperLogLog sketch = new HyperLogLog(PRECISION);
+
+        assertThrows(IllegalArgumentException.class, () -> sketch.merge(new HyperLogLog(10)));
+    }
+
+    @Test
+    void serializesSparseAndDenseSketches() {
+        for (int items : new int[]{0, 100, 100_000}) {
+            HyperLogLog sketch = sketchOf(PRECISION, 0, items);
+
+            HyperLogLog copy = HyperLogLog.fromBytes(sketch.toBytes());
+
+            assertEquals(PRECISION, copy.getPrecision());
+            assertEquals(sketch.estimate(), copy.estimate());
+            assertArrayEquals(sketch.toBytes(), copy.toBytes());
+        }
+        assertTrue(sketchOf(PRECISION, 0, 100).toBytes().length < 1 << PRECISION);
+    }
+
+    @Test
+    void precisionForMeetsRelativeError() {
+        assertEquals(14, HyperLogLog.precisionFor(0.01));
+        assertEquals(HyperLogLog.MAX_PRECISION, HyperLogLog.precisionFor(0.0001));
+        assertEquals(HyperLogLog.MIN_PRECISION, HyperLogLog.precisionFor(0.5));
+    }
+
+    private static void assertWithinBound(long expected, HyperLogLog sketch) {
+        double bound = 3 * 1.04 / Math.sqrt(1 << sketch.getPrecision());
+        double error = Math.abs(sketch.estimate() - expected) / (double) expected;
+        assertTrue(error <= bound, "relative error " + error + " exceeds " + bound);
+    }
+
+    private static HyperLogLog sketchOf(int precision, int from, int to) {
+        HyperLogLog sketch = new HyperLogLog(precision);
+        for (int i = from; i < to; i++) {
+            sketch.add(hash(i));
+        }
+        return sketch;
+    }
+
+    private static long hash(int item) {
+        return Hashing.hash64(ByteBuffer.allocate(4).putInt(item).array());
+    }
+}
@@ -0,0 +1,81 @@
+package ru.practicum.ewm.stats.server.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpaceSavingTest {
+    @Test
+    void countsExactlyWhileItemsFit() {
+        SpaceSaving<String> summary = new SpaceSaving<>(3);
+        summary.offer("a", 5);
+        summary.offer("b", 2);
+        summary.offer("a", 1);
+        summary.offer("c", 4);
+
+        List<SpaceSaving.Counter<String>> top = summary.top(3);
+
+        assertEquals(List.of("a", "c", "b"), top.stream().map(SpaceSaving.Counter::getItem)
+                .collect(Collectors.toList()));
+        assertEquals(List.of(6L, 4L, 2L), top.stream().map(SpaceSaving.Counter::getCount)
+                .collect(Collectors.toList()));
+        top.forEach(counter -> assertEquals(0, counter.getError()));
+    }
+
+    @Test
+    void topIsLimitedToN() {
+        SpaceSaving<Integer> summary = new SpaceSaving<>(10);
+        for (int i = 0; i < 10; i++) {
+            summary.offer(i, i + 1);
+        }
+
+        List<SpaceSaving.Counter<Integer>> top = summary.top(2);
+
+        assertEquals(2, top.size());
+        assertEquals(9, top.get(0).getItem());
+        assertEquals(8, top.get(1).getItem());
+    }
+
+    @Test
+    void boundsHoldOnSkewedStream() {
+        int capacity = 50;
+        SpaceSaving<Integer> summary = new SpaceSaving<>(capacity);
+        Map<Integer, Long> exact = new HashMap<>();
+        Random random = new Random(42);
+        long total = 0;
+        for (int i = 0; i < 100_000; i++) {
+            int item = (int) Math.floor(Math.pow(random.nextDouble(), 3) * 1_000);
+            long weight = 1 + random.nextInt(3);
+            summary.offer(item, weight);
+            exact.merge(item, weight, Long::sum);
+            total += weight;
+        }
+
+        List<SpaceSaving.Counter<Integer>> top = summary.top(capacity);
+        for (SpaceSaving.Counter<Integer> counter : top) {
+            long count = exact.get(counter.getItem());
+            assertTrue(counter.getCount() >= count, "count underestimated for " + counter.getItem());
+            assertTrue(counter.getCount() - counter.getError() <= count, "error bound broken for " + counter.getItem());
+        }
+        long threshold = total / capacity;
+        List<Integer> reported = top.stream().map(SpaceSaving.Counter::getItem).collect(Collectors.toList());
+        exact.forEach((item, count) -> {
+            if (count > threshold) {
+                assertTrue(reported.contains(item), "heavy hitter " + item + " missing");
+            }
+        });
+    }
+
+    @Test
+    void rejectsNonPositiveCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new SpaceSaving<>(0));
+    }
+}